@@ -1,3 +1,3 @@
 #! /bin/bash
 rm -rf bin/*.class
-javac -cp ".;lib/postgresql-42.1.4.jar;" src/AirBooking.java -d bin/
+javac -cp ".;lib/postgresql-42.1.4.jar;" -sourcepath src/ src/AirBooking.java -d bin/
@@ -0,0 +1,3 @@
+#! /bin/bash
+rm -rf bin/*.class
+javac -cp ".;lib/postgresql-42.1.4.jar;" -sourcepath src/ src/BookingBenchmark.java -d bin/
\ No newline at end of file
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+OPERATIONS=${4:-}
+
+# Example: source ./run_bench.sh flightDB 5432 user "topDestinations|seatsAvailable"
+java -cp lib/*:bin/ BookingBenchmark $DBNAME $PORT $USER "$OPERATIONS"
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+DATA=${4:-../data}
+
+# Example: source ./run_bulkload.sh flightDB 5432 user ../data
+java -Dairbooking.loader.truncate=true -Dairbooking.loader.rejects=rejects.txt -cp lib/*:bin/ BulkLoader $DBNAME $PORT $USER $DATA
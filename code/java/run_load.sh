@@ -0,0 +1,7 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./run_load.sh flightDB 5432 user
+java -Dairbooking.load.clients=50 -Dairbooking.load.mix=add=10,book=40,review=10,list=40 -cp lib/*:bin/ LoadDriver $DBNAME $PORT $USER
@@ -0,0 +1,7 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./run_oversell.sh flightDB 5432 user
+java -Dairbooking.oversell.threads=32 -cp lib/*:bin/ OversellCheck $DBNAME $PORT $USER
\ No newline at end of file
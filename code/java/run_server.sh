@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+HTTP_PORT=${4:-8080}
+
+# Example: source ./run_server.sh flightDB 5432 user 8080
+java -cp lib/*:bin/ AirBookingServer $DBNAME $PORT $USER $HTTP_PORT
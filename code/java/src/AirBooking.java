@@ -11,202 +11,24 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
-import java.util.Random;
 import java.util.ArrayList;
 
 /**
- * This class defines a simple embedded SQL utility class that is designed to
- * work with PostgreSQL JDBC drivers.
+ * This class defines the console menu of the booking system. The
+ * operations run on a BookingService.
  *
  */
 
 public class AirBooking{
-	//reference to physical database connection
-	private Connection _connection = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	// cities suggested for an ambiguous prefix
+	private static final int SUGGESTIONS = 10;
 	
-	public AirBooking(String dbname, String dbport, String user, String passwd) throws SQLException {
-		System.out.print("Connecting to database...");
-		try{
-			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-			System.out.println ("Connection URL: " + url + "\n");
-			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
-	        System.out.println("Done");
-		}catch(Exception e){
-			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
-	        System.out.println("Make sure you started postgres on this machine");
-	        System.exit(-1);
-		}
-	}
-	
-	/**
-	 * Method to execute an update SQL statement.  Update SQL instructions
-	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
-	 * 
-	 * @param sql the input SQL string
-	 * @throws java.sql.SQLException when update failed
-	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
-	}//end executeUpdate
-
-	/**
-	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
-	 * 
-	 * @param query the input query string
-	 * @return the number of rows returned
-	 * @throws java.sql.SQLException when failed to execute the query
-	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
-	}
-	
-	/**
-	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the results as
-	 * a list of records. Each record in turn is a list of attribute values
-	 * 
-	 * @param query the input query string
-	 * @return the query result as a list of records
-	 * @throws java.sql.SQLException when failed to execute the query
-	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
-	}//end executeQueryAndReturnResult
-	
-	/**
-	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
-	 * 
-	 * @param query the input query string
-	 * @return the number of rows returned
-	 * @throws java.sql.SQLException when failed to execute the query
-	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		int rowCount = 0;
-
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
-	}
-	
-	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
-	 * 
-	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
-	 * @throws java.sql.SQLException when failed to execute the query
-	 */
-	
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
-	}
-
-	/**
-	 * Method to close the physical connection if it is open.
-	 */
-	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
-	}//end cleanup
-
 	/**
 	 * The main execution method
 	 * 
@@ -220,7 +42,7 @@ public class AirBooking{
 			return;
 		}//end if
 		
-		AirBooking esql = null;
+		BookingService esql = null;
 		
 		try{
 			
@@ -237,7 +59,7 @@ public class AirBooking{
 			String dbport = args[1];
 			String user = args[2];
 			
-			esql = new AirBooking (dbname, dbport, user, "");
+			esql = BookingService.connect (dbname, dbport, user, "");
 			
 			boolean keepon = true;
 			while(keepon){
@@ -252,7 +74,8 @@ public class AirBooking{
 				System.out.println("7. List Highest Rated Destinations");
 				System.out.println("8. List Flights to Destination in order of Duration");
 				System.out.println("9. Find Number of Available Seats on a given Flight");
-				System.out.println("10. < EXIT");
+				System.out.println("10. Show Metrics");
+				System.out.println("11. < EXIT");
 				
 				switch (readChoice()){
 					case 1: AddPassenger(esql); break;
@@ -264,7 +87,8 @@ public class AirBooking{
 					case 7: ListHighestRatedRoutes(esql); break;
 					case 8: ListFlightFromOriginToDestinationInOrderOfDuration(esql); break;
 					case 9: FindNumberOfAvailableSeatsForFlight(esql); break;
-					case 10: keepon = false; break;
+					case 10: ShowMetrics(esql); break;
+					case 11: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -273,7 +97,7 @@ public class AirBooking{
 			try{
 				if(esql != null) {
 					System.out.print("Disconnecting from database...");
-					esql.cleanup ();
+					esql.close ();
 					System.out.println("Done\n\nBye !");
 				}//end if				
 			}catch(Exception e){
@@ -298,7 +122,78 @@ public class AirBooking{
 		return input;
 	}//end readChoice
 	
-	public static void AddPassenger(AirBooking esql){//1
+	/**
+	 * Prints a list of cities grouped by first letter.
+	 * 
+	 * @param title the heading printed above the list
+	 * @param cities the cities, in alphabetical order
+	 */
+	public static void printCityList(String title, List<String> cities) {
+		String header = "---------- " + title + " ----------";
+		System.out.printf("\n%s\n", header);
+		String t = "";
+		for (String content : cities) {
+			if (t.length() == 0 || content.charAt(0) != t.charAt(0)) {
+				System.out.printf("\t%c:\n", content.charAt(0));
+			}
+			System.out.printf("\t\t%s\n", content);
+			t = content;
+		}
+		System.out.printf("%s\n", header.replaceAll(".", "-"));
+	}
+
+	/**
+	 * Matches a typed city against a list of cities, ignoring case. A
+	 * prefix shared by a single city selects that city; a prefix shared by
+	 * several prints them as suggestions.
+	 * 
+	 * @param cities the cities accepted
+	 * @param input the typed city or prefix
+	 * @return the matched city, or null when the input matches no single city
+	 */
+	public static String matchCity(CityIndex cities, String input) {
+		String city = cities.find(input);
+		if (city != null) {
+			return city;
+		}
+		List<String> matches = cities.complete(input, SUGGESTIONS + 1);
+		if (matches.size() == 1) {
+			System.out.printf("\n\tUsing %s.\n", matches.get(0));
+			return matches.get(0);
+		}
+		if (matches.size() > 1) {
+			System.out.printf("\n\tDid you mean:\n");
+			for (int i = 0; i < matches.size() && i < SUGGESTIONS; ++i) {
+				System.out.printf("\t\t%s\n", matches.get(i));
+			}
+			if (matches.size() > SUGGESTIONS) {
+				System.out.printf("\t\t...\n");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Prints one value per line between a heading and a closing rule.
+	 * Nothing is printed for an empty list.
+	 * 
+	 * @param header the heading printed above the list
+	 * @param values the values, in display order
+	 * @return the number of values printed
+	 */
+	public static int printColumnList(String header, List<String> values) {
+		if (values.isEmpty()) {
+			return 0;
+		}
+		System.out.printf("\n%s\n", header);
+		for (String value : values) {
+			System.out.printf("\t%s\n", value);
+		}
+		System.out.printf("%s\n", header.replaceAll(".", "-"));
+		return values.size();
+	}
+	
+	public static void AddPassenger(BookingService esql){//1
 		//Add a new passenger to the database
 		int pID = 0;
 		String passNum = "";
@@ -313,13 +208,6 @@ public class AirBooking{
 				// Allow user input 3 times
 				int counter = 3;
 				String input;
-				// Create Index for selecting passNum
-				try {
-					esql.executeUpdate("CREATE INDEX passNum_select ON Passenger USING BTREE (passNum);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				while (counter > 0) {
 					System.out.print("\nPlease enter your Passport Number: ");
 					try {
@@ -343,11 +231,7 @@ public class AirBooking{
 					}
 					// Check passNum exist
 					try {
-						String query = "";
-						query += "SELECT * FROM Passenger WHERE passNum = \'";
-						query += input + "\';";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
+						if (esql.passNumInUse(passNum)) {
 							counter--;
 							continue;
 						}
@@ -360,13 +244,6 @@ public class AirBooking{
 						break;
 					}
 				}
-				// Drop Index for passNum_select
-				try {
-				esql.executeUpdate("DROP INDEX passNum_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				if (counter > 0) {
 					state = 1;
 				}
@@ -554,52 +431,10 @@ public class AirBooking{
 				}
 				state = 5;
 			}
-			// Look for the available pid
+			// Store into the database under the lowest free pID
 			else if (state == 5) {
-				// Create Index for pID
 				try {
-					esql.executeUpdate("CREATE INDEX pID_select ON Passenger USING BTREE (pID);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-				try {
-					String query = "";
-					query += "SELECT pID FROM Passenger;";
-					List<List<String>> result =  esql.executeQueryAndReturnResult(query);
-					int available_pID = 0;
-					for (List<String> row : result) {
-						for (String content : row) {
-							if (available_pID != Integer.parseInt(content)) {
-								break;
-							}
-							available_pID++;
-						}
-					}
-					pID = available_pID;
-				}catch(Exception e){
-					System.err.println (e.getMessage());
-				}
-				// DROP Index for pID_select
-				try {
-					esql.executeUpdate("DROP INDEX pID_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-				state = 6;
-			}
-			// Store into the database
-			else if (state == 6) {
-				try {
-					String query = "";
-					query = "INSERT INTO passenger (pid, passnum, fullname, bdate, country) VALUES (";
-					query += pID + ", \'";
-					query += passNum + "\', \'";
-					query += fullName + "\', \'";
-					query += bdate + "\', \'";
-					query += country + "\');";
-					esql.executeUpdate(query);
+					pID = esql.addPassenger(passNum, fullName, bdate, country);
 				}catch(Exception e){
 					System.err.println (e.getMessage());
 				}
@@ -611,10 +446,10 @@ public class AirBooking{
 		}while (true);
 	}
 	
-	public static void BookFlight(AirBooking esql){//2
+	public static void BookFlight(BookingService esql){//2
 		//Book Flight for an existing customer
 		String passNum = "";
-		String pID = "";
+		int pID = -1;
 		String origin = "";
 		String destination = "";
 		String flightNum = "";
@@ -625,13 +460,6 @@ public class AirBooking{
 		while (true) {
 			// Get input for Passport Number
 			if (state == 0) {
-				// Create Index for selecting passNum
-				try {
-					esql.executeUpdate("CREATE INDEX passNum_select ON Passenger USING BTREE (passNum);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				int counter = 3;
 				while (counter > 0) {
 					System.out.print("\nPlease enter your Passport Number: ");
@@ -656,13 +484,10 @@ public class AirBooking{
 					}
 					// Check passNum exist
 					try {
-						String query = "";
-						query += "SELECT * FROM Passenger WHERE passNum = \'";
-						query += passNum + "\';";
-						List<List<String>> result = esql.executeQueryAndReturnResult(query);
+						BookingService.Passenger passenger = esql.findPassengerByPassNum(passNum);
 						// Passport Number exist
-						if (result.size() > 0) {
-							pID = (result.get(0)).get(0);
+						if (passenger != null) {
+							pID = passenger.getPID();
 							break;
 						}
 						// Passport Number does not exist
@@ -677,13 +502,6 @@ public class AirBooking{
 						break;
 					}
 				}
-				// Drop Index for passNum_select
-				try {
-				esql.executeUpdate("DROP INDEX passNum_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				if (counter > 0) {
 					state = 1;
 				}
@@ -693,28 +511,8 @@ public class AirBooking{
 			}
 			// Get input for origin
 			else if (state == 1) {
-				// Create Index for origin
 				try {
-					esql.executeUpdate("CREATE INDEX origin_select ON Flight USING BTREE (origin);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-				try {
-					String query = "SELECT DISTINCT origin FROM Flight ORDER BY origin;";
-					List<List<String>> origin_list =  esql.executeQueryAndReturnResult(query);
-					String t = "";
-					System.out.printf("\n---------- List of Origins ----------\n");
-					for (List<String> row : origin_list) {
-						for (String content : row) {
-							if (t.length() == 0 || content.charAt(0) != t.charAt(0)) {
-								System.out.printf("\t%c:\n", content.charAt(0));
-							}
-							System.out.printf("\t\t%s\n", content);
-							t = content;
-						}
-					}
-					System.out.printf("-------------------------------------\n");
+					printCityList("List of Origins", esql.listOrigins());
 				}catch(Exception e){
 					System.err.println (e.getMessage());
 				}
@@ -736,11 +534,10 @@ public class AirBooking{
 					}
 					// Check the origin is in the list or not
 					try {
-						String query = "SELECT DISTINCT origin FROM Flight WHERE origin = \'";
-						query += origin + "\';";
-						int rows = esql.executeQuery(query);
 						// origin exist
-						if (rows > 0) {
+						String city = matchCity(esql.findOrigins(), origin);
+						if (city != null) {
+							origin = city;
 							break;
 						}
 						// origin does not exist
@@ -761,39 +558,11 @@ public class AirBooking{
 				else {
 					state = -1;
 				}
-				// DROP Index for origin
-				try {
-					esql.executeUpdate("DROP INDEX origin_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 			}
 			// Get input for destination
 			else if (state == 2) {
-				// Create Index for destination
-				try {
-					esql.executeUpdate("CREATE INDEX destination_select ON Flight USING BTREE (destination);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				try {
-					String query = "SELECT DISTINCT destination FROM Flight WHERE origin = \'";
-					query += origin + "\' ORDER BY destination;";
-					List<List<String>> destination_list =  esql.executeQueryAndReturnResult(query);
-					String t = "";
-					System.out.printf("\n---------- List of Destination ----------\n");
-					for (List<String> row : destination_list) {
-						for (String content : row) {
-							if (t.length() == 0 || content.charAt(0) != t.charAt(0)) {
-								System.out.printf("\t%c:\n", content.charAt(0));
-							}
-							System.out.printf("\t\t%s\n", content);
-							t = content;
-						}
-					}
-					System.out.printf("-----------------------------------------\n");
+					printCityList("List of Destination", esql.listDestinations(origin));
 				}catch(Exception e){
 					System.err.println (e.getMessage());
 				}
@@ -815,13 +584,14 @@ public class AirBooking{
 					}
 					// Check the destination is in the list or not
 					try {
-						String query = "SELECT DISTINCT flightNum FROM Flight WHERE ";
-						query += "origin = \'" + origin + "\' and ";
-						query += "destination = \'" + destination + "\';";
-						List<List<String>> result = esql.executeQueryAndReturnResult(query);
+						String city = matchCity(esql.findDestinations(origin), destination);
+						if (city != null) {
+							destination = city;
+						}
+						List<RouteGraph.Flight> flights = esql.findFlights(origin, destination);
 						// origin exist flightNum
-						if (result.size() > 0) {
-							flightNum = result.get(0).get(0);
+						if (flights.size() > 0) {
+							flightNum = flights.get(0).getFlightNum();
 							break;
 						}
 						// origin does not exist
@@ -841,13 +611,6 @@ public class AirBooking{
 				else {
 					state = -1;
 				}
-				// DROP Index for origin
-				try {
-					esql.executeUpdate("DROP INDEX destination_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				state = 3;
 			}
 			// Get input for departure date
@@ -898,57 +661,16 @@ public class AirBooking{
 					state = -1;
 				}
 			}
-			// Get bookref
+			// Book under a new booking reference
 			else if (state == 4) {
-				// Create Index for bookref
 				try {
-					esql.executeUpdate("CREATE INDEX bookRef_select ON Booking USING BTREE (bookRef);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-
-				String letters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-				while (true) {
-					bookref = "";
-					Random random = new Random();
-					for (int i = 0; i < 10; ++i) {
-						bookref += letters.charAt(random.nextInt(26));
+					bookref = esql.bookFlight(departure, flightNum, pID);
+					if (bookref == null) {
+						System.out.printf("\n\tFlight %s is sold out on %s.\n", flightNum, departure);
 					}
-					try {
-						String query = "SELECT bookRef FROM Booking WHERE bookRef = \'";
-						query += bookref + "\';";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
-							continue;
-						} else {
-							state = 5;
-							break;
-						}
-					} catch (Exception e) {
-						//TODO: handle exception
-						System.err.println (e.getMessage());
-						state = -1;
-						break;
+					else {
+						System.out.printf("\n\tBooking Reference: %s\n", bookref);
 					}
-				}
-				// DROP Index for bookref
-				try {
-					esql.executeUpdate("DROP INDEX bookRef_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-			}
-			else if (state == 5) {
-				try {
-					String query = "";
-					query = "INSERT INTO Booking (bookRef, departure, flightNum, pID) VALUES (\'";
-					query += bookref + "\', \'";
-					query += departure + "\', \'";
-					query += flightNum + "\', \'";
-					query += pID + "\');";
-					esql.executeUpdate(query);
 				}catch(Exception e){
 					System.err.println (e.getMessage());
 				}
@@ -960,21 +682,15 @@ public class AirBooking{
 		}
 	}
 	
-	public static void TakeCustomerReview(AirBooking esql){//3
+	public static void TakeCustomerReview(BookingService esql){//3
 		//Insert customer review into the ratings table
 		int rID = 0;
-		String pID = "", flightNum = "", score = "", comment = "";
+		int pID = -1;
+		String flightNum = "", score = "", comment = "";
 		int state = 0;
 		while (true) {
 			// Get input for passenger ID
 			if (state == 0) {
-				// Create Index for selecting passNum
-				try {
-					esql.executeUpdate("CREATE INDEX passNum_select ON Passenger USING BTREE (passNum);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				int counter = 3;
 				while (counter > 0) {
 					System.out.print("\nPlease enter passenger's Passport Number: ");
@@ -999,13 +715,10 @@ public class AirBooking{
 					}
 					// Check passNum exist
 					try {
-						String query = "";
-						query += "SELECT * FROM Passenger WHERE passNum = \'";
-						query += input + "\';";
-						List<List<String>> result = esql.executeQueryAndReturnResult(query);
+						BookingService.Passenger passenger = esql.findPassengerByPassNum(input);
 						// Passport Number exist
-						if (result.size() > 0) {
-							pID = (result.get(0)).get(0);
+						if (passenger != null) {
+							pID = passenger.getPID();
 							break;
 						}
 						// Passport Number does not exist
@@ -1020,13 +733,6 @@ public class AirBooking{
 						break;
 					}
 				}
-				// Drop Index for passNum_select
-				try {
-					esql.executeUpdate("DROP INDEX passNum_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				if (counter > 0) {
 					state = 1;
 				}
@@ -1036,21 +742,10 @@ public class AirBooking{
 			}
 			// Check did passanger book any flight.
 			else if (state == 1) {
-				// Create Index for selecting pID
-				try {
-					esql.executeUpdate("CREATE INDEX pID_select ON Booking USING BTREE (pID);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				// Check pID in Booking
 				try {
-					String query = "";
-					query += "SELECT pID FROM Booking WHERE pID = \'";
-					query += pID + "\';";
-					int rows = esql.executeQuery(query);
 					// Passport Number exist
-					if (rows > 0) {
+					if (esql.hasBookings(pID)) {
 						state = 2;
 					}
 					// Passport Number does not exist
@@ -1062,38 +757,12 @@ public class AirBooking{
 					System.err.println (e.getMessage());
 					state = -1;
 				}
-				try {
-					esql.executeUpdate("DROP INDEX pID_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 			}
 			// Get input for flightNum
 			else if (state == 2) {
-				// Create Index for selecting passNum
-				try {
-					esql.executeUpdate("CREATE INDEX pID_select ON Booking USING BTREE (pID);");
-					esql.executeUpdate("CREATE INDEX flightNum_select ON Booking USING BTREE (flightNum);");
-					esql.executeUpdate("CREATE INDEX pID_flightNum_select ON Booking USING BTREE (pID, flightNum);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				try {
-					String query = "SELECT flightNum FROM Booking WHERE pID = ";
-					query += pID + " and flightnum not in (select flightnum from ratings) ORDER BY flightNum;";
-					List<List<String>> flight_list =  esql.executeQueryAndReturnResult(query);
-					if (flight_list.size() > 0) {
-						System.out.printf("\n---------- Passenger's Flight ----------\n");
-						for (List<String> row : flight_list) {
-							for (String content : row) {
-								System.out.printf("\t%s\n", content);
-							}
-						}
-						System.out.printf("----------------------------------------\n");
-					}
-					else {
+					int rows = printColumnList("---------- Passenger's Flight ----------", esql.findUnratedFlights(pID));
+					if (rows == 0) {
 						System.out.printf("\n\tNo flight can be rated.\n\n");
 						break;
 					}
@@ -1116,13 +785,7 @@ public class AirBooking{
 						break;
 					}
 					try {
-						String query = "SELECT flightNum FROM Booking WHERE pID = ";
-						query += pID + " and flightNum = \'";
-						query += flightNum + "\' ";
-						query += "and flightnum not in (select flightnum from ratings where pid = ";
-						query += pID + ");";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
+						if (esql.canReview(pID, flightNum)) {
 							break;
 						} else {
 							System.out.printf("\n\tThis flight is not in the list.\n");
@@ -1134,14 +797,6 @@ public class AirBooking{
 						System.err.println (e.getMessage());
 					}
 				}
-				try {
-					esql.executeUpdate("DROP INDEX pID_select;");
-					esql.executeUpdate("DROP INDEX flightNum_select;");
-					esql.executeUpdate("DROP INDEX pID_flightNum_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				if (counter > 0) {
 					state = 3;
 				}
@@ -1195,51 +850,10 @@ public class AirBooking{
 					state = -1;
 				}
 			}
-			// Get available rID
+			// Store under the lowest free rID
 			else if (state == 5) {
-				// Create Index for rID
 				try {
-					esql.executeUpdate("CREATE INDEX rID_select ON Ratings USING BTREE (rID);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-				try {
-					String query = "";
-					query += "SELECT rID FROM Ratings ORDER BY rID;";
-					List<List<String>> result =  esql.executeQueryAndReturnResult(query);
-					int available_rID = 0;
-					for (List<String> row : result) {
-						for (String content : row) {
-							if (available_rID != Integer.parseInt(content)) {
-								break;
-							}
-							available_rID++;
-						}
-					}
-					rID = available_rID;
-				}catch(Exception e){
-					System.err.println (e.getMessage());
-				}
-				// DROP Index for pID_select
-				try {
-					esql.executeUpdate("DROP INDEX rID_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-				state = 6;
-			}
-			else if (state == 6) {
-				try {
-					String query = "";
-					query = "INSERT INTO Ratings (rID, pID, flightNum, score, comment) VALUES (";
-					query += rID + ", ";
-					query += pID + ", \'";
-					query += flightNum + "\', ";
-					query += score + ", \'";
-					query += comment + "\');";
-					esql.executeUpdate(query);
+					rID = esql.addReview(pID, flightNum, Integer.parseInt(score), comment);
 				}catch(Exception e){
 					System.err.println (e.getMessage());
 				}
@@ -1251,19 +865,14 @@ public class AirBooking{
 		}
 	}
 	
-	public static void InsertOrUpdateRouteForAirline(AirBooking esql){//4
+	public static void InsertOrUpdateRouteForAirline(BookingService esql){//4
 		//Insert a new route for the airline
 		int state = 0, exist = 0;
-		String airId = "", name = "", founded = "", country = "", hub = "";
+		int airId = -1;
+		String name = "", founded = "", country = "", hub = "";
 		while (true) {
 			// name
 			if (state == 0) {
-				try {
-					esql.executeUpdate("CREATE INDEX name_select ON Airline USING BTREE (name);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				int counter = 3;
 				while (counter > 0) {
 					System.out.printf("\nPlease enter the name of the airline: ");
@@ -1285,10 +894,7 @@ public class AirBooking{
 						continue;
 					}
 					try {
-						String query = "SELECT name FROM Airline WHERE name = \'";
-						query += name + "\';";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
+						if (esql.findAirlineByName(name) != null) {
 							System.out.printf("\nThis airline is already in list, do you want to updata it?(Y/N) ");
 							String input = in.readLine().toUpperCase();
 							if (input.charAt(0) == 'Y') {
@@ -1306,13 +912,6 @@ public class AirBooking{
 						System.err.println (e.getMessage());
 					}
 				}
-				// DROP Index for name_select
-				try {
-					esql.executeUpdate("DROP INDEX name_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
 				if (counter > 0) {
 					state = 1;
 				} else {
@@ -1426,96 +1025,21 @@ public class AirBooking{
 					state = -1;
 				}
 			}
-			// Get airId, name exist
+			// Update, name exist
 			else if (state == 4) {
 				try {
-					esql.executeUpdate("CREATE INDEX airId_select ON Airline USING BTREE (airId);");
+					airId = esql.findAirlineByName(name).getAirId();
+					esql.updateAirline(airId, Integer.parseInt(founded), country, hub);
 				} catch (Exception e) {
 					//TODO: handle exception
 					System.err.println (e.getMessage());
 				}
-
-				try {
-					String query = "";
-					query += "SELECT airId FROM Airline WHERE name = \'";
-					query += name + "\';";
-					List<List<String>> result =  esql.executeQueryAndReturnResult(query);
-					airId = result.get(0).get(0);
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-				
-				try {
-					esql.executeUpdate("DROP INDEX airId_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-				state = 6;
-			}
-			// Get airId, name does not exist
-			else if (state == 5) {
-				// Create Index for airId
-				try {
-					esql.executeUpdate("CREATE INDEX airId_select ON Airline USING BTREE (airId);");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-				try {
-					String query = "";
-					query += "SELECT airId FROM Airline ORDER BY airId;";
-					List<List<String>> result =  esql.executeQueryAndReturnResult(query);
-					int available_airId = 0;
-					for (List<String> row : result) {
-						for (String content : row) {
-							if (available_airId != Integer.parseInt(content)) {
-								break;
-							}
-							available_airId++;
-						}
-					}
-					airId = "" + available_airId;
-				}catch(Exception e){
-					System.err.println (e.getMessage());
-				}
-				// DROP Index for airId_select
-				try {
-					esql.executeUpdate("DROP INDEX airId_select;");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
-				state = 7;
-			}
-			else if (state == 6) {
-				try {
-					String query = "";
-					query = "UPDATE Airline ";
-					query += "SET ";
-					query += "founded = " + founded + ", ";
-					query += "country = \'" + country + "\', ";
-					query += "hub = \'" + hub + "\' ";
-					query += "WHERE ";
-					query += "name = \'" + name + "\' and ";
-					query += "airId = " + airId + ";";
-					esql.executeUpdate(query);
-				}catch(Exception e){
-					System.err.println (e.getMessage());
-				}
 				state = -1;
 			}
-			else if (state == 7) {
+			// Insert under the lowest free airId, name does not exist
+			else if (state == 5) {
 				try {
-					String query = "";
-					query = "INSERT INTO Airline (airId, name, founded, country, hub) VALUES (";
-					query += airId + ", \'";
-					query += name + "\', ";
-					query += founded + ", \'";
-					query += country + "\', \'";
-					query += hub + "\');";
-					esql.executeUpdate(query);
+					airId = esql.addAirline(name, Integer.parseInt(founded), country, hub);
 				}catch(Exception e){
 					System.err.println (e.getMessage());
 				}
@@ -1527,34 +1051,14 @@ public class AirBooking{
 		}
 	}
 	
-	public static void ListAvailableFlightsBetweenOriginAndDestination(AirBooking esql) throws Exception{//5
+	public static void ListAvailableFlightsBetweenOriginAndDestination(BookingService esql) throws Exception{//5
 		//List all flights between origin and distination (i.e. flightNum,origin,destination,plane,duration) 
-		try {
-			esql.executeUpdate("CREATE INDEX origin_select ON Flight USING BTREE (origin);");
-			esql.executeUpdate("CREATE INDEX destination_select ON Flight USING BTREE (destination);");
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
 		String origin = "", destination = "";
 		int state = 0;
 		while (true) {
 			if (state == 0) {
 				try {
-					String query = "SELECT DISTINCT origin FROM Flight ORDER BY origin;";
-					List<List<String>> result = esql.executeQueryAndReturnResult(query);
-					String t = "";
-					System.out.printf("\n---------- List of Origins ----------\n");
-					for (List<String> row : result) {
-						for (String content : row) {
-							if (t.length() == 0 || content.charAt(0) != t.charAt(0)) {
-								System.out.printf("\t%c:\n", content.charAt(0));
-							}
-							System.out.printf("\t\t%s\n", content);
-							t = content;
-						}
-					}
-					System.out.printf("-------------------------------------\n");
+					printCityList("List of Origins", esql.listOrigins());
 				} catch (Exception e) {
 					//TODO: handle exception
 					System.err.println (e.getMessage());
@@ -1578,10 +1082,9 @@ public class AirBooking{
 						break;
 					}
 					try {
-						String query = "SELECT origin FROM Flight WHERE origin = \'";
-						query += origin + "\';";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
+						String city = matchCity(esql.findOrigins(), origin);
+						if (city != null) {
+							origin = city;
 							break;
 						}
 						else {
@@ -1604,21 +1107,7 @@ public class AirBooking{
 			}
 			else if (state == 2) {
 				try {
-					String query = "SELECT DISTINCT destination FROM Flight WHERE origin = \'";
-					query += origin + "\' ORDER BY destination;";
-					List<List<String>> result = esql.executeQueryAndReturnResult(query);
-					System.out.printf("\n---------- List of destination ----------\n");
-					String t = "";
-					for (List<String> row : result) {
-						for (String content : row) {
-							if (t.length() == 0 || content.charAt(0) != t.charAt(0)) {
-								System.out.printf("\t%c:\n", content.charAt(0));
-							}
-							System.out.printf("\t\t%s\n", content);
-							t = content;
-						}
-					}
-					System.out.printf("-----------------------------------------\n");
+					printCityList("List of destination", esql.listDestinations(origin));
 				} catch (Exception e) {
 					//TODO: handle exception
 					System.err.println (e.getMessage());
@@ -1642,10 +1131,10 @@ public class AirBooking{
 						break;
 					}
 					try {
-						String query = "SELECT destination FROM Flight WHERE destination = \'";
-						query += destination + "\';";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
+						// connections may reach cities not in the list
+						String city = matchCity(esql.findCities(), destination);
+						if (city != null) {
+							destination = city;
 							break;
 						}
 						else {
@@ -1668,25 +1157,35 @@ public class AirBooking{
 			}
 			else if (state == 4) {
 				try {
-					String query = "SELECT DISTINCT flightNum,origin,destination,plane,duration FROM Flight WHERE origin = \'";
-					query += origin + "\' and destination = \'";
-					query += destination + "\';";
-					List<List<String>> result = esql.executeQueryAndReturnResult(query);
 					//AvailableFlightsBetweenOriginAndDestination
 					String temp = "---------- Flights from " + origin + " to " + destination + "----------";
 					System.out.printf("\n%s", temp);
-					for (List<String> row : result) {
-						System.out.printf("\n\tflightNum   =\t%s\n", row.get(0));
-						System.out.printf("\torigin      =\t%s\n", row.get(1));
-						System.out.printf("\tdestination =\t%s\n", row.get(2));
-						System.out.printf("\tplane       =\t%s\n", row.get(3));
-						System.out.printf("\tduration    =\t%s\n", row.get(4));
+					for (RouteGraph.Flight flight : esql.findFlights(origin, destination)) {
+						System.out.printf("\n\tflightNum   =\t%s\n", flight.getFlightNum());
+						System.out.printf("\torigin      =\t%s\n", flight.getOrigin());
+						System.out.printf("\tdestination =\t%s\n", flight.getDestination());
+						System.out.printf("\tplane       =\t%s\n", flight.getPlane());
+						System.out.printf("\tduration    =\t%d\n", flight.getDuration());
 					}
 					String t = "";
 					for (int i = 0; i < temp.length(); ++i) {
 						t += "-";
 					}
 					System.out.printf("%s\n\n", t);
+
+					// Itineraries with connections, shortest total duration first
+					ConnectionSearch.Result result = esql.findItineraries(origin, destination);
+					temp = "---------- Itineraries with up to " + esql.getMaxLegs() + " flights ----------";
+					System.out.printf("%s\n", temp);
+					for (ConnectionSearch.Itinerary itinerary : result.getItineraries()) {
+						System.out.printf("\n\tflights     =\t%s\n", itinerary.getFlightNums());
+						System.out.printf("\tcities      =\t%s\n", itinerary.getCities());
+						System.out.printf("\tduration    =\t%d\n", itinerary.getDuration());
+					}
+					if (!result.isComplete()) {
+						System.out.printf("\n\tThe search timed out, longer itineraries may be missing.\n");
+					}
+					System.out.printf("%s\n\n", temp.replaceAll(".", "-"));
 				} catch (Exception e) {
 					//TODO: handle exception
 					System.err.println (e.getMessage());
@@ -1697,16 +1196,9 @@ public class AirBooking{
 				break;
 			}
 		}
-		try {
-			esql.executeUpdate("DROP INDEX origin_select;");
-			esql.executeUpdate("DROP INDEX destination_select;");
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
 	}
 	
-	public static void ListMostPopularDestinations(AirBooking esql){//6
+	public static void ListMostPopularDestinations(BookingService esql){//6
 		//Print the k most popular destinations based on the number of flights offered to them (i.e. destination, choices)
 		int counter = 3;
 		int k_most = 0;
@@ -1742,21 +1234,17 @@ public class AirBooking{
 		// Start Timer
 		long startTime = System.currentTimeMillis();
 		try {
-			String query = "SELECT destination, Count (destination) ";
-			query += "FROM Flight ";
-			query += "GROUP BY destination ";
-			query += "ORDER BY COUNT (destination) ";
-			query += "desc limit ";
-			query += k_most + ";";
-			List<List<String>> result = esql.executeQueryAndReturnResult(query);
+			// served from the in-memory ranking, not from Flight
+			List<DestinationRanking.Entry> top = esql.topDestinations(k_most);
 			System.out.printf("   ---------------------------------------------\n");
 			System.out.printf("        Destination     | The Number of Flights \n");
 			System.out.printf("   ---------------------+-----------------------\n");
-			for (List<String> row : result) {
-				System.out.printf("    %s    |          %s\n", row.get(0), row.get(1));
+			int rows = top.size();
+			for (DestinationRanking.Entry entry : top) {
+				System.out.printf("    %s    |          %d\n", entry.getDestination(), entry.getCount());
 			}
 			System.out.printf("   ---------------------------------------------\n");
-			System.out.printf("    (%d rows)\n", result.size());
+			System.out.printf("    (%d rows)\n", rows);
 		} catch (Exception e) {
 			//TODO: handle exception
 			System.err.println (e.getMessage());
@@ -1766,7 +1254,7 @@ public class AirBooking{
 		System.out.printf("\n\tRuntime: %d ms\n\n", (endTime - startTime));
 	}
 	
-	public static void ListHighestRatedRoutes(AirBooking esql){//7
+	public static void ListHighestRatedRoutes(BookingService esql){//7
 		//List the k highest rated Routes (i.e. Airline Name, flightNum, Avg_Score)
 		int counter = 3;
 		int k_most = 0;
@@ -1802,22 +1290,17 @@ public class AirBooking{
 		// Start Timer
 		long startTime = System.currentTimeMillis();
 		try {
-			String query = "SELECT A.name, F.flightNum, F.origin, F.destination, F.plane, avg(R.score) ";
-			query += "FROM Flight F, Ratings R,Airline A ";
-			query += "WHERE F.flightNum = R.flightNum AND A.airId=F.airId ";
-			query += "GROUP BY A.name, F.flightNum, F.origin, F.destination, F.plane ";
-			query += "ORDER BY avg(R.score) ";
-			query += "desc limit ";
-			query += k_most + ";";
-			List<List<String>> result = esql.executeQueryAndReturnResult(query);
+			// served from the in-memory leaderboard, not from Ratings
+			List<RatingLeaderboard.Entry> top = esql.topRatedRoutes(k_most);
 			System.out.printf("\n        Airline name       | Flight Number |      Origin      |    Destination    |    Plane Type    |  Score\n");
 			System.out.printf(" --------------------------+---------------+------------------+-------------------+------------------+---------\n");
-			for (List<String> row : result) {
-				float rate = Float.parseFloat(row.get(5));
-				System.out.printf("  %s |    %s   | %s | %s  | %s | %.4f\n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4), rate);
+			int rows = top.size();
+			for (RatingLeaderboard.Entry route : top) {
+				double rate = route.getAverage();
+				System.out.printf("  %s |    %s   | %s | %s  | %s | %.4f\n", route.getAirline(), route.getFlightNum(), route.getOrigin(), route.getDestination(), route.getPlane(), rate);
 			}
 			System.out.printf(" --------------------------------------------------------------------------------------------------------------\n");
-			System.out.printf("    (%d rows)\n", result.size());
+			System.out.printf("    (%d rows)\n", rows);
 		} catch (Exception e) {
 			//TODO: handle exception
 			System.err.println (e.getMessage());
@@ -1827,7 +1310,7 @@ public class AirBooking{
 		System.out.printf("\n    Runtime: %d ms\n\n", (endTime - startTime));
 	}
 	
-	public static void ListFlightFromOriginToDestinationInOrderOfDuration(AirBooking esql){//8
+	public static void ListFlightFromOriginToDestinationInOrderOfDuration(BookingService esql){//8
 		//List flight to destination in order of duration (i.e. Airline name, flightNum, origin, destination, duration, plane)
 		int counter = 3;
 		int k_most = 0;
@@ -1857,32 +1340,12 @@ public class AirBooking{
 				continue;
 			}
 		}
-		try {
-			esql.executeUpdate("CREATE INDEX origin_select ON Flight USING BTREE (origin);");
-			esql.executeUpdate("CREATE INDEX destination_select ON Flight USING BTREE (destination);");
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
 		String origin = "", destination = "";
 		int state = 0;
 		while (true) {
 			if (state == 0) {
 				try {
-					String query = "SELECT DISTINCT origin FROM Flight ORDER BY origin;";
-					List<List<String>> result = esql.executeQueryAndReturnResult(query);
-					String t = "";
-					System.out.printf("\n---------- List of Origins ----------\n");
-					for (List<String> row : result) {
-						for (String content : row) {
-							if (t.length() == 0 || content.charAt(0) != t.charAt(0)) {
-								System.out.printf("\t%c:\n", content.charAt(0));
-							}
-							System.out.printf("\t\t%s\n", content);
-							t = content;
-						}
-					}
-					System.out.printf("-------------------------------------\n");
+					printCityList("List of Origins", esql.listOrigins());
 				} catch (Exception e) {
 					//TODO: handle exception
 					System.err.println (e.getMessage());
@@ -1906,10 +1369,9 @@ public class AirBooking{
 						break;
 					}
 					try {
-						String query = "SELECT origin FROM Flight WHERE origin = \'";
-						query += origin + "\';";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
+						String city = matchCity(esql.findOrigins(), origin);
+						if (city != null) {
+							origin = city;
 							break;
 						}
 						else {
@@ -1932,21 +1394,7 @@ public class AirBooking{
 			}
 			else if (state == 2) {
 				try {
-					String query = "SELECT DISTINCT destination FROM Flight WHERE origin = \'";
-					query += origin + "\' ORDER BY destination;";
-					List<List<String>> result = esql.executeQueryAndReturnResult(query);
-					System.out.printf("\n---------- List of destination ----------\n");
-					String t = "";
-					for (List<String> row : result) {
-						for (String content : row) {
-							if (t.length() == 0 || content.charAt(0) != t.charAt(0)) {
-								System.out.printf("\t%c:\n", content.charAt(0));
-							}
-							System.out.printf("\t\t%s\n", content);
-							t = content;
-						}
-					}
-					System.out.printf("-----------------------------------------\n");
+					printCityList("List of destination", esql.listDestinations(origin));
 				} catch (Exception e) {
 					//TODO: handle exception
 					System.err.println (e.getMessage());
@@ -1970,10 +1418,9 @@ public class AirBooking{
 						break;
 					}
 					try {
-						String query = "SELECT destination FROM Flight WHERE destination = \'";
-						query += destination + "\';";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
+						String city = matchCity(esql.findDestinations(origin), destination);
+						if (city != null) {
+							destination = city;
 							break;
 						}
 						else {
@@ -1998,25 +1445,18 @@ public class AirBooking{
 				// Start Timer
 				long startTime = System.currentTimeMillis();
 				try {
-					String query = "SELECT A.name, F.flightNum, F.origin, F.destination, F.plane, F.duration ";
-					query += "FROM Flight F, Airline A ";
-					query += "WHERE ";
-					query += "F.airId = A.airId and ";
-					query += "F.origin = \'"+ origin + "\' and ";
-					query += "F.destination = \'"+ destination + "\' ";
-					query += "ORDER BY F.duration ";
-					query += "DESC LIMIT " + k_most + ";";
-					List<List<String>> result = esql.executeQueryAndReturnResult(query);
 					//AvailableFlightsBetweenOriginAndDestination
 					System.out.printf("\n          Flights from " + origin + " to " + destination + " in order of Duration\n");
 					System.out.printf("--------------------------------------------------------------------------\n");
 					System.out.printf("       Airline Name       |  Flight Number  |    Plane Type    | Duration\n");
 					System.out.printf("--------------------------+-----------------+------------------+----------\n");
-					for (List<String> row : result) {
-						System.out.printf(" %s |  %s       | %s | %s\n", row.get(0), row.get(1), row.get(4), row.get(5));
+					List<RouteGraph.Flight> flights = esql.findLongestFlights(origin, destination, k_most);
+					int rows = flights.size();
+					for (RouteGraph.Flight flight : flights) {
+						System.out.printf(" %s |  %s       | %s | %d\n", flight.getAirline(), flight.getFlightNum(), flight.getPlane(), flight.getDuration());
 					}
 					System.out.printf("--------------------------------------------------------------------------\n");
-					System.out.printf("    (%d rows)\n", result.size());
+					System.out.printf("    (%d rows)\n", rows);
 				} catch (Exception e) {
 					//TODO: handle exception
 					System.err.println (e.getMessage());
@@ -2030,35 +1470,16 @@ public class AirBooking{
 				break;
 			}
 		}
-		try {
-			esql.executeUpdate("DROP INDEX origin_select;");
-			esql.executeUpdate("DROP INDEX destination_select;");
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
 	}
 	
-	public static void FindNumberOfAvailableSeatsForFlight(AirBooking esql){//9
+	public static void FindNumberOfAvailableSeatsForFlight(BookingService esql){//9
 		int state = 0;
 		String flightNum = "", departure = "";
 		while (true) {
 			if (state == 0) {
 				try {
-					String query = "SELECT DISTINCT flightNum ";
-					query += "FROM Booking ";
-					query += "ORDER BY flightNum;";
-					List<List<String>> flight_list =  esql.executeQueryAndReturnResult(query);
-					if (flight_list.size() > 0) {
-						System.out.printf("\n---- Booked Flights ----\n");
-						for (List<String> row : flight_list) {
-							for (String content : row) {
-								System.out.printf("\t%s\n", content);
-							}
-						}
-						System.out.printf("------------------------\n");
-					}
-					else {
+					int rows = printColumnList("---- Booked Flights ----", esql.findBookedFlightNums());
+					if (rows == 0) {
 						System.out.printf("\n\tNo flight is booked.\n\n");
 						break;
 					}
@@ -2081,11 +1502,7 @@ public class AirBooking{
 						break;
 					}
 					try {
-						String query = "SELECT DISTINCT flightNum ";
-						query += "FROM Booking ";
-						query += "WHERE flightNum = \'" + flightNum + "\';";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
+						if (esql.isBooked(flightNum, null)) {
 							break;
 						} else {
 							System.out.printf("\n\tThis flight is not in the list.\n");
@@ -2106,20 +1523,8 @@ public class AirBooking{
 			}
 			else if (state == 1) {
 				try {
-					String query = "SELECT DISTINCT departure ";
-					query += "FROM Booking ";
-					query += "WHERE flightNum = \'" + flightNum + "\';";
-					List<List<String>> departure_list =  esql.executeQueryAndReturnResult(query);
-					if (departure_list.size() > 0) {
-						System.out.printf("\n---- Date of Departure ----\n");
-						for (List<String> row : departure_list) {
-							for (String content : row) {
-								System.out.printf("\t%s\n", content);
-							}
-						}
-						System.out.printf("---------------------------\n");
-					}
-					else {
+					int rows = printColumnList("---- Date of Departure ----", esql.findBookedDepartures(flightNum));
+					if (rows == 0) {
 						System.out.printf("\n\tNo departure date.\n\n");
 						break;
 					}
@@ -2162,12 +1567,7 @@ public class AirBooking{
 						continue;
 					}
 					try {
-						String query = "SELECT DISTINCT departure ";
-						query += "FROM Booking ";
-						query += "WHERE flightNum = \'" + flightNum + "\' and ";
-						query += "departure = \'" + departure + "\';";
-						int rows = esql.executeQuery(query);
-						if (rows > 0) {
+						if (esql.isBooked(flightNum, departure)) {
 							break;
 						}
 						else {
@@ -2192,25 +1592,18 @@ public class AirBooking{
 				try {
 					// Start Timer
 					long startTime = System.currentTimeMillis();
-					String query = "SELECT F.flightNum, F.origin, F.destination, B.departure, B.c, F.seats, (F.seats - B.c) ";
-					query += "FROM Flight F, ( ";
-					query += "SELECT flightNum, departure, count(flightNum) AS c ";
-					query += "FROM Booking ";
-					query += "WHERE flightNum = \'" + flightNum + "\' AND departure = \'" + departure + "\' ";
-					query += "GROUP BY flightNum, departure ";
-					query += ") AS B ";
-					query += "WHERE F.flightNum = B.flightNum;";
-					List<List<String>> result = esql.executeQueryAndReturnResult(query);
 					System.out.printf("---------------------------------------------------------------------------------------------------------\n");
 					System.out.printf("  Flight  |                  |                   |  Departure  | Booked | Total Number | Total Number of\n");
 					System.out.printf("  Number  |      Origin      |    Destination    |    Date     | Seats  |   of Seats   | Available Seats\n");
 					System.out.printf("---------------------------------------------------------------------------------------------------------\n");
-					for (List<String> rows : result) {
-						System.out.printf(" %s   %s    %s    %s     %s         %s             %s\n", rows.get(0), rows.get(1), rows.get(2), rows.get(3), rows.get(4), rows.get(5), rows.get(6));
+					BookingService.SeatAvailability seats = esql.seatsAvailable(flightNum, departure);
+					int rows = seats == null ? 0 : 1;
+					if (seats != null) {
+						System.out.printf(" %s   %s    %s    %s     %d         %d             %d\n", seats.getFlightNum(), seats.getOrigin(), seats.getDestination(), seats.getDeparture(), seats.getBooked(), seats.getSeats(), seats.getAvailable());
 					}
 					System.out.printf("---------------------------------------------------------------------------------------------------------\n\n");
 					
-					System.out.printf("    (%d rows)\n", result.size());
+					System.out.printf("    (%d rows)\n", rows);
 					// End Timer		
 					long endTime = System.currentTimeMillis();
 					System.out.printf("\n    Runtime: %d ms\n\n", (endTime - startTime));
@@ -2226,5 +1619,21 @@ public class AirBooking{
 		}
 		
 	}
+
+	/**
+	 * Prints the latency of every operation called so far, the SQL
+	 * counters, and the connection pool, statement cache, passenger cache
+	 * and key filter counters.
+	 */
+	public static void ShowMetrics(BookingService esql){//10
+		System.out.println();
+		System.out.print(esql.getMetrics().getSummary());
+		System.out.println(esql.getPoolMetrics());
+		System.out.println(esql.getStatementCacheMetrics());
+		System.out.println(esql.getPassengerCache().getMetrics());
+		System.out.println(esql.getPassNumFilter().getMetrics());
+		System.out.println(esql.getBookRefFilter().getMetrics());
+		System.out.println();
+	}
 	
 }
\ No newline at end of file
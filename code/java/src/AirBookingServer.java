@@ -0,0 +1,642 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A headless front end serving the nine menu operations as HTTP
+ * endpoints that answer in JSON, so one process can serve many agents at
+ * once.
+ *
+ * Parameters are read from the query string, and for POST and PUT also
+ * from an application/x-www-form-urlencoded body:
+ *
+ *   POST /passengers               passNum, fullName, bdate, country
+ *   POST /bookings                 passNum, flightNum, departure
+ *   POST /reviews                  passNum, flightNum, score, comment
+ *   PUT  /airlines                 name, founded, country, hub
+ *   GET  /flights                  origin, destination
+ *   GET  /destinations/popular     k
+ *   GET  /routes/top-rated         k
+ *   GET  /flights/by-duration      origin, destination, k
+ *   GET  /seats                    flightNum, departure
+ *
+ * GET /metrics answers the operation latencies and SQL counters in the
+ * Prometheus text format, without waiting for a database connection.
+ *
+ * Errors are answered as {"error": "..."} with status 400 for invalid
+ * parameters, 404 for unknown passengers, flights or routes, 409 for
+ * conflicts such as a sold out departure, and 500 otherwise.
+ *
+ * Each request runs on its own virtual thread when the JVM has them
+ * (Java 21 and later), otherwise on a pool of airbooking.server.threads
+ * threads, 64 by default. At most airbooking.pool.max requests use the
+ * database at a time; the others wait on a semaphore rather than in the
+ * connection pool, so a waiting virtual thread does not hold on to its
+ * carrier thread.
+ */
+
+public class AirBookingServer {
+	private final BookingService esql;
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	// requests using the database, at most one per pooled connection
+	private final Semaphore connections;
+
+	/**
+	 * @param esql the booking operations the requests run
+	 * @param port the HTTP port to listen on
+	 * @param maxConcurrent the number of requests using the database at a time
+	 * @throws java.io.IOException when the port cannot be bound
+	 */
+	public AirBookingServer(BookingService esql, int port, int maxConcurrent) throws IOException {
+		this.esql = esql;
+		this.connections = new Semaphore(maxConcurrent, true);
+		this.handlers = newHandlerExecutor();
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.server.setExecutor(this.handlers);
+
+		this.server.createContext("/passengers", new Endpoint("POST") {
+			Object handle(Map<String, String> params) throws Exception {
+				return addPassenger(params);
+			}
+		});
+		this.server.createContext("/bookings", new Endpoint("POST") {
+			Object handle(Map<String, String> params) throws Exception {
+				return bookFlight(params);
+			}
+		});
+		this.server.createContext("/reviews", new Endpoint("POST") {
+			Object handle(Map<String, String> params) throws Exception {
+				return takeReview(params);
+			}
+		});
+		this.server.createContext("/airlines", new Endpoint("PUT") {
+			Object handle(Map<String, String> params) throws Exception {
+				return upsertAirline(params);
+			}
+		});
+		this.server.createContext("/flights", new Endpoint("GET") {
+			Object handle(Map<String, String> params) throws Exception {
+				return listFlights(params);
+			}
+		});
+		this.server.createContext("/destinations/popular", new Endpoint("GET") {
+			Object handle(Map<String, String> params) throws Exception {
+				return popularDestinations(params);
+			}
+		});
+		this.server.createContext("/routes/top-rated", new Endpoint("GET") {
+			Object handle(Map<String, String> params) throws Exception {
+				return topRatedRoutes(params);
+			}
+		});
+		this.server.createContext("/flights/by-duration", new Endpoint("GET") {
+			Object handle(Map<String, String> params) throws Exception {
+				return flightsByDuration(params);
+			}
+		});
+		this.server.createContext("/seats", new Endpoint("GET") {
+			Object handle(Map<String, String> params) throws Exception {
+				return availableSeats(params);
+			}
+		});
+		this.server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] bytes = AirBookingServer.this.esql.getMetrics().toPrometheus().getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, bytes.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(bytes);
+				} finally {
+					out.close();
+				}
+			}
+		});
+	}
+
+	public void start() {
+		this.server.start();
+	}
+
+	/**
+	 * Stops accepting requests and waits for running ones to end.
+	 *
+	 * @param delaySeconds the longest time to wait for running requests
+	 */
+	public void stop(int delaySeconds) {
+		this.server.stop(delaySeconds);
+		this.handlers.shutdown();
+	}
+
+	// 1. Add Passenger
+	private Object addPassenger(Map<String, String> params) throws Exception {
+		String passNum = passNum(params);
+		String fullName = text(params, "fullName");
+		String bdate = date(params, "bdate");
+		String country = text(params, "country");
+		for (int i = 0; i < fullName.length(); ++i) {
+			if (Character.isDigit(fullName.charAt(i))) {
+				throw new ApiException(400, "fullName must not contain digits");
+			}
+		}
+		if (esql.passNumInUse(passNum)) {
+			throw new ApiException(409, "Passport number already exists: " + passNum);
+		}
+		int pID = esql.addPassenger(passNum, fullName, bdate, country);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("pID", pID);
+		result.put("passNum", passNum);
+		return result;
+	}
+
+	// 2. Book Flight
+	private Object bookFlight(Map<String, String> params) throws Exception {
+		String passNum = passNum(params);
+		String flightNum = flightNum(params);
+		String departure = date(params, "departure");
+		int pID = findPassenger(passNum);
+		if (!esql.flightExists(flightNum)) {
+			throw new ApiException(404, "Unknown flight: " + flightNum);
+		}
+		String bookRef = esql.bookFlight(departure, flightNum, pID);
+		if (bookRef == null) {
+			throw new ApiException(409, "Flight " + flightNum + " is sold out on " + departure);
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("bookRef", bookRef);
+		result.put("pID", pID);
+		result.put("flightNum", flightNum);
+		result.put("departure", departure);
+		return result;
+	}
+
+	// 3. Review Flight
+	private Object takeReview(Map<String, String> params) throws Exception {
+		String passNum = passNum(params);
+		String flightNum = flightNum(params);
+		int score = number(params, "score");
+		String comment = params.containsKey("comment") ? params.get("comment") : "";
+		if (score < 0 || score > 5) {
+			throw new ApiException(400, "score must be between 0 and 5");
+		}
+		int pID = findPassenger(passNum);
+		if (!esql.canReview(pID, flightNum)) {
+			throw new ApiException(409, "Flight " + flightNum + " was not booked or is already rated");
+		}
+		int rID = esql.addReview(pID, flightNum, score, comment);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("rID", rID);
+		return result;
+	}
+
+	// 4. Insert or Update Airline
+	private Object upsertAirline(Map<String, String> params) throws Exception {
+		String name = text(params, "name");
+		int founded = number(params, "founded");
+		String country = text(params, "country");
+		String hub = text(params, "hub");
+		if (founded < 1900) {
+			throw new ApiException(400, "founded must be 1900 or later");
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		BookingService.Airline existing = esql.findAirlineByName(name);
+		if (existing != null) {
+			esql.updateAirline(existing.getAirId(), founded, country, hub);
+			result.put("airId", existing.getAirId());
+			result.put("created", false);
+			return result;
+		}
+		result.put("airId", esql.addAirline(name, founded, country, hub));
+		result.put("created", true);
+		return result;
+	}
+
+	// 5. List Flights From Origin to Destination
+	private Object listFlights(Map<String, String> params) throws Exception {
+		String origin = city(esql.findOrigins(), params, "origin");
+		String destination = city(esql.findCities(), params, "destination");
+		List<Object> flights = new ArrayList<Object>();
+		for (RouteGraph.Flight flight : esql.findFlights(origin, destination)) {
+			flights.add(flight(flight));
+		}
+		ConnectionSearch.Result search = esql.findItineraries(origin, destination);
+		List<Object> itineraries = new ArrayList<Object>();
+		for (ConnectionSearch.Itinerary itinerary : search.getItineraries()) {
+			List<Object> legs = new ArrayList<Object>();
+			for (RouteGraph.Flight flight : itinerary.getFlights()) {
+				legs.add(flight(flight));
+			}
+			Map<String, Object> entry = new LinkedHashMap<String, Object>();
+			entry.put("duration", itinerary.getDuration());
+			entry.put("flights", legs);
+			itineraries.add(entry);
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("origin", origin);
+		result.put("destination", destination);
+		result.put("flights", flights);
+		result.put("itineraries", itineraries);
+		result.put("complete", search.isComplete());
+		return result;
+	}
+
+	// 6. List Most Popular Destinations
+	private Object popularDestinations(Map<String, String> params) throws Exception {
+		List<Object> result = new ArrayList<Object>();
+		for (DestinationRanking.Entry entry : esql.topDestinations(count(params))) {
+			Map<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("destination", entry.getDestination().trim());
+			row.put("flights", entry.getCount());
+			result.add(row);
+		}
+		return result;
+	}
+
+	// 7. List Highest Rated Routes
+	private Object topRatedRoutes(Map<String, String> params) throws Exception {
+		List<Object> result = new ArrayList<Object>();
+		for (RatingLeaderboard.Entry route : esql.topRatedRoutes(count(params))) {
+			Map<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("airline", route.getAirline().trim());
+			row.put("flightNum", route.getFlightNum().trim());
+			row.put("origin", route.getOrigin().trim());
+			row.put("destination", route.getDestination().trim());
+			row.put("plane", route.getPlane().trim());
+			row.put("averageScore", route.getAverage());
+			row.put("ratings", route.getRatingCount());
+			result.add(row);
+		}
+		return result;
+	}
+
+	// 8. List Flights to Destination in order of Duration
+	private Object flightsByDuration(Map<String, String> params) throws Exception {
+		String origin = city(esql.findOrigins(), params, "origin");
+		String destination = city(esql.findDestinations(origin), params, "destination");
+		List<Object> result = new ArrayList<Object>();
+		for (RouteGraph.Flight flight : esql.findLongestFlights(origin, destination, count(params))) {
+			result.add(flight(flight));
+		}
+		return result;
+	}
+
+	// 9. Find Number of Available Seats on a given Flight
+	private Object availableSeats(Map<String, String> params) throws Exception {
+		String flightNum = flightNum(params);
+		String departure = date(params, "departure");
+		BookingService.SeatAvailability seats = esql.seatsAvailable(flightNum, departure);
+		if (seats == null) {
+			throw new ApiException(404, "Unknown flight: " + flightNum);
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("flightNum", seats.getFlightNum().trim());
+		result.put("origin", seats.getOrigin().trim());
+		result.put("destination", seats.getDestination().trim());
+		result.put("departure", seats.getDeparture());
+		result.put("booked", seats.getBooked());
+		result.put("seats", seats.getSeats());
+		result.put("available", seats.getAvailable());
+		return result;
+	}
+
+	private int findPassenger(String passNum) throws Exception {
+		BookingService.Passenger passenger = esql.findPassengerByPassNum(passNum);
+		if (passenger == null) {
+			throw new ApiException(404, "Unknown passport number: " + passNum);
+		}
+		return passenger.getPID();
+	}
+
+	private static Map<String, Object> flight(RouteGraph.Flight flight) {
+		Map<String, Object> row = new LinkedHashMap<String, Object>();
+		row.put("flightNum", flight.getFlightNum().trim());
+		row.put("airline", flight.getAirline() == null ? null : flight.getAirline().trim());
+		row.put("origin", flight.getOrigin().trim());
+		row.put("destination", flight.getDestination().trim());
+		row.put("plane", flight.getPlane().trim());
+		row.put("seats", flight.getSeats());
+		row.put("duration", flight.getDuration());
+		return row;
+	}
+
+	private static String text(Map<String, String> params, String name) throws ApiException {
+		String value = params.get(name);
+		if (value == null || value.trim().length() == 0) {
+			throw new ApiException(400, "Missing parameter: " + name);
+		}
+		value = value.trim();
+		// the CHAR(24) columns of Passenger and Airline
+		if (value.length() > 24) {
+			throw new ApiException(400, name + " is longer than 24 characters");
+		}
+		return value;
+	}
+
+	private static String passNum(Map<String, String> params) throws ApiException {
+		String passNum = text(params, "passNum").toUpperCase();
+		if (passNum.length() != 10) {
+			throw new ApiException(400, "passNum must have 10 characters");
+		}
+		return passNum;
+	}
+
+	private static String flightNum(Map<String, String> params) throws ApiException {
+		return text(params, "flightNum").toUpperCase();
+	}
+
+	private static String date(Map<String, String> params, String name) throws ApiException {
+		String value = text(params, name);
+		try {
+			return LocalDate.parse(value).toString();
+		} catch (DateTimeParseException e) {
+			throw new ApiException(400, name + " must be a date as YYYY-MM-DD");
+		}
+	}
+
+	private static int number(Map<String, String> params, String name) throws ApiException {
+		String value = text(params, name);
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new ApiException(400, name + " must be a number");
+		}
+	}
+
+	private static int count(Map<String, String> params) throws ApiException {
+		int k = number(params, "k");
+		if (k < 0) {
+			throw new ApiException(400, "k must not be negative");
+		}
+		return k;
+	}
+
+	private static String city(CityIndex cities, Map<String, String> params, String name) throws ApiException {
+		String city = cities.find(text(params, name));
+		if (city == null) {
+			throw new ApiException(404, "Unknown " + name + ": " + params.get(name));
+		}
+		return city;
+	}
+
+	// one virtual thread per request on Java 21 and later, a bounded pool before
+	private static ExecutorService newHandlerExecutor() {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			final AtomicInteger count = new AtomicInteger();
+			return Executors.newFixedThreadPool(Integer.getInteger("airbooking.server.threads", 64), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "http-worker-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Parses the parameters, runs one operation and writes its result or
+	 * error as JSON.
+	 */
+	private abstract class Endpoint implements HttpHandler {
+		private final String method;
+
+		Endpoint(String method) {
+			this.method = method;
+		}
+
+		abstract Object handle(Map<String, String> params) throws Exception;
+
+		public void handle(HttpExchange exchange) throws IOException {
+			int status = 200;
+			Object body;
+			try {
+				if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath())) {
+					throw new ApiException(404, "Not found: " + exchange.getRequestURI().getPath());
+				}
+				if (!exchange.getRequestMethod().equals(method)) {
+					exchange.getResponseHeaders().set("Allow", method);
+					throw new ApiException(405, "Use " + method);
+				}
+				Map<String, String> params = parameters(exchange);
+				connections.acquire();
+				try {
+					body = handle(params);
+				} finally {
+					connections.release();
+				}
+				if (method.equals("POST")) {
+					status = 201;
+				}
+			} catch (ApiException e) {
+				status = e.status;
+				body = error(e.getMessage());
+			} catch (SQLException e) {
+				status = statusOf(e);
+				if (status == 500) {
+					System.err.println(e.getMessage());
+				}
+				body = error(e.getMessage());
+			} catch (Exception e) {
+				status = 500;
+				System.err.println(e.getMessage());
+				body = error(String.valueOf(e.getMessage()));
+			}
+			StringBuilder json = new StringBuilder();
+			writeJson(json, body);
+			json.append('\n');
+			byte[] bytes = json.toString().getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	// conflicts found by the database itself, e.g. two requests booking the same seat
+	private static int statusOf(SQLException e) {
+		String state = e.getSQLState();
+		if (SeatInventory.SOLD_OUT.equals(state) || "23505".equals(state)) {
+			return 409;
+		}
+		if ("23503".equals(state)) {
+			return 404;
+		}
+		if (state != null && (state.startsWith("22") || "23514".equals(state))) {
+			return 400;
+		}
+		return 500;
+	}
+
+	private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		parse(exchange.getRequestURI().getRawQuery(), params);
+		String type = exchange.getRequestHeaders().getFirst("Content-Type");
+		if (type != null && type.startsWith("application/x-www-form-urlencoded")) {
+			InputStream in = exchange.getRequestBody();
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			for (int n; (n = in.read(chunk)) > 0;) {
+				buffer.write(chunk, 0, n);
+			}
+			parse(buffer.toString("UTF-8"), params);
+		}
+		return params;
+	}
+
+	private static void parse(String encoded, Map<String, String> params) throws UnsupportedEncodingException {
+		if (encoded == null || encoded.length() == 0) {
+			return;
+		}
+		for (String pair : encoded.split("&")) {
+			int eq = pair.indexOf('=');
+			String name = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+	}
+
+	private static Map<String, Object> error(String message) {
+		Map<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("error", message);
+		return error;
+	}
+
+	// writes maps, lists, strings, numbers, booleans and null
+	private static void writeJson(StringBuilder json, Object value) {
+		if (value == null) {
+			json.append("null");
+		}
+		else if (value instanceof Number || value instanceof Boolean) {
+			json.append(value);
+		}
+		else if (value instanceof Map) {
+			json.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!first) {
+					json.append(',');
+				}
+				first = false;
+				writeJson(json, entry.getKey().toString());
+				json.append(':');
+				writeJson(json, entry.getValue());
+			}
+			json.append('}');
+		}
+		else if (value instanceof List) {
+			json.append('[');
+			boolean first = true;
+			for (Object item : (List<?>) value) {
+				if (!first) {
+					json.append(',');
+				}
+				first = false;
+				writeJson(json, item);
+			}
+			json.append(']');
+		}
+		else {
+			String s = value.toString();
+			json.append('"');
+			for (int i = 0; i < s.length(); ++i) {
+				char c = s.charAt(i);
+				switch (c) {
+					case '"': json.append("\\\""); break;
+					case '\\': json.append("\\\\"); break;
+					case '\n': json.append("\\n"); break;
+					case '\r': json.append("\\r"); break;
+					case '\t': json.append("\\t"); break;
+					default:
+						if (c < 0x20) {
+							json.append(String.format("\\u%04x", (int) c));
+						}
+						else {
+							json.append(c);
+						}
+				}
+			}
+			json.append('"');
+		}
+	}
+
+	/**
+	 * An error answered with its own HTTP status.
+	 */
+	private static class ApiException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		ApiException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Starts the server.
+	 *
+	 * @param args the database name, port and user, and optionally the HTTP port
+	 */
+	public static void main(String[] args) {
+		if (args.length != 3 && args.length != 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + AirBookingServer.class.getName () +
+		            " <dbname> <port> <user> [<http port>]");
+			return;
+		}
+		try {
+			Class.forName("org.postgresql.Driver");
+		}catch(Exception e){
+			System.out.println("Where is your PostgreSQL JDBC Driver? " + "Include in your library path!");
+			e.printStackTrace();
+			return;
+		}
+		try {
+			final BookingService esql = BookingService.connect(args[0], args[1], args[2], "");
+			int httpPort = args.length == 4 ? Integer.parseInt(args[3]) : 8080;
+			final AirBookingServer server = new AirBookingServer(esql, httpPort, Integer.getInteger("airbooking.pool.max", 8));
+			// repairs counts that drifted, e.g. after a bulk load without triggers; one process is enough
+			esql.getSeatInventory().startReconciler(Long.getLong("airbooking.seatInventory.reconcileMs", 600000L));
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					server.stop(5);
+					esql.close();
+				}
+			});
+			server.start();
+			System.out.println("Listening on port " + httpPort);
+		} catch (Exception e) {
+			System.err.println (e.getMessage ());
+		}
+	}
+}
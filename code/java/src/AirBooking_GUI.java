@@ -10,18 +10,11 @@
  *
  */
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
-import java.util.Random;
 import java.util.ArrayList;
 
 // GUI
@@ -51,6 +44,9 @@ import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 
 import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 
 import java.awt.TextField;
 
@@ -60,193 +56,36 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.awt.event.KeyEvent;
 import java.awt.event.TextEvent;
 import java.awt.event.TextListener;
 
 import java.awt.Dimension;
 
 /**
- * This class defines a simple embedded SQL utility class that is designed to
- * work with PostgreSQL JDBC drivers.
+ * This class defines the Swing front end of the booking system. The
+ * operations run on a BookingService.
  *
  */
 
 public class AirBooking_GUI{
-	//reference to physical database connection
-	private Connection _connection = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
-	public AirBooking_GUI(String dbname, String dbport, String user, String passwd) throws SQLException {
-		System.out.print("Connecting to database...");
-		try{
-			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-			System.out.println ("Connection URL: " + url + "\n");
-			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
-	        System.out.println("Done");
-		}catch(Exception e){
-			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
-	        System.out.println("Make sure you started postgres on this machine");
-	        System.exit(-1);
-		}
-	}
-	
-	/**
-	 * Method to execute an update SQL statement.  Update SQL instructions
-	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
-	 * 
-	 * @param sql the input SQL string
-	 * @throws java.sql.SQLException when update failed
-	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
-	}//end executeUpdate
-
-	/**
-	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
-	 * 
-	 * @param query the input query string
-	 * @return the number of rows returned
-	 * @throws java.sql.SQLException when failed to execute the query
-	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
-	}
-	
-	/**
-	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the results as
-	 * a list of records. Each record in turn is a list of attribute values
-	 * 
-	 * @param query the input query string
-	 * @return the query result as a list of records
-	 * @throws java.sql.SQLException when failed to execute the query
-	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
-	}//end executeQueryAndReturnResult
-	
-	/**
-	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
-	 * 
-	 * @param query the input query string
-	 * @return the number of rows returned
-	 * @throws java.sql.SQLException when failed to execute the query
-	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		int rowCount = 0;
-
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
-	}
-	
 	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
-	 * 
-	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * Replaces the items of a combo box with a list.
+	 *
+	 * @param box the combo box to fill
+	 * @param items the items, in display order
+	 * @return the number of items added
 	 */
-	
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+	public int fillComboBox (JComboBox<String> box, List<String> items) {
+		box.removeAllItems();
+		for (String item : items) {
+			box.addItem(item);
+		}
+		return items.size();
 	}
 
-	/**
-	 * Method to close the physical connection if it is open.
-	 */
-	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
-	}//end cleanup
-
 	/**
 	 * The main execution method
 	 * 
@@ -260,7 +99,6 @@ public class AirBooking_GUI{
 			return;
 		}//end if
 		
-		AirBooking_GUI esql = null;
 		try{
 			
 			try {
@@ -276,9 +114,15 @@ public class AirBooking_GUI{
 			String dbport = args[1];
 			String user = args[2];
 			
-			esql = new AirBooking_GUI (dbname, dbport, user, "");
+			final BookingService esql = BookingService.connect (dbname, dbport, user, "");
+			final AirBooking_GUI gui = new AirBooking_GUI ();
 
-			esql.AB_GUI(esql);
+			// Swing components are only touched on the event dispatch thread
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					gui.AB_GUI(esql);
+				}
+			});
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
 		}
@@ -289,40 +133,20 @@ public class AirBooking_GUI{
 	private JPanel mainPanel;
 	private JPanel tablePanel;
 	
-	private JButton[] menu_buttons = new JButton[11];
+	private JButton[] menu_buttons = new JButton[12];
 	private JButton back_to_menu = new JButton("Back");
-	private AirBooking_GUI my_esql = null;
-
-	private List<String> indexList = new ArrayList();
-
-	private void Create_Index(String create_query, String drop_query) {
-		try {
-			my_esql.executeUpdate(create_query);
-			indexList.add(drop_query);
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-	}
-
-	private void Drop_Index() {
-		while (!indexList.isEmpty()) {
-			try {
-				my_esql.executeUpdate(indexList.get(0));
-				indexList.remove(0);
-			} catch (Exception e) {
-				//TODO: handle exception
-				System.err.println (e.getMessage());
-			}
-		}
-	}
+	private BookingService my_esql = null;
+	// runs the database work off the event dispatch thread
+	private GuiTaskRunner tasks = null;
 
 	private void system_end() {
-		Drop_Index();
 		try{
+			if (tasks != null) {
+				tasks.close();
+			}
 			if(my_esql != null) {
 				System.out.print("Disconnecting from database...");
-				my_esql.cleanup ();
+				my_esql.close ();
 				System.out.println("Done\n\nBye !");
 			}//end if
 			System.exit(0);
@@ -331,9 +155,16 @@ public class AirBooking_GUI{
 		}
 	}
 
-	private void AB_GUI(AirBooking_GUI esql){
+	private void AB_GUI(BookingService esql){
 		my_esql = esql;
 		Main_Frame_Initial();
+		tasks = GuiTaskRunner.fromSystemProperties(status_label);
+		// Esc cancels the running queries
+		mainFrame.getRootPane().registerKeyboardAction(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				tasks.cancelAll();
+			}
+		}, KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), JComponent.WHEN_IN_FOCUSED_WINDOW);
 		Set_Menu_Plane();
 		mainFrame.add(mainPanel);
 		
@@ -383,7 +214,7 @@ public class AirBooking_GUI{
 	}
 
 	private void Set_Menu_Plane() {
-		mainPanel = new JPanel(new GridLayout(11,1));
+		mainPanel = new JPanel(new GridLayout(12,1));
 		
 		menu_buttons[0] = new JButton("1. Add Passenger");
 		menu_buttons[0].setActionCommand("menu_1");
@@ -405,8 +236,10 @@ public class AirBooking_GUI{
 		menu_buttons[8].setActionCommand("menu_9");
 		menu_buttons[9] = new JButton("10. < EXIT >");
 		menu_buttons[9].setActionCommand("menu_10");
-		menu_buttons[10] = new JButton("Information");
-		menu_buttons[10].setActionCommand("information");
+		menu_buttons[10] = new JButton("Metrics");
+		menu_buttons[10].setActionCommand("metrics");
+		menu_buttons[11] = new JButton("Information");
+		menu_buttons[11].setActionCommand("information");
 
 		for (JButton t : menu_buttons) {
 			t.addActionListener(new ButtonClickListener());
@@ -438,13 +271,17 @@ public class AirBooking_GUI{
 			
 			else if (command.equals("menu_10")) {	Choice_Ten(); }
 
+			else if (command.equals("metrics")) {
+				Metrics_Section();
+			}
+
 			else if (command.equals("information")) {
 				Info_Section();
 			}
 			
 			else if (command.equals("Back_to_Menu")) {
-				Drop_Index();
-				System.out.printf("Back_to_Menu\n");
+						System.out.printf("Back_to_Menu\n");
+				tasks.cancelAll();
 				tablePanel.removeAll();
 				status_label.setText("Main Menu");
 				Main_Frame_Update(tablePanel, mainPanel);
@@ -466,7 +303,8 @@ public class AirBooking_GUI{
 
 	// Date
 	String year = "2017", month = "01", day = "01";
-	JComboBox<String> year_box, month_box, day_box, origin_box, destination_box;
+	JComboBox<String> year_box, month_box, day_box;
+	CityComboBox origin_box, destination_box;
 	JPanel date_panel;
 
 
@@ -569,37 +407,9 @@ public class AirBooking_GUI{
 			day_box.addItem(temp);
 		}
 
-		origin_box = new JComboBox<String>();
-		try {
-			String query = "SELECT DISTINCT origin FROM Flight ORDER BY origin;";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				for (String content : row) {
-					origin_box.addItem(content);
-				}
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-		origin_box.setSelectedIndex(0);
-		origin = origin_box.getSelectedItem().toString();
-
-		destination_box = new JComboBox<String>();
-		try {
-			String query = "SELECT DISTINCT destination FROM Flight WHERE origin = \'" + origin + "\'ORDER BY destination;";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				for (String content : row) {
-					destination_box.addItem(content);
-				}
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-		destination_box.setSelectedIndex(0);
-		destination = destination_box.getSelectedItem().toString();
+		// filled in the background once the listeners are set, completed as the city is typed
+		origin_box = CityComboBox.fromSystemProperties();
+		destination_box = CityComboBox.fromSystemProperties();
 		
 
 
@@ -716,20 +526,22 @@ public class AirBooking_GUI{
 					case ItemEvent.SELECTED:
 						origin = origin_box.getSelectedItem().toString();
 						destination_box.removeAllItems();
-						try {
-							String query = "SELECT DISTINCT destination FROM Flight WHERE origin = \'" + origin + "\'ORDER BY destination;";
-							List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-							for (List<String> row : result) {
-								for (String content : row) {
-									destination_box.addItem(content);
+						final String from = origin;
+						tasks.submit("Loading destinations", new GuiTaskRunner.Task<CityIndex>() {
+							@Override
+							public CityIndex call() throws Exception {
+								return my_esql.findDestinations(from);
+							}
+
+							@Override
+							public void succeeded(CityIndex destinations) {
+								destination_box.setCities(destinations);
+								if (destination_box.getItemCount() > 0) {
+									destination_box.setSelectedIndex(0);
+									destination = destination_box.getSelectedItem().toString();
 								}
 							}
-							destination_box.setSelectedIndex(0);
-							destination = destination_box.getSelectedItem().toString();
-						} catch (Exception e) {
-							//TODO: handle exception
-							System.err.println (e.getMessage());
-						}
+						});
 						break;
 				
 					default:
@@ -752,7 +564,24 @@ public class AirBooking_GUI{
 					}
 				}
 			});
+
+		loadOrigins(origin_box);
 	} 
+
+	// offers the origins in the box, loaded in the background
+	private void loadOrigins(final CityComboBox box) {
+		tasks.submit("Loading origins", new GuiTaskRunner.Task<CityIndex>() {
+			@Override
+			public CityIndex call() throws Exception {
+				return my_esql.findOrigins();
+			}
+
+			@Override
+			public void succeeded(CityIndex origins) {
+				box.setCities(origins);
+			}
+		});
+	}
 	
 	// 1. Add Passenger
 	private void Choice_One () {
@@ -843,66 +672,61 @@ public class AirBooking_GUI{
 					JOptionPane.showMessageDialog( null, error_msg, "ERROR", JOptionPane.ERROR_MESSAGE);
 				}
 				else {
-					try {
-						// Check passport number
-						String query = "";
-						query += "SELECT pID FROM Passenger WHERE passNum = \'";
-						query += passportNum + "\';";
-						int rowCount = my_esql.executeQuery(query);
-						if (rowCount == 0) {
-							// Get available pID
-							query = "SELECT pID FROM Passenger;";
-							List<List<String>> result =  my_esql.executeQueryAndReturnResult(query);
-							int pID = 0;
-							for (List<String> row : result) {
-								for (String content : row) {
-									if (pID != Integer.parseInt(content)) {
-										break;
-									}
-									pID++;
-								}
+					String fullName = firstName.substring(0, 1).toUpperCase() + firstName.substring(1, firstName.length()).toLowerCase();
+					fullName += " ";
+					fullName += lastName.substring(0, 1).toUpperCase() + lastName.substring(1, lastName.length()).toLowerCase();
+					final String passNum = passportNum;
+					final String name = fullName;
+					final String bdate = year + "-" + month + "-" + day;
+					final String home = country;
+					submitButton.setEnabled(false);
+					tasks.submit("Adding passenger", new GuiTaskRunner.Task<Integer>() {
+						@Override
+						public Integer call() throws Exception {
+							// Check passport number
+							if (my_esql.passNumInUse(passNum)) {
+								return null;
 							}
-							// Add passenger
-							query = "";
-							query = "INSERT INTO passenger (pid, passnum, fullname, bdate, country) VALUES (";
-							query += pID + ", \'";
-							query += passportNum + "\', \'";
-							query += firstName.substring(0, 1).toUpperCase() + firstName.substring(1, firstName.length()).toLowerCase();
-							query += " ";
-							query += lastName.substring(0, 1).toUpperCase() + lastName.substring(1, lastName.length()).toLowerCase();
-							query += "\', \'";
-							query += year + "-" + month + "-" + day + "\', \'";
-							query += country + "\');";
-							my_esql.executeUpdate(query);
-							System.out.printf("%s\n", query);
-
-							passport_num_field.setText("");
-							first_name_field.setText("");
-							last_name_field.setText("");
-							country_field.setText("");
-					
-							passportNum = "";
-							firstName = "";
-							lastName = "";
-							country = "";
-					
-							year_box.setSelectedItem("2017");
-							month_box.setSelectedItem("01");
-							day_box.setSelectedItem("01");
-					
-							year = "2017";
-							month = "01";
-							day = "01";
-							JOptionPane.showMessageDialog( null, "Adding Passenger is finished.", "Success", JOptionPane.PLAIN_MESSAGE);
-							status_label.setText("Success");
+							// Add passenger under the lowest free pID
+							return my_esql.addPassenger(passNum, name, bdate, home);
 						}
-						else {
-							JOptionPane.showMessageDialog( null, "This Passenger is already in list.", "ERROR", JOptionPane.ERROR_MESSAGE);
-							passport_num_field.setText(null);
+
+						@Override
+						public void succeeded(Integer pID) {
+							if (pID != null) {
+								System.out.printf("Passenger %d added\n", pID);
+
+								passport_num_field.setText("");
+								first_name_field.setText("");
+								last_name_field.setText("");
+								country_field.setText("");
+						
+								passportNum = "";
+								firstName = "";
+								lastName = "";
+								country = "";
+						
+								year_box.setSelectedItem("2017");
+								month_box.setSelectedItem("01");
+								day_box.setSelectedItem("01");
+						
+								year = "2017";
+								month = "01";
+								day = "01";
+								JOptionPane.showMessageDialog( null, "Adding Passenger is finished.", "Success", JOptionPane.PLAIN_MESSAGE);
+								status_label.setText("Success");
+							}
+							else {
+								JOptionPane.showMessageDialog( null, "This Passenger is already in list.", "ERROR", JOptionPane.ERROR_MESSAGE);
+								passport_num_field.setText(null);
+							}
 						}
-					}catch(Exception e){
-						System.err.println (e.getMessage());
-					}
+
+						@Override
+						public void finished() {
+							submitButton.setEnabled(true);
+						}
+					});
 				}
 			}
 		});
@@ -972,77 +796,64 @@ public class AirBooking_GUI{
 					JOptionPane.showMessageDialog( null, error_msg, "ERROR", JOptionPane.ERROR_MESSAGE);
 				}
 				else {
-					try {
-						// Check passport number
-						String query = "";
-						query += "SELECT pID FROM Passenger WHERE passNum = \'";
-						query += passportNum + "\';";
-						List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-						if (result.size() > 0) {
-							// Get pID
-							String pID = result.get(0).get(0);
-
-							//Get bookRef
-							String letters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-							String bookref = "";
-							while (true) {
-								Random random = new Random();
-								for (int i = 0; i < 10; ++i) {
-									bookref += letters.charAt(random.nextInt(26));
-								}
-								try {
-									query = "SELECT bookRef FROM Booking WHERE bookRef = \'";
-									query += bookref + "\';";
-									int rows = my_esql.executeQuery(query);
-									if (rows > 0) {
-										continue;
-									} else {
-										break;
-									}
-								} catch (Exception e) {
-									//TODO: handle exception
-									System.err.println (e.getMessage());
-									break;
-								}
+					final String passNum = passportNum;
+					final String from = origin;
+					final String to = destination;
+					final String departure = year_box.getSelectedItem().toString() + "-" + month_box.getSelectedItem().toString()
+						+ "-" + day_box.getSelectedItem().toString();
+					submitButton.setEnabled(false);
+					tasks.submit("Booking flight", new GuiTaskRunner.Task<String>() {
+						private boolean passengerFound = false;
+
+						@Override
+						public String call() throws Exception {
+							// Check passport number
+							BookingService.Passenger passenger = my_esql.findPassengerByPassNum(passNum);
+							if (passenger == null) {
+								return null;
 							}
+							passengerFound = true;
+
 							// Get Flight Number
-							query = "SELECT DISTINCT flightNum FROM Flight WHERE ";
-							query += "origin = \'" + origin + "\' and ";
-							query += "destination = \'" + destination + "\';";
-							result = my_esql.executeQueryAndReturnResult(query);
-							String flightNum = result.get(0).get(0);
+							String flightNum = my_esql.findFlights(from, to).get(0).getFlightNum();
 
 							// Book Flight
-							query = "INSERT INTO Booking (bookRef, departure, flightNum, pID) VALUES (\'";
-							query += bookref + "\', \'";
-							query += year_box.getSelectedItem().toString() + "-" + month_box.getSelectedItem().toString();
-							query += "-" + day_box.getSelectedItem().toString() + "\', \'";
-							query += flightNum + "\', \'";
-							query += pID + "\');";
+							return my_esql.bookFlight(departure, flightNum, passenger.getPID());
+						}
 
-							my_esql.executeUpdate(query);
+						@Override
+						public void succeeded(String bookref) {
+							if (passengerFound) {
+								if (bookref == null) {
+									JOptionPane.showMessageDialog( null, "This flight is sold out on " + departure + ".", "ERROR", JOptionPane.ERROR_MESSAGE);
+									return;
+								}
 
-							passport_num_field.setText("");
-					
-							passportNum = "";
-					
-							year_box.setSelectedItem("2017");
-							month_box.setSelectedItem("01");
-							day_box.setSelectedItem("01");
-					
-							year = "2017";
-							month = "01";
-							day = "01";
-							JOptionPane.showMessageDialog( null, "Book Flight is finished.", "Success", JOptionPane.PLAIN_MESSAGE);
-							status_label.setText("Success");
+								passport_num_field.setText("");
+						
+								passportNum = "";
+						
+								year_box.setSelectedItem("2017");
+								month_box.setSelectedItem("01");
+								day_box.setSelectedItem("01");
+						
+								year = "2017";
+								month = "01";
+								day = "01";
+								JOptionPane.showMessageDialog( null, "Book Flight is finished.\nBooking Reference: " + bookref, "Success", JOptionPane.PLAIN_MESSAGE);
+								status_label.setText("Success");
+							}
+							else {
+								JOptionPane.showMessageDialog( null, "This Passenger does not exist.", "ERROR", JOptionPane.ERROR_MESSAGE);
+								passport_num_field.setText(null);
+							}
 						}
-						else {
-							JOptionPane.showMessageDialog( null, "This Passenger does not exist.", "ERROR", JOptionPane.ERROR_MESSAGE);
-							passport_num_field.setText(null);
+
+						@Override
+						public void finished() {
+							submitButton.setEnabled(true);
 						}
-					}catch(Exception e){
-						System.err.println (e.getMessage());
-					}
+					});
 				}
 			}
 		});
@@ -1121,27 +932,23 @@ public class AirBooking_GUI{
 					JOptionPane.showMessageDialog( null, error_msg, "ERROR", JOptionPane.ERROR_MESSAGE);
 				}
 				else {
-					try {
-						// Get flight numbers
-						String query = "";
-						query += "SELECT B.flightNum FROM Booking B, Passenger P1 WHERE P1.pID = B.pID and P1.passNum = \'";
-						query += passportNum + "\' ";
-						query += "EXCEPT ";
-						query += "SELECT R.flightNum FROM Ratings R, Passenger P2 WHERE P2.pID = R.pID and P2.passNum = \'";
-						query += passportNum + "\' ORDER BY flightNum;";
-						List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-						flight_box.removeAllItems();
-						if (result.size() > 0) {
-							for (List<String> row : result) {
-								for (String content : row) {
-									flight_box.addItem(content);
-								}
+					final String passNum = passportNum;
+					tasks.submit("Loading flights", new GuiTaskRunner.Task<List<String>>() {
+						@Override
+						public List<String> call() throws Exception {
+							// Get flight numbers
+							BookingService.Passenger passenger = my_esql.findPassengerByPassNum(passNum);
+							if (passenger == null) {
+								return new ArrayList<String>();
 							}
+							return my_esql.findUnratedFlights(passenger.getPID());
 						}
-					} catch (Exception e) {
-						//TODO: handle exception
-						System.err.println (e.getMessage());
-					}
+
+						@Override
+						public void succeeded(List<String> flights) {
+							fillComboBox(flight_box, flights);
+						}
+					});
 				}
 			}
 		});
@@ -1163,50 +970,45 @@ public class AirBooking_GUI{
 					JOptionPane.showMessageDialog( null, error_msg, "ERROR", JOptionPane.ERROR_MESSAGE);
 				}
 				else {
-					try {
-						// Check passport number
-						String query = "SELECT pID FROM Passenger WHERE passNum = \'";
-						query += passportNum + "\';";
-						List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-						if (result.size() > 0) {
-							// Get pID
-							String pID = result.get(0).get(0);
-							// Get available rID
-							query = "SELECT rID FROM Ratings;";
-							result =  my_esql.executeQueryAndReturnResult(query);
-							int rID = 0;
-							for (List<String> row : result) {
-								for (String content : row) {
-									if (rID != Integer.parseInt(content)) {
-										break;
-									}
-									rID++;
-								}
+					final String passNum = passportNum;
+					final String flightNum = flight_box.getSelectedItem().toString();
+					final int score = Integer.parseInt(rate_box.getSelectedItem().toString());
+					final String comment = commentArea.getText();
+					submitButton.setEnabled(false);
+					tasks.submit("Saving review", new GuiTaskRunner.Task<Boolean>() {
+						@Override
+						public Boolean call() throws Exception {
+							// Check passport number
+							BookingService.Passenger passenger = my_esql.findPassengerByPassNum(passNum);
+							if (passenger == null) {
+								return false;
 							}
-							// Insert
-							query = "INSERT INTO Ratings (rID, pID, flightNum, score, comment) VALUES (";
-							query += rID + ", ";
-							query += pID + ", \'";
-							query += flight_box.getSelectedItem().toString() + "\', ";
-							query += rate_box.getSelectedItem().toString() + ", \'";
-							query += commentArea.getText() + "\');";
-							my_esql.executeUpdate(query);
-
-							passportNum = "";
-							passport_num_field.setText(null);
-							commentArea.setText(null);
-
-							JOptionPane.showMessageDialog( null, "Comment is finished.", "Success", JOptionPane.PLAIN_MESSAGE);
-							status_label.setText("Success");
+							// Insert under the lowest free rID
+							my_esql.addReview(passenger.getPID(), flightNum, score, comment);
+							return true;
 						}
-						else {
-							JOptionPane.showMessageDialog( null, "This Passenger does not exist.", "ERROR", JOptionPane.ERROR_MESSAGE);
-							passport_num_field.setText(null);
+
+						@Override
+						public void succeeded(Boolean passengerFound) {
+							if (passengerFound) {
+								passportNum = "";
+								passport_num_field.setText(null);
+								commentArea.setText(null);
+
+								JOptionPane.showMessageDialog( null, "Comment is finished.", "Success", JOptionPane.PLAIN_MESSAGE);
+								status_label.setText("Success");
+							}
+							else {
+								JOptionPane.showMessageDialog( null, "This Passenger does not exist.", "ERROR", JOptionPane.ERROR_MESSAGE);
+								passport_num_field.setText(null);
+							}
 						}
-					} catch (Exception e) {
-						//TODO: handle exception
-						System.err.println (e.getMessage());
-					}
+
+						@Override
+						public void finished() {
+							submitButton.setEnabled(true);
+						}
+					});
 				}
 			}
 		});
@@ -1274,22 +1076,25 @@ public class AirBooking_GUI{
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
 				if (name_field.getText().length() > 0) {
-					try {
-						String query = "SELECT founded, country, hub FROM Airline WHERE name = \'";
-						query += name_field.getText() + "\';";
-						List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-						if (result.size() > 0) {
-							founded_box.setSelectedItem(result.get(0).get(0));
-							country_field.setText(result.get(0).get(1));
-							hub_field.setText(result.get(0).get(2));
+					final String name = name_field.getText();
+					tasks.submit("Loading airline", new GuiTaskRunner.Task<BookingService.Airline>() {
+						@Override
+						public BookingService.Airline call() throws Exception {
+							return my_esql.findAirlineByName(name);
 						}
-						else {
-							JOptionPane.showMessageDialog( null, "This airline does not exist in the database.", "WARNING", JOptionPane.WARNING_MESSAGE);
+
+						@Override
+						public void succeeded(BookingService.Airline airline) {
+							if (airline != null) {
+								founded_box.setSelectedItem("" + airline.getFounded());
+								country_field.setText(airline.getCountry());
+								hub_field.setText(airline.getHub());
+							}
+							else {
+								JOptionPane.showMessageDialog( null, "This airline does not exist in the database.", "WARNING", JOptionPane.WARNING_MESSAGE);
+							}
 						}
-					} catch (Exception e) {
-						//TODO: handle exception
-						System.err.println (e.getMessage());
-					}
+					});
 				}
 				else {
 					JOptionPane.showMessageDialog( null, "Please fill out the name of the airline.", "ERROR", JOptionPane.ERROR_MESSAGE);
@@ -1302,114 +1107,92 @@ public class AirBooking_GUI{
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
 				if (name_field.getText().length() > 0 && country_field.getText().length() >0 && hub_field.getText().length() > 0) {
-					try {
-						String query = "SELECT airId FROM Airline WHERE name = \'";
-						query += name_field.getText() + "\';";
-						List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-						if (result.size() > 0) {
-							int choice = JOptionPane.showConfirmDialog( null, "This airline is already in the database.\nDo you want to update it?", "WARNING", JOptionPane.WARNING_MESSAGE);
-							if (choice == 0) {
-								query = "UPDATE Airline ";
-								query += "SET ";
-								query += "founded = " + founded_box.getSelectedItem().toString() + ", ";
-								query += "country = \'" + country_field.getText() + "\', ";
-								query += "hub = \'" + hub_field.getText() + "\' ";
-								query += "WHERE ";
-								query += "name = \'" + name_field.getText() + "\' and ";
-								query += "airId = " + result.get(0).get(0) + ";";
-								my_esql.executeUpdate(query);
-								JOptionPane.showMessageDialog( null, "Update is finished.", "Success", JOptionPane.PLAIN_MESSAGE);
-							}
+					final String name = name_field.getText();
+					final int founded = Integer.parseInt(founded_box.getSelectedItem().toString());
+					final String home = country_field.getText();
+					final String hub = hub_field.getText();
+					submitButton.setEnabled(false);
+					tasks.submit("Checking airline", new GuiTaskRunner.Task<BookingService.Airline>() {
+						// the save task re-enables the button once it started
+						private boolean saving = false;
+
+						@Override
+						public BookingService.Airline call() throws Exception {
+							return my_esql.findAirlineByName(name);
 						}
-						else {
-							// Get available airId
-							query = "SELECT airId FROM Airline ORDER BY airId;";
-							result =  my_esql.executeQueryAndReturnResult(query);
-							int airId = 0;
-							for (List<String> row : result) {
-								for (String content : row) {
-									if (airId != Integer.parseInt(content)) {
-										break;
+
+						@Override
+						public void succeeded(BookingService.Airline airline) {
+							final boolean update = airline != null;
+							final int airId = update ? airline.getAirId() : -1;
+							if (update) {
+								int choice = JOptionPane.showConfirmDialog( null, "This airline is already in the database.\nDo you want to update it?", "WARNING", JOptionPane.WARNING_MESSAGE);
+								if (choice != 0) {
+									clearForm();
+									return;
+								}
+							}
+							saving = true;
+							tasks.submit("Saving airline", new GuiTaskRunner.Task<Void>() {
+								@Override
+								public Void call() throws Exception {
+									if (update) {
+										my_esql.updateAirline(airId, founded, home, hub);
+									}
+									else {
+										// Insert under the lowest free airId
+										my_esql.addAirline(name, founded, home, hub);
 									}
-									airId++;
+									return null;
 								}
+
+								@Override
+								public void succeeded(Void nothing) {
+									JOptionPane.showMessageDialog( null, update ? "Update is finished." : "Insert is finished.", "Success", JOptionPane.PLAIN_MESSAGE);
+									clearForm();
+								}
+
+								@Override
+								public void finished() {
+									submitButton.setEnabled(true);
+								}
+							});
+						}
+
+						@Override
+						public void finished() {
+							if (!saving) {
+								submitButton.setEnabled(true);
 							}
-							query = "INSERT INTO Airline (airId, name, founded, country, hub) VALUES (";
-							query += airId + ", \'";
-							query += name_field.getText() + "\', ";
-							query += founded_box.getSelectedItem().toString() + ", \'";
-							query += country_field.getText() + "\', \'";
-							query += hub_field.getText() + "\');";
-							my_esql.executeUpdate(query);
-							JOptionPane.showMessageDialog( null, "Insert is finished.", "Success", JOptionPane.PLAIN_MESSAGE);
 						}
-					} catch (Exception e) {
-						//TODO: handle exception
-						System.err.println (e.getMessage());
-					}
-					name_field.setText(null);
-					founded_box.setSelectedIndex(founded_box.getItemCount() - 1);
-					country_field.setText(null);
-					hub_field.setText(null);
-					status_label.setText("Success");
+					});
 				}
 				else {
 					JOptionPane.showMessageDialog( null, "Please fill out the information.", "ERROR", JOptionPane.ERROR_MESSAGE);
 				}
 			}
+
+			private void clearForm() {
+				name_field.setText(null);
+				founded_box.setSelectedIndex(founded_box.getItemCount() - 1);
+				country_field.setText(null);
+				hub_field.setText(null);
+				status_label.setText("Success");
+			}
 		});
 	}
 	
 	private void Choice_Five () {
-		Create_Index("CREATE INDEX origin_select ON Flight USING BTREE (origin);", "DROP INDEX origin_select;");
-		Create_Index("CREATE INDEX destination_select ON Flight USING BTREE (destination);", "DROP INDEX destination_select;");
-		JComboBox<String> origin_flight_box = new JComboBox<String>();
-		try {
-			String query = "SELECT DISTINCT origin FROM Flight ORDER BY origin;";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				for (String content : row) {
-					origin_flight_box.addItem(content);
-				}
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-		origin_flight_box.setSelectedIndex(0);
-		
-		JComboBox<String> destination_flight_box = new JComboBox<String>();
-		try {
-			String query = "SELECT DISTINCT destination FROM Flight WHERE origin = \'";
-			query += origin_flight_box.getSelectedItem().toString() + "\' ORDER BY destination;";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				for (String content : row) {
-					destination_flight_box.addItem(content);
-				}
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-		destination_flight_box.setSelectedIndex(0);
+		// filled in the background once the listeners are set
+		CityComboBox origin_flight_box = CityComboBox.fromSystemProperties();
+		CityComboBox destination_flight_box = CityComboBox.fromSystemProperties();
 
 		// Set table
 		String[] header = {"Flights"};
 
 		DefaultTableModel model = new DefaultTableModel(null, header);
-		try {
-			String query = "SELECT DISTINCT flightnum FROM Flight WHERE origin = \'";
-			query += origin_flight_box.getSelectedItem().toString() + "\' and destination = \'";
-			query += destination_flight_box.getSelectedItem().toString() + "\' ORDER BY flightnum;";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				model.addRow(row.toArray());
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
+		String[] itinerary_header = {"Itinerary", "Cities", "Duration"};
+		DefaultTableModel itinerary_model = new DefaultTableModel(null, itinerary_header);
 
 		JTable table = new JTable();
 		table.setModel(model);
@@ -1420,6 +1203,12 @@ public class AirBooking_GUI{
 		dtcr.setHorizontalAlignment(JLabel.CENTER);
 		table.setDefaultRenderer(Object.class, dtcr);
 
+		JTable itinerary_table = new JTable();
+		itinerary_table.setModel(itinerary_model);
+		itinerary_table.setEnabled(false);
+		itinerary_table.setAutoResizeMode(JTable.AUTO_RESIZE_ALL_COLUMNS);
+		itinerary_table.setDefaultRenderer(Object.class, dtcr);
+
 		((DefaultTableCellRenderer)table.getTableHeader().getDefaultRenderer()).setHorizontalAlignment(JLabel.CENTER);
 
 		tablePanel = new JPanel(new BorderLayout());
@@ -1449,7 +1238,10 @@ public class AirBooking_GUI{
 
 		JPanel subPanel = new JPanel(new BorderLayout());
 		subPanel.add(subsubPanel, BorderLayout.NORTH);
-		subPanel.add(new JScrollPane(table), BorderLayout.CENTER);
+		JPanel tables = new JPanel(new GridLayout(2, 1));
+		tables.add(new JScrollPane(table));
+		tables.add(new JScrollPane(itinerary_table));
+		subPanel.add(tables, BorderLayout.CENTER);
 
 		tablePanel.add(subPanel, BorderLayout.CENTER);
 
@@ -1462,41 +1254,25 @@ public class AirBooking_GUI{
 			
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
-				try {
-					String query = "SELECT DISTINCT destination FROM Flight WHERE origin = \'";
-					query += origin_flight_box.getSelectedItem().toString() + "\' ORDER BY destination;";
-					List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-					destination_flight_box.removeAllItems();
-					for (List<String> row : result) {
-						for (String content : row) {
-							destination_flight_box.addItem(content);
-						}
-					}
-					destination_flight_box.setSelectedIndex(0);
-					
-					while (model.getRowCount() > 0) {
-						model.removeRow(0);
-					}
-					
-					// Start Timer
-					long startTime = System.currentTimeMillis();
-
-					query = "SELECT DISTINCT flightnum FROM Flight WHERE origin = \'";
-					query += origin_flight_box.getSelectedItem().toString() + "\' and destination = \'";
-					query += destination_flight_box.getSelectedItem().toString() + "\' ORDER BY flightnum;";
-					result = my_esql.executeQueryAndReturnResult(query);
-					for (List<String> row : result) {
-						model.addRow(row.toArray());
+				if (origin_flight_box.getSelectedItem() == null) {
+					return;
+				}
+				final String from = origin_flight_box.getSelectedItem().toString();
+				while (model.getRowCount() > 0) {
+					model.removeRow(0);
+				}
+				tasks.submit("Loading destinations", new GuiTaskRunner.Task<CityIndex>() {
+					@Override
+					public CityIndex call() throws Exception {
+						return my_esql.findDestinations(from);
 					}
-						
-					// End Timer		
-					long endTime = System.currentTimeMillis();
 
-					status_label.setText("Runtime: " + (endTime - startTime) + " ms");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
+					@Override
+					public void succeeded(CityIndex destinations) {
+						// selecting the first destination lists its flights
+						destination_flight_box.setCities(destinations);
+					}
+				});
 			}
 		});
 
@@ -1504,36 +1280,56 @@ public class AirBooking_GUI{
 		
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
-				try {
-					while (model.getRowCount() > 0) {
-						model.removeRow(0);
-					}
+				if (origin_flight_box.getSelectedItem() == null || destination_flight_box.getSelectedItem() == null) {
+					return;
+				}
+				final String from = origin_flight_box.getSelectedItem().toString();
+				final String to = destination_flight_box.getSelectedItem().toString();
+				while (model.getRowCount() > 0) {
+					model.removeRow(0);
+				}
+				tasks.submit("Listing flights", new GuiTaskRunner.Task<List<RouteGraph.Flight>>() {
+					private ConnectionSearch.Result itineraries;
 
-					// Start Timer
-					long startTime = System.currentTimeMillis();
+					@Override
+					public List<RouteGraph.Flight> call() throws Exception {
+						itineraries = my_esql.findItineraries(from, to);
+						return my_esql.findFlights(from, to);
+					}
 
-					String query = "SELECT DISTINCT flightnum FROM Flight WHERE origin = \'";
-					query += origin_flight_box.getSelectedItem().toString() + "\' and destination = \'";
-					query += destination_flight_box.getSelectedItem().toString() + "\' ORDER BY flightnum;";
-					List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-					for (List<String> row : result) {
-						model.addRow(row.toArray());
+					@Override
+					public void succeeded(List<RouteGraph.Flight> flights) {
+						fillFlightTable(model, flights);
+						fillItineraryTable(itinerary_model, itineraries);
 					}
-					// End Timer		
-					long endTime = System.currentTimeMillis();
-					
-					status_label.setText("Runtime: " + (endTime - startTime) + " ms");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
+				});
 			}
 		});
+
+		loadOrigins(origin_flight_box);
+	}
+
+	// fills the table with flights read from the in-memory route graph
+	private void fillFlightTable(DefaultTableModel model, List<RouteGraph.Flight> flights) {
+		for (RouteGraph.Flight flight : flights) {
+			model.addRow(new Object[] { flight.getFlightNum() });
+		}
+	}
+
+	// replaces the rows with the shortest itineraries, connections included
+	private void fillItineraryTable(DefaultTableModel model, ConnectionSearch.Result result) {
+		while (model.getRowCount() > 0) {
+			model.removeRow(0);
+		}
+		for (ConnectionSearch.Itinerary itinerary : result.getItineraries()) {
+			model.addRow(new Object[] { itinerary.getFlightNums(), itinerary.getCities(), itinerary.getDuration() });
+		}
+		if (!result.isComplete()) {
+			model.addRow(new Object[] { "(search timed out)", "", "" });
+		}
 	}
 	
 	private void Choice_Six () {
-		Create_Index("CREATE INDEX destination_select ON Flight USING BTREE (destination);", "DROP INDEX destination_select;");
-		
 		tablePanel = new JPanel(new BorderLayout());
 
 		JPanel jp = new JPanel(new FlowLayout(FlowLayout.CENTER));
@@ -1547,40 +1343,26 @@ public class AirBooking_GUI{
 		subPanel_one.add(new JLabel("Please select the number of Popular Destinations you want to display :"));
 		subsubPanel.add(subPanel_one, BorderLayout.CENTER);
 
+		// filled in the background once the listener is set
 		JComboBox<String> num_box = new JComboBox<String>();
 		subsubPanel.add(num_box, BorderLayout.EAST);
-		try {
-			String query = "SELECT DISTINCT destination FROM Flight;";
-			List<List<String>> result = executeQueryAndReturnResult(query);
-			System.out.printf("%s\n", result.size());
-			for (int i = 0; i <= result.size(); ++i) {
-				num_box.addItem("" + i);
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-		num_box.setSelectedIndex(0);
 
 		// Set table
 		String[] header = {"Destination City", "Number of Flights"};
 		
-		DefaultTableModel model = new DefaultTableModel(null, header);
-		try {
-			String query = "SELECT destination, Count (destination) ";
-			query += "FROM Flight ";
-			query += "GROUP BY destination ";
-			query += "ORDER BY COUNT (destination) ";
-			query += "desc limit ";
-			query += num_box.getSelectedItem() + ";";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				model.addRow(row.toArray());
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
+		// reads the ranking a page at a time as the table is scrolled
+		PagedTableModel<DestinationRanking.Entry> model = PagedTableModel.fromSystemProperties(header,
+			new PagedTableModel.Source<DestinationRanking.Entry>() {
+				@Override
+				public List<DestinationRanking.Entry> page(DestinationRanking.Entry after, int limit) throws Exception {
+					return my_esql.pageDestinations(after, limit);
+				}
+
+				@Override
+				public Object value(DestinationRanking.Entry entry, int column) {
+					return column == 0 ? entry.getDestination() : entry.getCount();
+				}
+			}, tasks);
 
 		JTable table = new JTable();
 		table.setModel(model);
@@ -1607,36 +1389,35 @@ public class AirBooking_GUI{
 		
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
-				try {
-					while (model.getRowCount() > 0) {
-						model.removeRow(0);
-					}
-
-					// Start Timer
-					long startTime = System.currentTimeMillis();
-
-					String query = "SELECT destination, Count (destination) ";
-					query += "FROM Flight ";
-					query += "GROUP BY destination ";
-					query += "ORDER BY COUNT (destination) ";
-					query += "desc limit ";
-					query += num_box.getSelectedItem() + ";";
-					List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-					for (List<String> row : result) {
-						model.addRow(row.toArray());
-					}
-					// End Timer		
-					long endTime = System.currentTimeMillis();
-					
-					status_label.setText("Runtime: " + (endTime - startTime) + " ms");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
+				if (num_box.getSelectedItem() == null) {
+					return;
 				}
+				model.reset(Integer.parseInt(num_box.getSelectedItem().toString()));
+			}
+		});
+
+		tasks.submit("Counting destinations", new GuiTaskRunner.Task<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return my_esql.countDestinations();
+			}
+
+			@Override
+			public void succeeded(Integer destinations) {
+				fillNumberBox(num_box, destinations);
 			}
 		});
 	}
-	
+
+	// offers 0 to max, selecting 0
+	private void fillNumberBox(JComboBox<String> box, int max) {
+		box.removeAllItems();
+		for (int i = 0; i <= max; ++i) {
+			box.addItem("" + i);
+		}
+		box.setSelectedIndex(0);
+	}
+
 	private void Choice_Seven () {
 		tablePanel = new JPanel(new BorderLayout());
 		
@@ -1651,41 +1432,33 @@ public class AirBooking_GUI{
 		subPanel_one.add(new JLabel("Please select the number of Highest Rated Destinations you want to display :"));
 		subsubPanel.add(subPanel_one);
 
+		// filled in the background once the listener is set
 		JComboBox<String> num_box = new JComboBox<String>();
 		subsubPanel.add(num_box);
-		try {
-			String query = "SELECT DISTINCT destination FROM Flight;";
-			List<List<String>> result = executeQueryAndReturnResult(query);
-			System.out.printf("%s\n", result.size());
-			for (int i = 0; i <= result.size(); ++i) {
-				num_box.addItem("" + i);
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-		num_box.setSelectedIndex(0);
 
 		// Set table
 		String[] header = {"Airline Name", "Flight Number", "Origin", "Destination", "Plane Type", "Average Score"};
 		
-		DefaultTableModel model = new DefaultTableModel(null, header);
-		try {
-			String query = "SELECT A.name, F.flightNum, F.origin, F.destination, F.plane, avg(R.score) ";
-			query += "FROM Flight F, Ratings R,Airline A ";
-			query += "WHERE F.flightNum = R.flightNum AND A.airId=F.airId ";
-			query += "GROUP BY A.name, F.flightNum, F.origin, F.destination, F.plane ";
-			query += "ORDER BY avg(R.score) ";
-			query += "desc limit ";
-			query += num_box.getSelectedItem() + ";";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				model.addRow(row.toArray());
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
+		// reads the leaderboard a page at a time as the table is scrolled
+		PagedTableModel<RatingLeaderboard.Entry> model = PagedTableModel.fromSystemProperties(header,
+			new PagedTableModel.Source<RatingLeaderboard.Entry>() {
+				@Override
+				public List<RatingLeaderboard.Entry> page(RatingLeaderboard.Entry after, int limit) throws Exception {
+					return my_esql.pageRatedRoutes(after, limit);
+				}
+
+				@Override
+				public Object value(RatingLeaderboard.Entry route, int column) {
+					switch (column) {
+						case 0: return route.getAirline();
+						case 1: return route.getFlightNum();
+						case 2: return route.getOrigin();
+						case 3: return route.getDestination();
+						case 4: return route.getPlane();
+						default: return String.format("%.4f", route.getAverage());
+					}
+				}
+			}, tasks);
 
 		JTable table = new JTable();
 		table.setModel(model);
@@ -1712,71 +1485,30 @@ public class AirBooking_GUI{
 			
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
-				try {
-					while (model.getRowCount() > 0) {
-						model.removeRow(0);
-					}
-
-					// Start Timer
-					long startTime = System.currentTimeMillis();
-
-					String query = "SELECT A.name, F.flightNum, F.origin, F.destination, F.plane, avg(R.score) ";
-					query += "FROM Flight F, Ratings R,Airline A ";
-					query += "WHERE F.flightNum = R.flightNum AND A.airId=F.airId ";
-					query += "GROUP BY A.name, F.flightNum, F.origin, F.destination, F.plane ";
-					query += "ORDER BY avg(R.score) ";
-					query += "desc limit ";
-					query += num_box.getSelectedItem() + ";";
-					List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-					for (List<String> row : result) {
-						row.set(5, row.get(5).substring(0, 6));
-						model.addRow(row.toArray());
-					}
-					// End Timer		
-					long endTime = System.currentTimeMillis();
-					
-					status_label.setText("Runtime: " + (endTime - startTime) + " ms");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
+				if (num_box.getSelectedItem() == null) {
+					return;
 				}
+				model.reset(Integer.parseInt(num_box.getSelectedItem().toString()));
+			}
+		});
+
+		tasks.submit("Counting destinations", new GuiTaskRunner.Task<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return my_esql.countDestinations();
+			}
+
+			@Override
+			public void succeeded(Integer destinations) {
+				fillNumberBox(num_box, destinations);
 			}
 		});
 	}
 	
 	private void Choice_Eight () {
-		Create_Index("CREATE INDEX origin_select ON Flight USING BTREE (origin);", "DROP INDEX origin_select;");
-		Create_Index("CREATE INDEX destination_select ON Flight USING BTREE (destination);", "DROP INDEX destination_select;");
-		JComboBox<String> origin_flight_box = new JComboBox<String>();
-		try {
-			String query = "SELECT DISTINCT origin FROM Flight ORDER BY origin;";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				for (String content : row) {
-					origin_flight_box.addItem(content);
-				}
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-		origin_flight_box.setSelectedIndex(0);
-		
-		JComboBox<String> destination_flight_box = new JComboBox<String>();
-		try {
-			String query = "SELECT DISTINCT destination FROM Flight WHERE origin = \'";
-			query += origin_flight_box.getSelectedItem().toString() + "\' ORDER BY destination;";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				for (String content : row) {
-					destination_flight_box.addItem(content);
-				}
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-		destination_flight_box.setSelectedIndex(0);
+		// filled in the background once the listeners are set
+		CityComboBox origin_flight_box = CityComboBox.fromSystemProperties();
+		CityComboBox destination_flight_box = CityComboBox.fromSystemProperties();
 
 		tablePanel = new JPanel(new BorderLayout());
 		
@@ -1811,41 +1543,12 @@ public class AirBooking_GUI{
 
 		JComboBox<String> num_box = new JComboBox<String>();
 		subsubPanel.add(num_box);
-		try {
-			String query = "SELECT DISTINCT destination FROM Flight;";
-			List<List<String>> result = executeQueryAndReturnResult(query);
-			System.out.printf("%s\n", result.size());
-			for (int i = 0; i <= result.size(); ++i) {
-				num_box.addItem("" + i);
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
-		num_box.setSelectedIndex(0);
 		subsubsubPanel.add(num_box, BorderLayout.EAST);
 
 		// Set table
 		String[] header = {"Airline Name", "Flight Number", "Plane Type", "Duration"};
 		
 		DefaultTableModel model = new DefaultTableModel(null, header);
-		try {
-			String query = "SELECT A.name, F.flightNum, F.plane, F.duration ";
-			query += "FROM Flight F, Airline A ";
-			query += "WHERE ";
-			query += "F.airId = A.airId and ";
-			query += "F.origin = \'"+ origin_flight_box.getSelectedItem().toString() + "\' and ";
-			query += "F.destination = \'"+ destination_flight_box.getSelectedItem().toString() + "\' ";
-			query += "ORDER BY F.duration ";
-			query += "DESC LIMIT " + num_box.getSelectedItem().toString() + ";";
-			List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				model.addRow(row.toArray());
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
 
 		JTable table = new JTable();
 		table.setModel(model);
@@ -1878,118 +1581,78 @@ public class AirBooking_GUI{
 			
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
-				try {
-					String query = "SELECT DISTINCT destination FROM Flight WHERE origin = \'";
-					query += origin_flight_box.getSelectedItem().toString() + "\' ORDER BY destination;";
-					List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-					destination_flight_box.removeAllItems();
-					for (List<String> row : result) {
-						for (String content : row) {
-							destination_flight_box.addItem(content);
-						}
-					}
-					destination_flight_box.setSelectedIndex(0);
-					
-					while (model.getRowCount() > 0) {
-						model.removeRow(0);
+				if (origin_flight_box.getSelectedItem() == null) {
+					return;
+				}
+				final String from = origin_flight_box.getSelectedItem().toString();
+				while (model.getRowCount() > 0) {
+					model.removeRow(0);
+				}
+				tasks.submit("Loading destinations", new GuiTaskRunner.Task<CityIndex>() {
+					@Override
+					public CityIndex call() throws Exception {
+						return my_esql.findDestinations(from);
 					}
 
-					// Start Timer
-					long startTime = System.currentTimeMillis();
-
-					query = "SELECT A.name, F.flightNum, F.plane, F.duration ";
-					query += "FROM Flight F, Airline A ";
-					query += "WHERE ";
-					query += "F.airId = A.airId and ";
-					query += "F.origin = \'"+ origin_flight_box.getSelectedItem().toString() + "\' and ";
-					query += "F.destination = \'"+ destination_flight_box.getSelectedItem().toString() + "\' ";
-					query += "ORDER BY F.duration ";
-					query += "DESC LIMIT " + num_box.getSelectedItem().toString() + ";";
-					result = my_esql.executeQueryAndReturnResult(query);
-					for (List<String> row : result) {
-						model.addRow(row.toArray());
+					@Override
+					public void succeeded(CityIndex destinations) {
+						// selecting the first destination lists its flights
+						destination_flight_box.setCities(destinations);
 					}
-					// End Timer		
-					long endTime = System.currentTimeMillis();
-					
-					status_label.setText("Runtime: " + (endTime - startTime) + " ms");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
+				});
 			}
 		});
 
-		destination_flight_box.addActionListener(new ActionListener(){
+		ActionListener refresh = new ActionListener(){
 		
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
-				try {
-					while (model.getRowCount() > 0) {
-						model.removeRow(0);
+				if (origin_flight_box.getSelectedItem() == null || destination_flight_box.getSelectedItem() == null
+						|| num_box.getSelectedItem() == null) {
+					return;
+				}
+				final String from = origin_flight_box.getSelectedItem().toString();
+				final String to = destination_flight_box.getSelectedItem().toString();
+				final int k = Integer.parseInt(num_box.getSelectedItem().toString());
+				while (model.getRowCount() > 0) {
+					model.removeRow(0);
+				}
+				tasks.submit("Listing flights", new GuiTaskRunner.Task<List<RouteGraph.Flight>>() {
+					@Override
+					public List<RouteGraph.Flight> call() throws Exception {
+						return my_esql.findLongestFlights(from, to, k);
 					}
 
-					// Start Timer
-					long startTime = System.currentTimeMillis();
-
-					String query = "SELECT A.name, F.flightNum, F.plane, F.duration ";
-					query += "FROM Flight F, Airline A ";
-					query += "WHERE ";
-					query += "F.airId = A.airId and ";
-					query += "F.origin = \'"+ origin_flight_box.getSelectedItem().toString() + "\' and ";
-					query += "F.destination = \'"+ destination_flight_box.getSelectedItem().toString() + "\' ";
-					query += "ORDER BY F.duration ";
-					query += "DESC LIMIT " + num_box.getSelectedItem().toString() + ";";
-					List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-					for (List<String> row : result) {
-						model.addRow(row.toArray());
+					@Override
+					public void succeeded(List<RouteGraph.Flight> flights) {
+						fillDurationTable(model, flights);
 					}
-					// End Timer		
-					long endTime = System.currentTimeMillis();
-					
-					status_label.setText("Runtime: " + (endTime - startTime) + " ms");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
+				});
 			}
-		});
+		};
+		destination_flight_box.addActionListener(refresh);
+		num_box.addActionListener(refresh);
 
-		num_box.addActionListener(new ActionListener(){
-			
+		loadOrigins(origin_flight_box);
+		tasks.submit("Counting destinations", new GuiTaskRunner.Task<Integer>() {
 			@Override
-			public void actionPerformed(ActionEvent arg0) {
-				try {
-					while (model.getRowCount() > 0) {
-						model.removeRow(0);
-					}
+			public Integer call() throws Exception {
+				return my_esql.countDestinations();
+			}
 
-					// Start Timer
-					long startTime = System.currentTimeMillis();
-
-					String query = "SELECT A.name, F.flightNum, F.plane, F.duration ";
-					query += "FROM Flight F, Airline A ";
-					query += "WHERE ";
-					query += "F.airId = A.airId and ";
-					query += "F.origin = \'"+ origin_flight_box.getSelectedItem().toString() + "\' and ";
-					query += "F.destination = \'"+ destination_flight_box.getSelectedItem().toString() + "\' ";
-					query += "ORDER BY F.duration ";
-					query += "DESC LIMIT " + num_box.getSelectedItem().toString() + ";";
-					List<List<String>> result = my_esql.executeQueryAndReturnResult(query);
-					for (List<String> row : result) {
-						model.addRow(row.toArray());
-					}
-					// End Timer		
-					long endTime = System.currentTimeMillis();
-					
-					status_label.setText("Runtime: " + (endTime - startTime) + " ms");
-				} catch (Exception e) {
-					//TODO: handle exception
-					System.err.println (e.getMessage());
-				}
+			@Override
+			public void succeeded(Integer destinations) {
+				fillNumberBox(num_box, destinations);
 			}
 		});
 	}
+
+	// fills the table with flights read from the in-memory route graph
+	private void fillDurationTable(DefaultTableModel model, List<RouteGraph.Flight> flights) {
+		for (RouteGraph.Flight flight : flights) {
+			model.addRow(new Object[] { flight.getAirline(), flight.getFlightNum(), flight.getPlane(), flight.getDuration() });
+		}
+	}
 	
 	// 9. Find Number of Available Seats on a given Flight
 	private void Choice_Nine () {
@@ -2005,20 +1668,9 @@ public class AirBooking_GUI{
 		rowPanel_one.add(new JLabel("Please select the Date of Departure: "));
 
 		JPanel rowPanel_two = new JPanel(new GridLayout(2, 1));
+		// the flight numbers are added in the background
 		JComboBox<String> flight_number_box = new JComboBox<String>();
 		flight_number_box.addItem("----");
-		try {
-			String query = "SELECT flightNum FROM flight ORDER BY flightNum;";
-			List<List<String>> result = executeQueryAndReturnResult(query);
-			for (List<String> row : result) {
-				for (String content : row) {
-					flight_number_box.addItem(content);
-				}
-			}
-		} catch (Exception e) {
-			//TODO: handle exception
-			System.err.println (e.getMessage());
-		}
 		flight_number_box.setSelectedIndex(0);
 		rowPanel_two.add(flight_number_box);
 
@@ -2137,34 +1789,36 @@ public class AirBooking_GUI{
 						AvailableSeats.setText("----");
 					}
 					else {
-						try {
-							String query = "SELECT DISTINCT B.departure FROM Flight F, Booking B WHERE F.flightNum = B.flightNum ";
-							query += "and F.flightNum = \'" + flight_number_box.getSelectedItem().toString() + "\';";
-							List<List<String>> result = executeQueryAndReturnResult(query);
-							status_label.setText("" + result.size());
-							if (result.size() > 0) {
-								for (List<String> row : result) {
-									for (String content : row) {
-										departure_box.addItem(content);
-									}
-								}
+						final String flightNum = flight_number_box.getSelectedItem().toString();
+						tasks.submit("Loading departures", new GuiTaskRunner.Task<List<String>>() {
+							private BookingService.SeatAvailability seats;
+
+							@Override
+							public List<String> call() throws Exception {
+								List<String> departures = my_esql.findBookedDepartures(flightNum);
+								seats = my_esql.seatsAvailable(flightNum, null);
+								return departures;
 							}
-							query = "SELECT origin, destination, seats FROM Flight WHERE ";
-							query += "flightNum = \'" + flight_number_box.getSelectedItem().toString() + "\';";
-							result = executeQueryAndReturnResult(query);
-							if (result.size() > 0) {
-								flight_number.setText(flight_number_box.getSelectedItem().toString());
-								Origin.setText(result.get(0).get(0));
-								Destination.setText(result.get(0).get(1));
-								Departure.setText("----");
-								BookedSeats.setText("----");
-								TotalSeats.setText(result.get(0).get(2));
-								AvailableSeats.setText(result.get(0).get(2));
+
+							@Override
+							public void succeeded(List<String> departures) {
+								lock = 1;
+								for (String departure : departures) {
+									departure_box.addItem(departure);
+								}
+								lock = 0;
+								status_label.setText("" + departures.size());
+								if (seats != null) {
+									flight_number.setText(flightNum);
+									Origin.setText(seats.getOrigin());
+									Destination.setText(seats.getDestination());
+									Departure.setText("----");
+									BookedSeats.setText("----");
+									TotalSeats.setText("" + seats.getSeats());
+									AvailableSeats.setText("" + seats.getSeats());
+								}
 							}
-						} catch (Exception e) {
-							//TODO: handle exception
-							System.err.println (e.getMessage());
-						}
+						});
 					}
 					departure_box.setSelectedIndex(0);
 					lock = 0;
@@ -2188,63 +1842,69 @@ public class AirBooking_GUI{
 						AvailableSeats.setText("----");
 					}
 					else {
+						final String flightNum = flight_number_box.getSelectedItem().toString();
 						if (departure_box.getSelectedItem().toString()  == "----------") {
-							try {
-								String query = "SELECT origin, destination, seats FROM Flight WHERE ";
-								query += "flightNum = \'" + flight_number_box.getSelectedItem().toString() + "\';";
-								List<List<String>> result = executeQueryAndReturnResult(query);
-								if (result.size() > 0) {
-									flight_number.setText(flight_number_box.getSelectedItem().toString());
-									Origin.setText(result.get(0).get(0));
-									Destination.setText(result.get(0).get(1));
-									Departure.setText("----");
-									BookedSeats.setText("----");
-									TotalSeats.setText(result.get(0).get(2));
-									AvailableSeats.setText(result.get(0).get(2));
+							tasks.submit("Loading seats", new GuiTaskRunner.Task<BookingService.SeatAvailability>() {
+								@Override
+								public BookingService.SeatAvailability call() throws Exception {
+									return my_esql.seatsAvailable(flightNum, null);
 								}
-							} catch (Exception e) {
-								//TODO: handle exception
-								System.err.println (e.getMessage());
-							}
+
+								@Override
+								public void succeeded(BookingService.SeatAvailability seats) {
+									if (seats != null) {
+										flight_number.setText(flightNum);
+										Origin.setText(seats.getOrigin());
+										Destination.setText(seats.getDestination());
+										Departure.setText("----");
+										BookedSeats.setText("----");
+										TotalSeats.setText("" + seats.getSeats());
+										AvailableSeats.setText("" + seats.getSeats());
+									}
+								}
+							});
 						}
 						else {
-							try {
-								// Start Timer
-								long startTime = System.currentTimeMillis();
-
-								String query = "SELECT F.flightNum, F.origin, F.destination, B.departure, B.c, F.seats, (F.seats - B.c) ";
-								query += "FROM Flight F, ( ";
-								query += "SELECT flightNum, departure, count(flightNum) AS c ";
-								query += "FROM Booking ";
-								query += "WHERE flightNum = \'" + flight_number_box.getSelectedItem().toString();
-								query += "\' AND departure = \'" + departure_box.getSelectedItem().toString()+ "\' ";
-								query += "GROUP BY flightNum, departure ";
-								query += ") AS B ";
-								query += "WHERE F.flightNum = B.flightNum;";
-								List<List<String>> result = executeQueryAndReturnResult(query);
-								if (result.size() > 0) {
-									flight_number.setText(result.get(0).get(0));
-									Origin.setText(result.get(0).get(1));
-									Destination.setText(result.get(0).get(2));
-									Departure.setText(result.get(0).get(3));
-									BookedSeats.setText(result.get(0).get(4));
-									TotalSeats.setText(result.get(0).get(5));
-									AvailableSeats.setText(result.get(0).get(6));
+							final String departure = departure_box.getSelectedItem().toString();
+							tasks.submit("Loading seats", new GuiTaskRunner.Task<BookingService.SeatAvailability>() {
+								@Override
+								public BookingService.SeatAvailability call() throws Exception {
+									return my_esql.seatsAvailable(flightNum, departure);
 								}
-								// End Timer		
-								long endTime = System.currentTimeMillis();
-								
-								status_label.setText("Runtime: " + (endTime - startTime) + " ms");
-							} catch (Exception e) {
-								//TODO: handle exception
-								System.err.println (e.getMessage());
-							}
+
+								@Override
+								public void succeeded(BookingService.SeatAvailability seats) {
+									if (seats != null) {
+										flight_number.setText(seats.getFlightNum());
+										Origin.setText(seats.getOrigin());
+										Destination.setText(seats.getDestination());
+										Departure.setText(seats.getDeparture());
+										BookedSeats.setText("" + seats.getBooked());
+										TotalSeats.setText("" + seats.getSeats());
+										AvailableSeats.setText("" + seats.getAvailable());
+									}
+								}
+							});
 						}
 					}
 					lock = 0;
 				}
 			}
 		});
+
+		tasks.submit("Loading flights", new GuiTaskRunner.Task<List<String>>() {
+			@Override
+			public List<String> call() throws Exception {
+				return my_esql.findFlightNums();
+			}
+
+			@Override
+			public void succeeded(List<String> flights) {
+				for (String flight : flights) {
+					flight_number_box.addItem(flight);
+				}
+			}
+		});
 	}
 	
 	private void Choice_Ten () {
@@ -2305,4 +1965,46 @@ public class AirBooking_GUI{
 		
 		Main_Frame_Update(mainPanel, tablePanel);
 	}
+
+	private void Metrics_Section() {
+		tablePanel = new JPanel(new BorderLayout());
+
+		final JTextArea jta = new JTextArea();
+		jta.setEditable(false);
+		jta.setFont(new Font("Monospaced", 0, 12));
+
+		// the metrics are kept in memory, reading them takes no query
+		final Runnable refresh = new Runnable() {
+			public void run() {
+				String msg = my_esql.getMetrics().getSummary() + "\n";
+				msg += my_esql.getPoolMetrics() + "\n";
+				msg += my_esql.getStatementCacheMetrics() + "\n";
+				msg += my_esql.getPassengerCache().getMetrics() + "\n";
+				msg += my_esql.getPassNumFilter().getMetrics() + "\n";
+				msg += my_esql.getBookRefFilter().getMetrics() + "\n";
+				jta.setText(msg);
+				jta.setCaretPosition(0);
+			}
+		};
+		refresh.run();
+
+		JButton refresh_button = new JButton("Refresh");
+		refresh_button.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				refresh.run();
+			}
+		});
+
+		JScrollPane jsp = new JScrollPane(jta);
+		jsp.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+		jsp.setPreferredSize(new Dimension(760, 400));
+
+		tablePanel.add(refresh_button, BorderLayout.NORTH);
+		tablePanel.add(jsp, BorderLayout.CENTER);
+		tablePanel.add(back_to_menu, BorderLayout.SOUTH);
+
+		status_label.setText("Metrics");
+
+		Main_Frame_Update(mainPanel, tablePanel);
+	}
 }
\ No newline at end of file
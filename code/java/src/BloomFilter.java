@@ -0,0 +1,117 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of strings: a fixed array of bits, k of which are set
+ * for every key added. A key with any of its bits clear was never added;
+ * a key with all of them set was probably added, and is wrongly reported
+ * as present with the false-positive probability the filter was sized
+ * for.
+ *
+ * The filter is sized from the number of keys expected and the wanted
+ * false-positive probability: m = -n ln(p) / ln(2)^2 bits and
+ * k = m / n ln(2) hashes. The k bit positions are derived from one 64 bit
+ * hash of the key by double hashing. Bits are set with atomic updates, so
+ * any number of threads can add and test at a time without a lock.
+ */
+
+public class BloomFilter {
+	private static final double LN2 = Math.log(2);
+
+	private final AtomicLongArray words;
+	private final long bits;
+	private final int hashes;
+	private final long expected;
+	private final double fpp;
+
+	/**
+	 * @param expected the number of keys the filter is sized for
+	 * @param fpp the false-positive probability once expected keys are added, between 0 and 1
+	 */
+	public BloomFilter(long expected, double fpp) {
+		if (expected <= 0 || fpp <= 0 || fpp >= 1) {
+			throw new IllegalArgumentException("expected must be positive and fpp between 0 and 1");
+		}
+		long wanted = (long) Math.ceil(-expected * Math.log(fpp) / (LN2 * LN2));
+		// one word at least, and no more words than an array can hold
+		long count = Math.min(Math.max((wanted + 63) / 64, 1), Integer.MAX_VALUE - 8);
+		this.words = new AtomicLongArray((int) count);
+		this.bits = count * 64;
+		this.hashes = (int) Math.max(1, Math.min(30, Math.round((double) bits / expected * LN2)));
+		this.expected = expected;
+		this.fpp = fpp;
+	}
+
+	/**
+	 * @param key the key to add
+	 */
+	public void add(String key) {
+		long hash = hash(key);
+		long h1 = hash;
+		long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i = 0; i < hashes; ++i) {
+			long bit = Math.floorMod(h1 + i * h2, bits);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long current;
+			while (((current = words.get(word)) & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+			}
+		}
+	}
+
+	/**
+	 * @param key the key to test
+	 * @return false when the key was never added, true when it probably was
+	 */
+	public boolean mightContain(String key) {
+		long hash = hash(key);
+		long h1 = hash;
+		long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i = 0; i < hashes; ++i) {
+			long bit = Math.floorMod(h1 + i * h2, bits);
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long getBitCount() { return bits; }
+
+	public int getHashCount() { return hashes; }
+
+	public long getExpected() { return expected; }
+
+	public double getTargetFpp() { return fpp; }
+
+	public long getMemoryBytes() { return bits / 8; }
+
+	/**
+	 * Estimates the current false-positive probability from the share of
+	 * bits set, which grows as keys are added beyond the expected number.
+	 *
+	 * @return the probability that a key never added is reported as present
+	 */
+	public double getEstimatedFpp() {
+		long set = 0;
+		for (int i = 0; i < words.length(); ++i) {
+			set += Long.bitCount(words.get(i));
+		}
+		return Math.pow((double) set / bits, hashes);
+	}
+
+	// FNV-1a over the UTF-16 chars, finished by a mix so every bit depends on every char
+	private static long hash(String key) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < key.length(); ++i) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001B3L;
+		}
+		return mix(hash);
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return z ^ (z >>> 33);
+	}
+}
@@ -0,0 +1,139 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Generates booking references of ten capital letters that are unique by
+ * construction. A counter is passed through a keyed Feistel permutation
+ * of the 26^10 reference space, so consecutive bookings get unrelated
+ * looking references and no lookup is needed to rule out a collision.
+ *
+ * The counter is reserved from the database in blocks of BLOCK_SIZE
+ * through the bookref_block_seq sequence, so several clients never use
+ * the same counter value. All clients must use the same key
+ * (airbooking.bookRef.key), otherwise two counters may map to the same
+ * reference.
+ */
+
+public class BookRefGenerator {
+	public static final int LENGTH = 10;
+	// 26^10 references
+	public static final long SPACE = 141167095653376L;
+	// counter values reserved per sequence call, must not change once in use
+	public static final int BLOCK_SIZE = 1024;
+
+	private static final int ROUNDS = 6;
+	// the permutation works on 48 bits, the smallest even width above 26^10
+	private static final int HALF_BITS = 24;
+	private static final long HALF_MASK = (1L << HALF_BITS) - 1;
+	private static final long DEFAULT_KEY = 0x5DEECE66DL;
+
+	private final ConnectionPool _pool;
+	private final long[] roundKeys = new long[ROUNDS];
+	// next counter value and end of the reserved block
+	private long next = 0;
+	private long limit = 0;
+
+	/**
+	 * @param pool the pool used to reserve counter blocks
+	 * @param key the permutation key shared by all clients
+	 */
+	public BookRefGenerator(ConnectionPool pool, long key) {
+		this._pool = pool;
+		long state = key;
+		for (int i = 0; i < ROUNDS; ++i) {
+			state += 0x9E3779B97F4A7C15L;
+			roundKeys[i] = mix(state);
+		}
+	}
+
+	/**
+	 * Creates a generator keyed by the airbooking.bookRef.key system property.
+	 *
+	 * @param pool the pool used to reserve counter blocks
+	 * @return the generator
+	 */
+	public static BookRefGenerator fromSystemProperties(ConnectionPool pool) {
+		return new BookRefGenerator(pool, Long.getLong("airbooking.bookRef.key", DEFAULT_KEY));
+	}
+
+	/**
+	 * @return a booking reference no other call of any client returns
+	 * @throws java.sql.SQLException when a new counter block cannot be reserved
+	 */
+	public synchronized String next() throws SQLException {
+		if (next == limit) {
+			reserveBlock();
+		}
+		return encode(permute(next++));
+	}
+
+	/**
+	 * Maps a counter value to a reference position. A bijection on
+	 * [0, SPACE): values that land outside the space are permuted again
+	 * until they fall inside it.
+	 *
+	 * @param counter a value in [0, SPACE)
+	 * @return the permuted value in [0, SPACE)
+	 */
+	public long permute(long counter) {
+		if (counter < 0 || counter >= SPACE) {
+			throw new IllegalArgumentException("Counter out of range: " + counter);
+		}
+		long x = counter;
+		do {
+			x = feistel(x);
+		} while (x >= SPACE);
+		return x;
+	}
+
+	/**
+	 * @param value a value in [0, SPACE)
+	 * @return the value written as ten base-26 letters, most significant first
+	 */
+	public static String encode(long value) {
+		char[] letters = new char[LENGTH];
+		for (int i = LENGTH - 1; i >= 0; --i) {
+			letters[i] = (char) ('A' + (int) (value % 26));
+			value /= 26;
+		}
+		return new String(letters);
+	}
+
+	private long feistel(long x) {
+		long left = x >>> HALF_BITS;
+		long right = x & HALF_MASK;
+		for (int i = 0; i < ROUNDS; ++i) {
+			long t = left ^ (mix(right ^ roundKeys[i]) & HALF_MASK);
+			left = right;
+			right = t;
+		}
+		return (left << HALF_BITS) | right;
+	}
+
+	// splitmix64 finalizer
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	// caller must hold the lock
+	private void reserveBlock() throws SQLException {
+		PooledConnection conn = this._pool.borrow();
+		try {
+			PreparedStatement stmt = conn.prepare("SELECT nextval('bookref_block_seq');");
+			ResultSet rs = stmt.executeQuery();
+			rs.next();
+			long block = rs.getLong(1);
+			rs.close();
+			if ((block + 1) * BLOCK_SIZE > SPACE) {
+				throw new SQLException("Booking reference space exhausted");
+			}
+			next = block * BLOCK_SIZE;
+			limit = next + BLOCK_SIZE;
+		} finally {
+			this._pool.release(conn);
+		}
+	}
+}
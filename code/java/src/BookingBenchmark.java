@@ -0,0 +1,446 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the nine menu operations of BookingService against a running
+ * database loaded with the data set under code/data (scripts/createtb.sh).
+ *
+ * Each operation runs warmup iterations, whose results are discarded,
+ * then measured iterations of a fixed duration on airbooking.bench.threads
+ * threads. Every call is timed, and the throughput and latency percentiles
+ * of the measured iterations are printed, one row per operation. Inputs
+ * are drawn from a Random seeded with airbooking.bench.seed, so two runs
+ * on the same data issue the same calls.
+ *
+ * The writing operations only create passengers with passport numbers
+ * of ZZ and eight digits, book them on departures from 2090 on and rate
+ * those bookings; the airline operation rewrites an airline with its
+ * current values. The passengers created are deleted by pID at the end,
+ * with their bookings and ratings, leaving the data set as it was. Real
+ * passport numbers are letters only, so no real passenger is touched.
+ */
+
+public class BookingBenchmark {
+	// passport numbers of benchmark passengers are this and eight digits
+	private static final String PREFIX = "ZZ";
+	// benchmark bookings depart from this date on
+	private static final LocalDate FIRST_DEPARTURE = LocalDate.of(2090, 1, 1);
+
+	private final BookingService esql;
+	private final int warmups;
+	private final int iterations;
+	private final long iterationMillis;
+	private final int threads;
+	private final long seed;
+
+	// the data set, read once before the first operation
+	private final List<String[]> routes = new ArrayList<String[]>();
+	private final List<String[]> departures = new ArrayList<String[]>();
+	private final List<String> flightNums = new ArrayList<String>();
+	private final List<String> airlines = new ArrayList<String>();
+	// benchmark passengers and departures, shared by all threads
+	private long passengers = 0;
+	private int days = 0;
+	// the pIDs of the passengers created, the only ones deleted at the end
+	private final List<Integer> created = new ArrayList<Integer>();
+
+	/**
+	 * @param esql the operations to measure
+	 * @param warmups the number of warmup iterations per operation
+	 * @param iterations the number of measured iterations per operation
+	 * @param iterationMillis the duration of one iteration
+	 * @param threads the number of threads calling the operation at a time
+	 * @param seed the seed of the random inputs
+	 */
+	public BookingBenchmark(BookingService esql, int warmups, int iterations, long iterationMillis, int threads, long seed) {
+		this.esql = esql;
+		this.warmups = warmups;
+		this.iterations = iterations;
+		this.iterationMillis = iterationMillis;
+		this.threads = threads;
+		this.seed = seed;
+	}
+
+	/**
+	 * Creates a benchmark configured by the airbooking.bench.* properties:
+	 * warmup (3 iterations), iterations (5), iterationMs (2000),
+	 * threads (1) and seed (42).
+	 *
+	 * @param esql the operations to measure
+	 * @return the benchmark
+	 */
+	public static BookingBenchmark fromSystemProperties(BookingService esql) {
+		return new BookingBenchmark(esql,
+			Integer.getInteger("airbooking.bench.warmup", 3),
+			Integer.getInteger("airbooking.bench.iterations", 5),
+			Long.getLong("airbooking.bench.iterationMs", 2000L),
+			Integer.getInteger("airbooking.bench.threads", 1),
+			Long.getLong("airbooking.bench.seed", 42L));
+	}
+
+	/**
+	 * Measures the operations whose names match a pattern and prints one
+	 * row per operation, then deletes the rows the operations created.
+	 *
+	 * @param include the operations to run, matched against their names
+	 * @return the results, in menu order
+	 * @throws Exception when the data set cannot be read or an operation fails
+	 */
+	public List<Result> run(Pattern include) throws Exception {
+		List<Result> results = new ArrayList<Result>();
+		loadDataSet();
+		// continues after the passport numbers a crashed run may have left behind
+		passengers = lastPassNum(esql, PREFIX);
+		System.out.printf("%-22s %10s %10s %10s %10s %10s %10s %8s\n",
+			"Operation", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "errors");
+		try {
+			for (Operation op : operations()) {
+				if (!include.matcher(op.name).find()) {
+					continue;
+				}
+				Result result = measure(op);
+				System.out.println(result);
+				results.add(result);
+			}
+		} finally {
+			deleteRows(esql, created(), FIRST_DEPARTURE);
+		}
+		return results;
+	}
+
+	private void loadDataSet() throws SQLException {
+		RouteGraph graph = esql.getRouteGraph();
+		for (String origin : graph.getOrigins()) {
+			for (String destination : graph.getDestinations(origin)) {
+				routes.add(new String[] { origin, destination });
+			}
+		}
+		for (String flightNum : esql.findBookedFlightNums()) {
+			for (String departure : esql.findBookedDepartures(flightNum)) {
+				departures.add(new String[] { flightNum, departure });
+			}
+		}
+		flightNums.addAll(esql.findFlightNums());
+		airlines.addAll(esql.queryColumn("SELECT name FROM Airline ORDER BY airId;"));
+		if (routes.isEmpty() || departures.isEmpty() || airlines.isEmpty()) {
+			throw new IllegalStateException("The database holds no data set, load it with scripts/createtb.sh");
+		}
+	}
+
+	// runs the warmup and measured iterations of one operation
+	private Result measure(final Operation op) throws Exception {
+		Result result = new Result(op.name);
+		for (int i = 0; i < warmups + iterations; ++i) {
+			final long[][] latencies = new long[threads][];
+			final int[] errors = new int[threads];
+			final Exception[] failure = new Exception[1];
+			final long end = System.nanoTime() + iterationMillis * 1000000L;
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; ++t) {
+				final int id = t;
+				final Random random = new Random(seed * 31 + i * 1009 + t);
+				workers[t] = new Thread(op.name + "-" + t) {
+					public void run() {
+						long[] samples = new long[1024];
+						int count = 0;
+						try {
+							while (System.nanoTime() < end) {
+								Object state = op.prepare(random);
+								long start = System.nanoTime();
+								try {
+									op.call(random, state);
+								} catch (SQLException e) {
+									errors[id]++;
+								}
+								if (count == samples.length) {
+									samples = Arrays.copyOf(samples, count * 2);
+								}
+								samples[count++] = System.nanoTime() - start;
+							}
+						} catch (Exception e) {
+							failure[0] = e;
+						}
+						latencies[id] = Arrays.copyOf(samples, count);
+					}
+				};
+				workers[t].start();
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			if (i >= warmups) {
+				// the untimed prepare() calls do not count against throughput
+				long busy = 0;
+				for (int t = 0; t < threads; ++t) {
+					result.add(latencies[t], errors[t]);
+					for (long latency : latencies[t]) {
+						busy += latency;
+					}
+				}
+				result.elapsedNanos += busy / threads;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * One operation of the menu. prepare() creates the rows a call needs
+	 * and is not timed; call() is timed.
+	 */
+	private abstract static class Operation {
+		final String name;
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+		Object prepare(Random random) throws SQLException {
+			return null;
+		}
+
+		abstract void call(Random random, Object state) throws SQLException;
+	}
+
+	private List<Operation> operations() {
+		List<Operation> ops = new ArrayList<Operation>();
+		ops.add(new Operation("1 addPassenger") {
+			void call(Random random, Object state) throws SQLException {
+				String passNum = nextPassNum();
+				if (!esql.passNumInUse(passNum)) {
+					created(esql.addPassenger(passNum, "Bench Passenger", "1990-01-01", "Benchland"));
+				}
+			}
+		});
+		ops.add(new Operation("2 bookFlight") {
+			Object prepare(Random random) throws SQLException {
+				String passNum = nextPassNum();
+				created(esql.addPassenger(passNum, "Bench Passenger", "1990-01-01", "Benchland"));
+				return passNum;
+			}
+
+			void call(Random random, Object state) throws SQLException {
+				BookingService.Passenger passenger = esql.findPassengerByPassNum((String) state);
+				String flightNum = flightNums.get(random.nextInt(flightNums.size()));
+				esql.bookFlight(nextDeparture(), flightNum, passenger.getPID());
+			}
+		});
+		ops.add(new Operation("3 takeReview") {
+			Object prepare(Random random) throws SQLException {
+				int pID = created(esql.addPassenger(nextPassNum(), "Bench Passenger", "1990-01-01", "Benchland"));
+				String flightNum = flightNums.get(random.nextInt(flightNums.size()));
+				esql.bookFlight(nextDeparture(), flightNum, pID);
+				return new Object[] { pID, flightNum };
+			}
+
+			void call(Random random, Object state) throws SQLException {
+				int pID = (Integer) ((Object[]) state)[0];
+				String flightNum = (String) ((Object[]) state)[1];
+				if (esql.canReview(pID, flightNum)) {
+					esql.addReview(pID, flightNum, random.nextInt(6), "Benchmark");
+				}
+			}
+		});
+		ops.add(new Operation("4 updateAirline") {
+			void call(Random random, Object state) throws SQLException {
+				BookingService.Airline airline = esql.findAirlineByName(airlines.get(random.nextInt(airlines.size())));
+				esql.updateAirline(airline.getAirId(), airline.getFounded(), airline.getCountry(), airline.getHub());
+			}
+		});
+		ops.add(new Operation("5 listFlights") {
+			void call(Random random, Object state) throws SQLException {
+				String[] route = routes.get(random.nextInt(routes.size()));
+				esql.findFlights(route[0], route[1]);
+				esql.findItineraries(route[0], route[1]);
+			}
+		});
+		ops.add(new Operation("6 topDestinations") {
+			void call(Random random, Object state) throws SQLException {
+				esql.topDestinations(10);
+			}
+		});
+		ops.add(new Operation("7 topRatedRoutes") {
+			void call(Random random, Object state) throws SQLException {
+				esql.topRatedRoutes(10);
+			}
+		});
+		ops.add(new Operation("8 flightsByDuration") {
+			void call(Random random, Object state) throws SQLException {
+				String[] route = routes.get(random.nextInt(routes.size()));
+				esql.findLongestFlights(route[0], route[1], 10);
+			}
+		});
+		ops.add(new Operation("9 seatsAvailable") {
+			void call(Random random, Object state) throws SQLException {
+				String[] departure = departures.get(random.nextInt(departures.size()));
+				esql.seatsAvailable(departure[0], departure[1]);
+			}
+		});
+		return ops;
+	}
+
+	private synchronized String nextPassNum() {
+		return String.format("%s%08d", PREFIX, ++passengers);
+	}
+
+	private synchronized int created(int pID) {
+		created.add(pID);
+		return pID;
+	}
+
+	private synchronized List<Integer> created() {
+		return new ArrayList<Integer>(created);
+	}
+
+	// a departure no benchmark booking used yet, so bookings never collide
+	private synchronized String nextDeparture() {
+		return FIRST_DEPARTURE.plusDays(days++).toString();
+	}
+
+	/**
+	 * Finds where the synthetic passport numbers of an earlier run ended,
+	 * so a run never reuses one that a crashed run left behind.
+	 *
+	 * @param esql the database to read
+	 * @param prefix the letters the synthetic passport numbers start with, before eight digits
+	 * @return the highest number in use after prefix, 0 when there is none
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	static long lastPassNum(BookingService esql, String prefix) throws SQLException {
+		// real passport numbers are letters only, so none matches
+		List<String> last = esql.queryColumn("SELECT max(passNum) FROM Passenger WHERE passNum ~ ?;", "^" + prefix + "[0-9]{8}$");
+		if (last.isEmpty() || last.get(0) == null) {
+			return 0;
+		}
+		return Long.parseLong(last.get(0).trim().substring(prefix.length()));
+	}
+
+	/**
+	 * Deletes the given passengers with their bookings and ratings, and
+	 * rebuilds the aggregates they touched.
+	 *
+	 * @param esql the database to clean up
+	 * @param pIDs the pIDs of the synthetic passengers, and of no one else
+	 * @param firstDeparture the first departure they were booked on
+	 * @throws java.sql.SQLException when a delete fails
+	 */
+	static void deleteRows(BookingService esql, Collection<Integer> pIDs, LocalDate firstDeparture) throws SQLException {
+		List<Integer> ids = new ArrayList<Integer>(pIDs);
+		// a bounded number of placeholders per statement
+		for (int from = 0; from < ids.size(); from += 1000) {
+			Object[] chunk = ids.subList(from, Math.min(from + 1000, ids.size())).toArray();
+			StringBuilder owned = new StringBuilder("(");
+			for (int i = 0; i < chunk.length; ++i) {
+				owned.append(i == 0 ? "?" : ", ?");
+			}
+			owned.append(")");
+			esql.executeUpdate("DELETE FROM Ratings WHERE pID IN " + owned + ";", chunk);
+			esql.executeUpdate("DELETE FROM Booking WHERE pID IN " + owned + ";", chunk);
+			esql.executeUpdate("DELETE FROM Passenger WHERE pID IN " + owned + ";", chunk);
+		}
+		esql.getPassengerCache().clear();
+		// the trigger leaves emptied counters behind
+		esql.executeUpdate("DELETE FROM Seat_Inventory WHERE departure >= CAST(? AS DATE) and booked = 0;", firstDeparture.toString());
+		esql.getRatingLeaderboard().rebuild();
+	}
+
+	/**
+	 * The throughput and latencies of the measured iterations of one
+	 * operation.
+	 */
+	public static class Result {
+		private final String name;
+		private long[] latencies = new long[0];
+		private int errors = 0;
+		private long elapsedNanos = 0;
+		private boolean sorted = true;
+
+		Result(String name) {
+			this.name = name;
+		}
+
+		void add(long[] samples, int errors) {
+			int count = latencies.length;
+			latencies = Arrays.copyOf(latencies, count + samples.length);
+			System.arraycopy(samples, 0, latencies, count, samples.length);
+			this.errors += errors;
+			sorted = false;
+		}
+
+		public String getName() { return name; }
+
+		public int getCount() { return latencies.length; }
+
+		public int getErrors() { return errors; }
+
+		/**
+		 * @return the calls completed per second of timed calls, over all threads
+		 */
+		public double getThroughput() {
+			return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * @param percentile the percentile, between 0 and 100
+		 * @return the latency of that percentile in nanoseconds
+		 */
+		public long getLatency(double percentile) {
+			if (latencies.length == 0) {
+				return 0;
+			}
+			if (!sorted) {
+				Arrays.sort(latencies);
+				sorted = true;
+			}
+			int rank = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(rank, latencies.length - 1))];
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-22s %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %8d", name, getThroughput(),
+				getLatency(50) / 1e3, getLatency(90) / 1e3, getLatency(99) / 1e3, getLatency(99.9) / 1e3,
+				getLatency(100) / 1e3, errors);
+		}
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the database name, port and user, and optionally a pattern selecting the operations
+	 */
+	public static void main(String[] args) {
+		if (args.length != 3 && args.length != 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BookingBenchmark.class.getName () +
+		            " <dbname> <port> <user> [<operation pattern>]");
+			return;
+		}
+		try {
+			Class.forName("org.postgresql.Driver");
+		}catch(Exception e){
+			System.out.println("Where is your PostgreSQL JDBC Driver? " + "Include in your library path!");
+			e.printStackTrace();
+			return;
+		}
+		BookingService esql = BookingService.connect(args[0], args[1], args[2], "");
+		try {
+			Pattern include = Pattern.compile(args.length == 4 ? args[3] : "");
+			fromSystemProperties(esql).run(include);
+			System.out.println(esql.getPoolMetrics());
+			System.out.println(esql.getStatementCacheMetrics());
+		} catch (Exception e) {
+			System.err.println (e.getMessage ());
+		} finally {
+			esql.close();
+		}
+	}
+}
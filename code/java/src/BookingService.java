@@ -0,0 +1,1321 @@
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The data access layer and the booking operations shared by the CLI,
+ * the GUI and the HTTP server. It owns the connection pool and the
+ * in-memory indexes, and exposes one typed method per operation, so the
+ * front ends hold no SQL and every cache or metric added here covers
+ * all of them.
+ *
+ * The generic execute methods remain available for ad-hoc queries. All
+ * methods can be called from any thread.
+ */
+
+public class BookingService {
+	//pool of physical database connections
+	private ConnectionPool _pool = null;
+	// lowest-free pID allocator, loaded on first use
+	private IdAllocator _passengerIds = null;
+	// unique booking references, counter blocks reserved from the database
+	private BookRefGenerator _bookRefs = null;
+	// booked seats per flight and departure
+	private SeatInventory _seatInventory = null;
+	// flights per destination, most served first
+	private DestinationRanking _destinations = null;
+	// average score per route, highest first
+	private RatingLeaderboard _ratings = null;
+	// origins, destinations and flights of every route
+	private RouteGraph _routes = null;
+	// itineraries with connections, over the route graph
+	private ConnectionSearch _connections = null;
+	// passengers by passport number, invalidated on insert
+	private PassengerCache _passengers = null;
+	// passport numbers and booking references in use, answering absent ones without a query
+	private KeyFilter _passNumFilter = null;
+	private KeyFilter _bookRefFilter = null;
+	// per-operation latencies and SQL counters
+	private Metrics _metrics = new Metrics();
+	//rows fetched per round trip by streamed queries
+	private int _fetchSize = Integer.getInteger("airbooking.fetchSize", 500);
+
+	/**
+	 * Opens the connection pool and sets up the in-memory indexes, which
+	 * are loaded on first use or by prepare().
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public BookingService(String url, String user, String passwd) throws SQLException {
+		// opens the connection pool, sized by the airbooking.pool.* properties
+		this._pool = ConnectionPool.fromSystemProperties(url, user, passwd);
+		this._passengerIds = new IdAllocator(this._pool, "Passenger", "pID");
+		this._bookRefs = BookRefGenerator.fromSystemProperties(this._pool);
+		this._seatInventory = new SeatInventory(this._pool);
+		this._destinations = new DestinationRanking(this._pool);
+		this._ratings = new RatingLeaderboard(this._pool);
+		this._routes = new RouteGraph(this._pool);
+		this._connections = ConnectionSearch.fromSystemProperties(this._routes);
+		this._passengers = PassengerCache.fromSystemProperties(new PassengerCache.Loader() {
+			public Passenger load(String passNum) throws SQLException {
+				return loadPassenger(passNum);
+			}
+		});
+		this._destinations.startResync(Long.getLong("airbooking.destinations.resyncMs", 300000L));
+		this._ratings.startResync(Long.getLong("airbooking.ratings.resyncMs", 300000L));
+		this._passNumFilter = KeyFilter.fromSystemProperties(this._pool, "Passenger", "passNum");
+		this._bookRefFilter = KeyFilter.fromSystemProperties(this._pool, "Booking", "bookRef");
+		this._routes.startResync(Long.getLong("airbooking.routes.resyncMs", 300000L));
+		this._passNumFilter.startResync(Long.getLong("airbooking.filters.resyncMs", 300000L));
+		this._bookRefFilter.startResync(Long.getLong("airbooking.filters.resyncMs", 300000L));
+		registerGauges();
+		String metricsFile = System.getProperty("airbooking.metrics.file");
+		if (metricsFile != null) {
+			this._metrics.startDump(new File(metricsFile), Long.getLong("airbooking.metrics.dumpMs", 15000L));
+		}
+	}
+
+	/**
+	 * Reports the connection pool and statement cache counters with the
+	 * operation metrics.
+	 */
+	private void registerGauges() {
+		final ConnectionPool pool = this._pool;
+		this._metrics.gauge("airbooking_pool_connections_open", new Metrics.Gauge() {
+			public double value() { return pool.getOpenCount(); }
+		});
+		this._metrics.gauge("airbooking_pool_connections_idle", new Metrics.Gauge() {
+			public double value() { return pool.getIdleCount(); }
+		});
+		this._metrics.gauge("airbooking_pool_borrows", new Metrics.Gauge() {
+			public double value() { return pool.getBorrowCount(); }
+		});
+		this._metrics.gauge("airbooking_statement_cache_hits", new Metrics.Gauge() {
+			public double value() { return PreparedStatementCache.getHits(); }
+		});
+		this._metrics.gauge("airbooking_statement_cache_misses", new Metrics.Gauge() {
+			public double value() { return PreparedStatementCache.getMisses(); }
+		});
+		final PassengerCache passengers = this._passengers;
+		this._metrics.gauge("airbooking_passenger_cache_hits", new Metrics.Gauge() {
+			public double value() { return passengers.getHits(); }
+		});
+		this._metrics.gauge("airbooking_passenger_cache_misses", new Metrics.Gauge() {
+			public double value() { return passengers.getMisses(); }
+		});
+		registerFilterGauges("airbooking_passnum_filter", this._passNumFilter);
+		registerFilterGauges("airbooking_bookref_filter", this._bookRefFilter);
+	}
+
+	private void registerFilterGauges(String prefix, final KeyFilter filter) {
+		this._metrics.gauge(prefix + "_absent", new Metrics.Gauge() {
+			public double value() { return filter.getAbsent(); }
+		});
+		this._metrics.gauge(prefix + "_false_positives", new Metrics.Gauge() {
+			public double value() { return filter.getFalsePositives(); }
+		});
+		this._metrics.gauge(prefix + "_memory_bytes", new Metrics.Gauge() {
+			public double value() { return filter.isLoaded() ? filter.getFilter().getMemoryBytes() : 0; }
+		});
+		this._metrics.gauge(prefix + "_estimated_fpp", new Metrics.Gauge() {
+			public double value() { return filter.isLoaded() ? filter.getFilter().getEstimatedFpp() : 0; }
+		});
+	}
+
+	/**
+	 * @param dbname the database name
+	 * @param dbport the port PostgreSQL listens on
+	 * @return the JDBC connection URL of a local database
+	 */
+	public static String url(String dbname, String dbport) {
+		// prepareThreshold=1 makes the driver use a server-side plan from the first reuse
+		return "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?prepareThreshold=1";
+	}
+
+	/**
+	 * Migrates the schema and loads the rating aggregates, the route graph
+	 * and the key filters.
+	 *
+	 * @return the number of migrations applied
+	 * @throws java.sql.SQLException when a step fails
+	 */
+	public int prepare() throws SQLException {
+		// creates missing indexes once instead of around every operation
+		int applied = new SchemaMigrator(this._pool).migrate();
+		// rebuilds the rating aggregates from Ratings
+		this._ratings.rebuild();
+		// loads the route graph from Flight
+		this._routes.load();
+		// loads the passport numbers and booking references in use
+		this._passNumFilter.load();
+		this._bookRefFilter.load();
+		return applied;
+	}
+
+	/**
+	 * Connects to a local database for an interactive front end: reports
+	 * progress on the console, exits when the database cannot be reached
+	 * and runs prepare().
+	 *
+	 * @param dbname the database name
+	 * @param dbport the port PostgreSQL listens on
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @return the connected service
+	 */
+	public static BookingService connect(String dbname, String dbport, String user, String passwd) {
+		BookingService service = null;
+		System.out.print("Connecting to database...");
+		try{
+			// constructs the connection URL
+			String url = url(dbname, dbport);
+			System.out.println ("Connection URL: " + url + "\n");
+			service = new BookingService(url, user, passwd);
+			System.out.println("Done");
+		}catch(Exception e){
+			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
+			System.out.println("Make sure you started postgres on this machine");
+			System.exit(-1);
+		}
+		try{
+			if (service.prepare() > 0) {
+				System.out.println("Schema migrated to version " + SchemaMigrator.getLatestVersion());
+			}
+		}catch(Exception e){
+			System.err.println("Error - Unable to migrate the schema: " + e.getMessage());
+		}
+		return service;
+	}
+
+	/**
+	 * Method to execute an update SQL statement.  Update SQL instructions
+	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP. The statement is
+	 * prepared once per pooled connection and reused, so the SQL should
+	 * be a template with ? placeholders rather than concatenated values.
+	 * 
+	 * @param sql the input SQL template
+	 * @param params the values bound to the ? placeholders, in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		// borrows a connection from the pool
+		PooledConnection conn = this._pool.borrow ();
+		try {
+			// looks up the cached statement object
+			PreparedStatement stmt = conn.prepare (sql);
+			bind (stmt, params);
+
+			// issues the update instruction
+			int rows = stmt.executeUpdate ();
+			this._metrics.executed (1, 0);
+			return rows;
+		} catch (SQLException e) {
+			this._metrics.failed (e);
+			throw e;
+		} finally {
+			this._pool.release (conn);
+		}
+	}//end executeUpdate
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * hand each row to a callback as it arrives. Autocommit is switched off
+	 * for the duration of the query so the driver reads the result through
+	 * a cursor, fetchSize rows at a time, and memory stays constant no
+	 * matter how many rows the query returns.
+	 * 
+	 * @param query the input query template
+	 * @param callback receives each row; returning false stops the query
+	 * @param params the values bound to the ? placeholders, in order
+	 * @return the number of rows handed to the callback
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndStream (String query, RowCallback callback, Object... params) throws SQLException {
+		// borrows a connection from the pool
+		PooledConnection conn = this._pool.borrow ();
+		try {
+			// the driver only uses a cursor inside a transaction
+			conn.getConnection ().setAutoCommit (false);
+
+			//looks up the cached statement object
+			PreparedStatement stmt = conn.prepare (query);
+			bind (stmt, params);
+			stmt.setFetchSize (this._fetchSize);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+
+			//iterates through the result set one fetch at a time
+			int rowCount = 0;
+			while (rs.next()){
+				++rowCount;
+				if (!callback.row (rs)) {
+					break;
+				}
+			}//end while
+			rs.close ();
+			conn.getConnection ().commit ();
+			// the execute, one more fetch per full batch, and the commit
+			this._metrics.executed (2 + rowCount / this._fetchSize, rowCount);
+			return rowCount;
+		} catch (SQLException e) {
+			this._metrics.failed (e);
+			throw e;
+		} finally {
+			// the pool restores autocommit before the connection is reused
+			this._pool.release (conn);
+		}
+	}//end executeQueryAndStream
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and outputs the results to
+	 * standard out.
+	 * 
+	 * @param query the input query template
+	 * @param params the values bound to the ? placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		//iterates through the result set and output them to standard out.
+		return executeQueryAndStream (query, new RowCallback() {
+			private boolean outputHeader = true;
+
+			public boolean row (ResultSet rs) throws SQLException {
+				/*
+				 *  obtains the metadata object for the returned result set.  The metadata
+				 *  contains row and column info.
+				 */
+				ResultSetMetaData rsmd = rs.getMetaData ();
+				int numCol = rsmd.getColumnCount ();
+				if(outputHeader){
+					for(int i = 1; i <= numCol; i++){
+						System.out.print(rsmd.getColumnName(i) + "\t");
+				    }
+				    System.out.println();
+				    outputHeader = false;
+				}
+				for (int i=1; i<=numCol; ++i)
+					System.out.print (rs.getString (i) + "\t");
+				System.out.println ();
+				return true;
+			}
+		}, params);
+	}
+	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results as
+	 * a list of records. Each record in turn is a list of attribute values.
+	 * The whole result is held in memory, so listings of unbounded size
+	 * should use executeQueryAndStream instead.
+	 * 
+	 * @param query the input query template
+	 * @param params the values bound to the ? placeholders, in order
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		//iterates through the result set and saves the data returned by the query. 
+		final List<List<String>> result  = new ArrayList<List<String>>(); 
+		executeQueryAndStream (query, new RowCallback() {
+			public boolean row (ResultSet rs) throws SQLException {
+				int numCol = rs.getMetaData ().getColumnCount (); 
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i) 
+					record.add(rs.getString (i)); 
+				result.add(record); 
+				return true;
+			}
+		}, params);
+		return result; 
+	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results column by
+	 * column: numbers and dates in primitive arrays, other values dictionary
+	 * encoded. Callers read typed values instead of parsing Strings.
+	 * 
+	 * @param query the input query template
+	 * @param params the values bound to the ? placeholders, in order
+	 * @return the query result in columnar form
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult executeQueryAndReturnColumns (String query, Object... params) throws SQLException {
+		ColumnarResult result = new ColumnarResult ();
+		executeQueryAndStream (query, result, params);
+		return result;
+	}//end executeQueryAndReturnColumns
+	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the number of results
+	 * 
+	 * @param query the input query template
+	 * @param params the values bound to the ? placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		// borrows a connection from the pool
+		PooledConnection conn = this._pool.borrow ();
+		try {
+			//looks up the cached statement object
+			PreparedStatement stmt = conn.prepare (query);
+			bind (stmt, params);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+
+			int rowCount = 0;
+
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			this._metrics.executed (1, rowCount);
+			return rowCount;
+		} catch (SQLException e) {
+			this._metrics.failed (e);
+			throw e;
+		} finally {
+			this._pool.release (conn);
+		}
+	}
+	
+	/**
+	 * Method to fetch the last value from sequence. This
+	 * method issues the query to the DBMS and returns the current 
+	 * value of sequence used for autogenerated keys. currval is
+	 * session-local, so this only sees values drawn on the same pooled
+	 * connection.
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return current value of a sequence
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	
+	public int getCurrSeqVal(String sequence) throws SQLException {
+		PooledConnection conn = this._pool.borrow ();
+		try {
+			PreparedStatement stmt = conn.prepare ("Select currval(CAST(? AS regclass))");
+			stmt.setString (1, sequence);
+			
+			ResultSet rs = stmt.executeQuery ();
+			int value = rs.next() ? rs.getInt(1) : -1;
+			rs.close ();
+			this._metrics.executed (1, value == -1 ? 0 : 1);
+			return value;
+		} catch (SQLException e) {
+			this._metrics.failed (e);
+			throw e;
+		} finally {
+			this._pool.release (conn);
+		}
+	}
+
+	/**
+	 * Sets the number of rows fetched per round trip by streamed queries.
+	 * 
+	 * @param fetchSize rows per fetch, must be positive
+	 */
+	public void setFetchSize(int fetchSize) {
+		if (fetchSize <= 0) {
+			throw new IllegalArgumentException("fetchSize must be positive: " + fetchSize);
+		}
+		this._fetchSize = fetchSize;
+	}
+
+	/**
+	 * Method to read the first column of a query.
+	 *
+	 * @param query the input query template
+	 * @param params the values bound to the ? placeholders, in order
+	 * @return the values of the first column, in row order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<String> queryColumn (String query, Object... params) throws SQLException {
+		final List<String> values = new ArrayList<String>();
+		executeQueryAndStream (query, new RowCallback() {
+			public boolean row (ResultSet rs) throws SQLException {
+				values.add(rs.getString(1));
+				return true;
+			}
+		}, params);
+		return values;
+	}
+
+	/**
+	 * Returns the smallest id not yet used, reading an ordered list of ids
+	 * and stopping at the first gap.
+	 *
+	 * @param query a query returning the ids in ascending order
+	 * @return the first free id
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private int findFirstFreeId (String query) throws SQLException {
+		final int[] next = { 0 };
+		executeQueryAndStream (query, new RowCallback() {
+			public boolean row (ResultSet rs) throws SQLException {
+				if (rs.getInt(1) != next[0]) {
+					return false;
+				}
+				next[0]++;
+				return true;
+			}
+		});
+		return next[0];
+	}
+
+
+	/**
+	 * Inserts a passenger under the lowest free pID. If another process
+	 * takes that pID first, the primary key rejects the row and the next
+	 * free pID is tried.
+	 *
+	 * @param passNum the passport number
+	 * @param fullName the passenger's full name
+	 * @param bdate the birth date as yyyy-mm-dd
+	 * @param country the passenger's country
+	 * @return the pID the passenger was stored under
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addPassenger (String passNum, String fullName, String bdate, String country) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			String sql = "INSERT INTO Passenger (pID, passNum, fullName, bdate, country) VALUES (?, ?, ?, CAST(? AS DATE), ?) ON CONFLICT (pID) DO NOTHING;";
+			while (true) {
+				int pID = this._passengerIds.allocate ();
+				int rows;
+				try {
+					rows = executeUpdate (sql, pID, passNum, fullName, bdate, country);
+				} catch (SQLException e) {
+					// the pID was not used after all
+					this._passengerIds.release (pID);
+					throw e;
+				}
+				if (rows == 1) {
+					this._passengers.invalidate (passNum);
+					this._passNumFilter.add (passNum);
+					return pID;
+				}
+				// taken by another process, it stays marked as used
+			}
+		} catch (SQLException e) {
+			this._metrics.failed ("addPassenger");
+			throw e;
+		} finally {
+			this._metrics.record ("addPassenger", start);
+		}
+	}
+
+	/**
+	 * Books a flight under a newly generated booking reference. Generated
+	 * references never repeat, but they may still meet one that was loaded
+	 * into the table from elsewhere; the next reference is used then.
+	 * The seat is taken atomically by the Seat_Inventory trigger, so
+	 * concurrent bookings can never exceed the seats of the flight.
+	 *
+	 * @param departure the departure date as yyyy-mm-dd
+	 * @param flightNum the flight number
+	 * @param pID the passenger's pID
+	 * @return the booking reference, or null when the departure is sold out
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public String bookFlight (String departure, String flightNum, int pID) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			String sql = "INSERT INTO Booking (bookRef, departure, flightNum, pID) VALUES (?, CAST(? AS DATE), ?, ?) ON CONFLICT (bookRef) DO NOTHING;";
+			while (true) {
+				String bookRef = this._bookRefs.next ();
+				// skips references that may collide with loaded bookings; a false positive only costs a reference
+				for (int skips = 0; skips < 16 && this._bookRefFilter.isLoaded () && this._bookRefFilter.mightContain (bookRef); ++skips) {
+					bookRef = this._bookRefs.next ();
+				}
+				try {
+					if (executeUpdate (sql, bookRef, departure, flightNum, pID) == 1) {
+						this._bookRefFilter.add (bookRef);
+						return bookRef;
+					}
+				} catch (SQLException e) {
+					if (SeatInventory.SOLD_OUT.equals (e.getSQLState ())) {
+						return null;
+					}
+					throw e;
+				}
+			}
+		} catch (SQLException e) {
+			this._metrics.failed ("bookFlight");
+			throw e;
+		} finally {
+			this._metrics.record ("bookFlight", start);
+		}
+	}
+
+	/**
+	 * Looks a passenger up in the passenger cache, which reads Passenger
+	 * on a miss.
+	 *
+	 * @param passNum the passport number
+	 * @return the passenger, or null when no passenger has that passport number
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public Passenger findPassengerByPassNum (String passNum) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._passengers.get (passNum);
+		} catch (SQLException e) {
+			this._metrics.failed ("findPassengerByPassNum");
+			throw e;
+		} finally {
+			this._metrics.record ("findPassengerByPassNum", start);
+		}
+	}
+
+	/**
+	 * Checks a passport number before addPassenger. A number the loaded
+	 * passNum filter rules out is answered without a query; if another
+	 * client added it since the filter was last loaded, the UNIQUE(passNum)
+	 * constraint still refuses the insert. Do not use it to look up
+	 * passengers that must exist, use findPassengerByPassNum.
+	 *
+	 * @param passNum the passport number
+	 * @return true when a passenger has that passport number
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public boolean passNumInUse (String passNum) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			if (this._passNumFilter.isLoaded () && !this._passNumFilter.mightContain (passNum)) {
+				return false;
+			}
+			if (this._passengers.get (passNum) != null) {
+				return true;
+			}
+			if (this._passNumFilter.isLoaded ()) {
+				this._passNumFilter.falsePositive ();
+			}
+			return false;
+		} catch (SQLException e) {
+			this._metrics.failed ("passNumInUse");
+			throw e;
+		} finally {
+			this._metrics.record ("passNumInUse", start);
+		}
+	}
+
+	private Passenger loadPassenger (String passNum) throws SQLException {
+		String query = "SELECT pID, passNum, fullName, bdate, country FROM Passenger WHERE passNum = ?;";
+		ColumnarResult result = executeQueryAndReturnColumns (query, passNum);
+		if (result.getRowCount () == 0) {
+			return null;
+		}
+		return new Passenger (result.getInt (0, 0), result.getString (0, 1), result.getString (0, 2),
+			result.getString (0, 3), result.getString (0, 4));
+	}
+
+	/**
+	 * @return true when the flight number exists in Flight
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public boolean flightExists (String flightNum) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return executeQuery ("SELECT flightNum FROM Flight WHERE flightNum = ?;", flightNum) > 0;
+		} catch (SQLException e) {
+			this._metrics.failed ("flightExists");
+			throw e;
+		} finally {
+			this._metrics.record ("flightExists", start);
+		}
+	}
+
+	/**
+	 * @return true when the passenger booked at least one flight
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public boolean hasBookings (int pID) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return executeQuery ("SELECT pID FROM Booking WHERE pID = ?;", pID) > 0;
+		} catch (SQLException e) {
+			this._metrics.failed ("hasBookings");
+			throw e;
+		} finally {
+			this._metrics.record ("hasBookings", start);
+		}
+	}
+
+	/**
+	 * @param pID the passenger
+	 * @return the flights the passenger booked but did not rate yet, by flight number
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public List<String> findUnratedFlights (int pID) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			String query = "SELECT flightNum FROM Booking WHERE pID = ? ";
+			query += "EXCEPT SELECT flightNum FROM Ratings WHERE pID = ? ORDER BY flightNum;";
+			return queryColumn (query, pID, pID);
+		} catch (SQLException e) {
+			this._metrics.failed ("findUnratedFlights");
+			throw e;
+		} finally {
+			this._metrics.record ("findUnratedFlights", start);
+		}
+	}
+
+	/**
+	 * @return true when the passenger booked the flight and did not rate it yet
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public boolean canReview (int pID, String flightNum) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			String query = "SELECT flightNum FROM Booking WHERE pID = ? and flightNum = ? ";
+			query += "and flightnum not in (select flightnum from ratings where pid = ?);";
+			return executeQuery (query, pID, flightNum, pID) > 0;
+		} catch (SQLException e) {
+			this._metrics.failed ("canReview");
+			throw e;
+		} finally {
+			this._metrics.record ("canReview", start);
+		}
+	}
+
+	/**
+	 * Stores a rating under the lowest free rID and adds it to the
+	 * leaderboard. If another client takes that rID first, the next free
+	 * rID is tried.
+	 *
+	 * @return the rID the rating was stored under
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addReview (int pID, String flightNum, int score, String comment) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			String sql = "INSERT INTO Ratings (rID, pID, flightNum, score, comment) VALUES (?, ?, ?, ?, ?) ON CONFLICT (rID) DO NOTHING;";
+			// a rebuild after this point may count the rating already
+			long generation = this._ratings.getGeneration ();
+			int rID;
+			do {
+				rID = findFirstFreeId ("SELECT rID FROM Ratings ORDER BY rID;");
+			} while (executeUpdate (sql, rID, pID, flightNum, score, comment) == 0);
+			this._ratings.ratingAdded (flightNum, score, generation);
+			return rID;
+		} catch (SQLException e) {
+			this._metrics.failed ("addReview");
+			throw e;
+		} finally {
+			this._metrics.record ("addReview", start);
+		}
+	}
+
+	/**
+	 * @param name the airline name
+	 * @return the airline, or null when no airline has that name
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public Airline findAirlineByName (String name) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			String query = "SELECT airId, name, founded, country, hub FROM Airline WHERE name = ?;";
+			ColumnarResult result = executeQueryAndReturnColumns (query, name);
+			if (result.getRowCount () == 0) {
+				return null;
+			}
+			return new Airline (result.getInt (0, 0), result.getString (0, 1), result.getInt (0, 2),
+				result.getString (0, 3), result.getString (0, 4));
+		} catch (SQLException e) {
+			this._metrics.failed ("findAirlineByName");
+			throw e;
+		} finally {
+			this._metrics.record ("findAirlineByName", start);
+		}
+	}
+
+	/**
+	 * Stores an airline under the lowest free airId. If another client
+	 * takes that airId first, the next free airId is tried.
+	 *
+	 * @return the airId the airline was stored under
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addAirline (String name, int founded, String country, String hub) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			String sql = "INSERT INTO Airline (airId, name, founded, country, hub) VALUES (?, ?, ?, ?, ?) ON CONFLICT (airId) DO NOTHING;";
+			int airId;
+			do {
+				airId = findFirstFreeId ("SELECT airId FROM Airline ORDER BY airId;");
+			} while (executeUpdate (sql, airId, name, founded, country, hub) == 0);
+			return airId;
+		} catch (SQLException e) {
+			this._metrics.failed ("addAirline");
+			throw e;
+		} finally {
+			this._metrics.record ("addAirline", start);
+		}
+	}
+
+	/**
+	 * @return the number of airlines updated
+	 * @throws java.sql.SQLException when the update fails
+	 */
+	public int updateAirline (int airId, int founded, String country, String hub) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			String sql = "UPDATE Airline SET founded = ?, country = ?, hub = ? WHERE airId = ?;";
+			return executeUpdate (sql, founded, country, hub, airId);
+		} catch (SQLException e) {
+			this._metrics.failed ("updateAirline");
+			throw e;
+		} finally {
+			this._metrics.record ("updateAirline", start);
+		}
+	}
+
+	/**
+	 * @return the direct flights from origin to destination, by flight number
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public List<RouteGraph.Flight> findFlights (String origin, String destination) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._routes.getFlights (origin, destination);
+		} catch (SQLException e) {
+			this._metrics.failed ("findFlights");
+			throw e;
+		} finally {
+			this._metrics.record ("findFlights", start);
+		}
+	}
+
+	/**
+	 * @return the shortest itineraries from origin to destination, connections included
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public ConnectionSearch.Result findItineraries (String origin, String destination) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._connections.search (origin, destination);
+		} catch (SQLException e) {
+			this._metrics.failed ("findItineraries");
+			throw e;
+		} finally {
+			this._metrics.record ("findItineraries", start);
+		}
+	}
+
+	/**
+	 * @return at most k destinations, most flights first
+	 * @throws java.sql.SQLException when the counts cannot be loaded
+	 */
+	public List<DestinationRanking.Entry> topDestinations (int k) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._destinations.top (k);
+		} catch (SQLException e) {
+			this._metrics.failed ("topDestinations");
+			throw e;
+		} finally {
+			this._metrics.record ("topDestinations", start);
+		}
+	}
+
+	/**
+	 * @return at most k rated routes, highest average score first
+	 * @throws java.sql.SQLException when the aggregates cannot be rebuilt
+	 */
+	public List<RatingLeaderboard.Entry> topRatedRoutes (int k) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._ratings.top (k);
+		} catch (SQLException e) {
+			this._metrics.failed ("topRatedRoutes");
+			throw e;
+		} finally {
+			this._metrics.record ("topRatedRoutes", start);
+		}
+	}
+
+	/**
+	 * @return at most k direct flights from origin to destination, longest first
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public List<RouteGraph.Flight> findLongestFlights (String origin, String destination, int k) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._routes.getLongestFlights (origin, destination, k);
+		} catch (SQLException e) {
+			this._metrics.failed ("findLongestFlights");
+			throw e;
+		} finally {
+			this._metrics.record ("findLongestFlights", start);
+		}
+	}
+
+	/**
+	 * Reads the destinations one page at a time, for tables that load as
+	 * they are scrolled.
+	 *
+	 * @param after the last destination of the previous page, null for the first page
+	 * @return at most limit destinations following after, most flights first
+	 * @throws java.sql.SQLException when the counts cannot be loaded
+	 */
+	public List<DestinationRanking.Entry> pageDestinations (DestinationRanking.Entry after, int limit) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._destinations.page (after, limit);
+		} catch (SQLException e) {
+			this._metrics.failed ("pageDestinations");
+			throw e;
+		} finally {
+			this._metrics.record ("pageDestinations", start);
+		}
+	}
+
+	/**
+	 * @return the number of distinct destinations
+	 * @throws java.sql.SQLException when the counts cannot be loaded
+	 */
+	public int countDestinations () throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._destinations.size ();
+		} catch (SQLException e) {
+			this._metrics.failed ("countDestinations");
+			throw e;
+		} finally {
+			this._metrics.record ("countDestinations", start);
+		}
+	}
+
+	/**
+	 * Reads the rated routes one page at a time, for tables that load as
+	 * they are scrolled.
+	 *
+	 * @param after the last route of the previous page, null for the first page
+	 * @return at most limit rated routes following after, highest average score first
+	 * @throws java.sql.SQLException when the aggregates cannot be rebuilt
+	 */
+	public List<RatingLeaderboard.Entry> pageRatedRoutes (RatingLeaderboard.Entry after, int limit) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._ratings.page (after, limit);
+		} catch (SQLException e) {
+			this._metrics.failed ("pageRatedRoutes");
+			throw e;
+		} finally {
+			this._metrics.record ("pageRatedRoutes", start);
+		}
+	}
+
+	/**
+	 * @return every city that has an outgoing flight, in alphabetical order
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public List<String> listOrigins () throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._routes.getOrigins ();
+		} catch (SQLException e) {
+			this._metrics.failed ("listOrigins");
+			throw e;
+		} finally {
+			this._metrics.record ("listOrigins", start);
+		}
+	}
+
+	/**
+	 * @param origin the origin city
+	 * @return the cities reached directly from origin, in alphabetical order
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public List<String> listDestinations (String origin) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._routes.getDestinations (origin);
+		} catch (SQLException e) {
+			this._metrics.failed ("listDestinations");
+			throw e;
+		} finally {
+			this._metrics.record ("listDestinations", start);
+		}
+	}
+
+	/**
+	 * @return a prefix index over every city with a flight leaving or arriving
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public CityIndex findCities () throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._routes.getCityIndex ();
+		} catch (SQLException e) {
+			this._metrics.failed ("findCities");
+			throw e;
+		} finally {
+			this._metrics.record ("findCities", start);
+		}
+	}
+
+	/**
+	 * @return a prefix index over every city that has an outgoing flight
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public CityIndex findOrigins () throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._routes.getOriginIndex ();
+		} catch (SQLException e) {
+			this._metrics.failed ("findOrigins");
+			throw e;
+		} finally {
+			this._metrics.record ("findOrigins", start);
+		}
+	}
+
+	/**
+	 * @param origin the origin city
+	 * @return a prefix index over the cities reached directly from origin
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public CityIndex findDestinations (String origin) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return this._routes.getDestinationIndex (origin);
+		} catch (SQLException e) {
+			this._metrics.failed ("findDestinations");
+			throw e;
+		} finally {
+			this._metrics.record ("findDestinations", start);
+		}
+	}
+
+	/**
+	 * @return every flight number, in order
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public List<String> findFlightNums () throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return queryColumn ("SELECT flightNum FROM Flight ORDER BY flightNum;");
+		} catch (SQLException e) {
+			this._metrics.failed ("findFlightNums");
+			throw e;
+		} finally {
+			this._metrics.record ("findFlightNums", start);
+		}
+	}
+
+	/**
+	 * @return the flights with at least one booked seat, by flight number
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public List<String> findBookedFlightNums () throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return queryColumn ("SELECT DISTINCT flightNum FROM Seat_Inventory WHERE booked > 0 ORDER BY flightNum;");
+		} catch (SQLException e) {
+			this._metrics.failed ("findBookedFlightNums");
+			throw e;
+		} finally {
+			this._metrics.record ("findBookedFlightNums", start);
+		}
+	}
+
+	/**
+	 * @return the departures of the flight with at least one booked seat, in order
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public List<String> findBookedDepartures (String flightNum) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			return queryColumn ("SELECT departure FROM Seat_Inventory WHERE flightNum = ? and booked > 0 ORDER BY departure;", flightNum);
+		} catch (SQLException e) {
+			this._metrics.failed ("findBookedDepartures");
+			throw e;
+		} finally {
+			this._metrics.record ("findBookedDepartures", start);
+		}
+	}
+
+	/**
+	 * @param flightNum the flight number
+	 * @param departure the departure date as yyyy-mm-dd, or null for any departure
+	 * @return true when a seat of the flight is booked on that departure
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public boolean isBooked (String flightNum, String departure) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			if (departure == null) {
+				return executeQuery ("SELECT flightNum FROM Seat_Inventory WHERE flightNum = ? and booked > 0;", flightNum) > 0;
+			}
+			String query = "SELECT departure FROM Seat_Inventory WHERE flightNum = ? and departure = CAST(? AS DATE) and booked > 0;";
+			return executeQuery (query, flightNum, departure) > 0;
+		} catch (SQLException e) {
+			this._metrics.failed ("isBooked");
+			throw e;
+		} finally {
+			this._metrics.record ("isBooked", start);
+		}
+	}
+
+	/**
+	 * @param flightNum the flight number
+	 * @param departure the departure date as yyyy-mm-dd, or null for the flight alone
+	 * @return the booked and available seats of the departure, or null for an unknown flight
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public SeatAvailability seatsAvailable (String flightNum, String departure) throws SQLException {
+		long start = System.nanoTime ();
+		try {
+			String query = "SELECT F.flightNum, F.origin, F.destination, D.departure, COALESCE(S.booked, 0), F.seats ";
+			query += "FROM Flight F CROSS JOIN (SELECT CAST(? AS DATE) AS departure) D ";
+			query += "LEFT JOIN Seat_Inventory S ON S.flightNum = F.flightNum AND S.departure = D.departure ";
+			query += "WHERE F.flightNum = ?;";
+			ColumnarResult result = executeQueryAndReturnColumns (query, departure, flightNum);
+			if (result.getRowCount () == 0) {
+				return null;
+			}
+			return new SeatAvailability (result.getString (0, 0), result.getString (0, 1), result.getString (0, 2),
+				result.getString (0, 3), (int) result.getLong (0, 4), result.getInt (0, 5));
+		} catch (SQLException e) {
+			this._metrics.failed ("seatsAvailable");
+			throw e;
+		} finally {
+			this._metrics.record ("seatsAvailable", start);
+		}
+	}
+
+	/**
+	 * Binds the positional parameters of a prepared statement.
+	 */
+	private static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i) {
+			stmt.setObject (i + 1, params[i]);
+		}
+	}
+
+	/**
+	 * @return a one-line summary of the prepared statement cache counters
+	 */
+	public String getStatementCacheMetrics() {
+		return PreparedStatementCache.getMetrics ();
+	}
+
+	/**
+	 * @return the cache of passengers by passport number
+	 */
+	public PassengerCache getPassengerCache() {
+		return this._passengers;
+	}
+
+	/**
+	 * @return the Bloom filter over Passenger.passNum
+	 */
+	public KeyFilter getPassNumFilter() {
+		return this._passNumFilter;
+	}
+
+	/**
+	 * @return the Bloom filter over Booking.bookRef
+	 */
+	public KeyFilter getBookRefFilter() {
+		return this._bookRefFilter;
+	}
+
+	/**
+	 * @return the most flights an itinerary of findItineraries has
+	 */
+	public int getMaxLegs() {
+		return this._connections.getMaxLegs ();
+	}
+
+	/**
+	 * @return the booked seat counters, maintained per flight and departure
+	 */
+	public SeatInventory getSeatInventory() {
+		return this._seatInventory;
+	}
+
+	/**
+	 * @return the in-memory flight counts per destination
+	 */
+	public DestinationRanking getDestinationRanking() {
+		return this._destinations;
+	}
+
+	/**
+	 * @return the in-memory route rating aggregates
+	 */
+	public RatingLeaderboard getRatingLeaderboard() {
+		return this._ratings;
+	}
+
+	/**
+	 * @return the in-memory graph of routes
+	 */
+	public RouteGraph getRouteGraph() {
+		return this._routes;
+	}
+
+	/**
+	 * @return the connecting flight search over the route graph
+	 */
+	public ConnectionSearch getConnectionSearch() {
+		return this._connections;
+	}
+
+	/**
+	 * @return the operation latencies and SQL counters
+	 */
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	/**
+	 * @return a one-line summary of the connection pool metrics
+	 */
+	public String getPoolMetrics() {
+		return this._pool.getMetrics ();
+	}
+
+	/**
+	 * Method to close the pooled physical connections.
+	 */
+	public void close(){
+		this._metrics.close ();
+		if (this._seatInventory != null){
+			this._seatInventory.close ();
+		}//end if
+		if (this._destinations != null){
+			this._destinations.close ();
+		}//end if
+		if (this._ratings != null){
+			this._ratings.close ();
+		}//end if
+		if (this._routes != null){
+			this._routes.close ();
+		}//end if
+		if (this._passNumFilter != null){
+			this._passNumFilter.close ();
+		}//end if
+		if (this._bookRefFilter != null){
+			this._bookRefFilter.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
+	}//end close
+
+	/**
+	 * One row of Passenger.
+	 */
+	public static class Passenger {
+		private final int pID;
+		private final String passNum;
+		private final String fullName;
+		private final String bdate;
+		private final String country;
+
+		public Passenger(int pID, String passNum, String fullName, String bdate, String country) {
+			this.pID = pID;
+			this.passNum = passNum;
+			this.fullName = fullName;
+			this.bdate = bdate;
+			this.country = country;
+		}
+
+		public int getPID() { return pID; }
+
+		public String getPassNum() { return passNum; }
+
+		public String getFullName() { return fullName; }
+
+		public String getBdate() { return bdate; }
+
+		public String getCountry() { return country; }
+	}
+
+	/**
+	 * One row of Airline.
+	 */
+	public static class Airline {
+		private final int airId;
+		private final String name;
+		private final int founded;
+		private final String country;
+		private final String hub;
+
+		public Airline(int airId, String name, int founded, String country, String hub) {
+			this.airId = airId;
+			this.name = name;
+			this.founded = founded;
+			this.country = country;
+			this.hub = hub;
+		}
+
+		public int getAirId() { return airId; }
+
+		public String getName() { return name; }
+
+		public int getFounded() { return founded; }
+
+		public String getCountry() { return country; }
+
+		public String getHub() { return hub; }
+	}
+
+	/**
+	 * The booked and available seats of a flight on one departure.
+	 */
+	public static class SeatAvailability {
+		private final String flightNum;
+		private final String origin;
+		private final String destination;
+		private final String departure;
+		private final int booked;
+		private final int seats;
+
+		public SeatAvailability(String flightNum, String origin, String destination, String departure,
+				int booked, int seats) {
+			this.flightNum = flightNum;
+			this.origin = origin;
+			this.destination = destination;
+			this.departure = departure;
+			this.booked = booked;
+			this.seats = seats;
+		}
+
+		public String getFlightNum() { return flightNum; }
+
+		public String getOrigin() { return origin; }
+
+		public String getDestination() { return destination; }
+
+		/**
+		 * @return the departure date as yyyy-mm-dd, or null when none was asked for
+		 */
+		public String getDeparture() { return departure; }
+
+		public int getBooked() { return booked; }
+
+		public int getSeats() { return seats; }
+
+		public int getAvailable() { return seats - booked; }
+	}
+}
@@ -0,0 +1,598 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Month;
+import java.time.Year;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Loads the airline, passenger, flight, ratings and booking CSV files
+ * from the client through the COPY protocol, so the database server
+ * needs no access to the files and no superuser COPY FROM a path.
+ *
+ * Each file is memory-mapped in chunks of about chunkBytes that end at
+ * a line boundary, and the chunks are parsed in parallel on a
+ * ForkJoinPool. A chunk is parsed from its bytes into COPY data without
+ * building a String per field, and its rows are checked against the
+ * column types of create.sql: the _YEAR, _HOURS, _SEATS and _SCORE
+ * domains, integers, dates and the lengths of the CHAR columns. Rows
+ * breaking a rule are written to the reject file with their file, line
+ * and reason instead of failing the COPY. Dates are sent as yyyy-mm-dd
+ * whatever the DateStyle of the server. The chunks are copied in file
+ * order, so the rows of a table keep the order of its file.
+ *
+ * The tables are loaded in one transaction, in foreign key order, so a
+ * failure such as a duplicate key leaves the database as it was.
+ * Bookings go through the Seat_Inventory trigger like any insert. A
+ * running server keeps its in-memory indexes until their next resync.
+ */
+
+public class BulkLoader {
+	// the five tables in the order their foreign keys need
+	private static final Table[] TABLES = {
+		new Table("Airline", "airline.csv", new Column[] {
+			Column.integer("airId"), Column.chars("name", 24), Column.domain("founded", "_YEAR", 1900, Integer.MAX_VALUE),
+			Column.chars("country", 24), Column.chars("hub", 24) }),
+		new Table("Passenger", "passenger.csv", new Column[] {
+			Column.integer("pID"), Column.chars("passNum", 10), Column.chars("fullName", 24), Column.date("bdate"),
+			Column.chars("country", 24) }),
+		new Table("Flight", "flights.csv", new Column[] {
+			Column.integer("airId"), Column.chars("flightNum", 8), Column.chars("origin", 16), Column.chars("destination", 16),
+			Column.chars("plane", 16), Column.domain("seats", "_SEATS", 1, 499), Column.domain("duration", "_HOURS", 1, 23) }),
+		new Table("Ratings", "ratings.csv", new Column[] {
+			Column.integer("rID"), Column.integer("pID"), Column.chars("flightNum", 8), Column.domain("score", "_SCORE", 0, 5),
+			Column.text("comment") }),
+		new Table("Booking", "bookings.csv", new Column[] {
+			Column.chars("bookRef", 10), Column.date("departure"), Column.chars("flightNum", 8), Column.integer("pID") }),
+	};
+
+	private final ConnectionPool pool;
+	private final int threads;
+	private final int chunkBytes;
+	private final boolean truncate;
+
+	/**
+	 * @param pool the connections to load through
+	 * @param threads the threads parsing chunks
+	 * @param chunkBytes the size of a chunk, rounded up to the end of its last line
+	 * @param truncate whether to empty the tables before loading
+	 */
+	public BulkLoader(ConnectionPool pool, int threads, int chunkBytes, boolean truncate) {
+		if (threads <= 0 || chunkBytes <= 0) {
+			throw new IllegalArgumentException("threads and chunkBytes must be positive");
+		}
+		this.pool = pool;
+		this.threads = threads;
+		this.chunkBytes = chunkBytes;
+		this.truncate = truncate;
+	}
+
+	/**
+	 * Creates a loader configured by the airbooking.loader.* properties:
+	 * threads (the number of processors), chunkBytes (8 MB) and truncate
+	 * (false).
+	 */
+	public static BulkLoader fromSystemProperties(ConnectionPool pool) {
+		return new BulkLoader(pool,
+			Integer.getInteger("airbooking.loader.threads", Runtime.getRuntime().availableProcessors()),
+			Integer.getInteger("airbooking.loader.chunkBytes", 8 << 20),
+			Boolean.getBoolean("airbooking.loader.truncate"));
+	}
+
+	/**
+	 * Loads the five files of a directory and prints the rows loaded and
+	 * rejected, the rows per second and the megabytes per second of each
+	 * table.
+	 *
+	 * @param dir the directory holding airline.csv, passenger.csv, flights.csv, ratings.csv and bookings.csv
+	 * @param rejects the file the rejected rows are written to
+	 * @return the number of rows loaded
+	 * @throws java.sql.SQLException when a COPY fails; nothing is loaded then
+	 * @throws java.io.IOException when a file cannot be read
+	 */
+	public long load(File dir, File rejects) throws SQLException, IOException {
+		for (Table table : TABLES) {
+			if (!new File(dir, table.file).isFile()) {
+				throw new IOException("Missing " + new File(dir, table.file));
+			}
+		}
+		ForkJoinPool parsers = new ForkJoinPool(threads);
+		PrintWriter rejected = new PrintWriter(rejects, "UTF-8");
+		PooledConnection conn = this.pool.borrow();
+		long[] totals = new long[3];
+		long start = System.nanoTime();
+		try {
+			Connection connection = conn.getConnection();
+			connection.setAutoCommit(false);
+			if (truncate) {
+				Statement stmt = connection.createStatement();
+				try {
+					// Seat_Inventory is derived from Booking, and TRUNCATE fires no row trigger
+					stmt.execute("TRUNCATE Booking, Ratings, Flight, Passenger, Airline, Seat_Inventory");
+				} finally {
+					stmt.close();
+				}
+			}
+			for (Table table : TABLES) {
+				long[] counts = copy(connection, table, new File(dir, table.file), parsers, rejected);
+				for (int i = 0; i < totals.length; ++i) {
+					totals[i] += counts[i];
+				}
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			conn.getConnection().rollback();
+			throw e;
+		} catch (IOException e) {
+			conn.getConnection().rollback();
+			throw e;
+		} finally {
+			// the pool restores autocommit before the connection is reused
+			this.pool.release(conn);
+			rejected.close();
+			parsers.shutdownNow();
+		}
+		report("Total", totals, System.nanoTime() - start);
+		if (totals[1] > 0) {
+			System.out.println("Rejected rows written to " + rejects);
+		}
+		return totals[0];
+	}
+
+	private static void report(String name, long[] counts, long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.printf("%-10s %10d rows loaded, %6d rejected in %7.1f s (%.0f rows/s, %.1f MB/s)\n",
+			name + ":", counts[0], counts[1], seconds, counts[0] / seconds, counts[2] / seconds / (1 << 20));
+	}
+
+	/**
+	 * Streams one file into its table. The chunks are parsed in parallel
+	 * and copied in file order; at most two chunks per thread are parsed
+	 * or waiting at a time.
+	 *
+	 * @return the rows loaded, the rows rejected and the bytes read
+	 */
+	private long[] copy(Connection connection, Table table, File file, ForkJoinPool parsers, PrintWriter rejected)
+			throws SQLException, IOException {
+		long start = System.nanoTime();
+		CopyIn copy = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(table.copySql());
+		ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			// the lines of the file before the next chunk written, and the rows rejected
+			long[] written = new long[2];
+			ByteBuffer probe = ByteBuffer.allocate(64 * 1024);
+			long chunkStart = 0;
+			while (chunkStart < size) {
+				long chunkEnd = nextLine(channel, Math.min(chunkStart + chunkBytes, size), size, probe);
+				if (chunkEnd - chunkStart > Integer.MAX_VALUE) {
+					throw new IOException(file + ": a line at byte " + chunkStart + " is longer than 2 GB");
+				}
+				pending.add(parsers.submit(new Chunk(table, channel, chunkStart, (int) (chunkEnd - chunkStart))));
+				chunkStart = chunkEnd;
+				if (pending.size() >= 2 * threads) {
+					write(pending.poll(), file.getName(), copy, rejected, written);
+				}
+			}
+			while (!pending.isEmpty()) {
+				write(pending.poll(), file.getName(), copy, rejected, written);
+			}
+			long[] counts = { copy.endCopy(), written[1], size };
+			report(table.name, counts, System.nanoTime() - start);
+			return counts;
+		} finally {
+			channel.close();
+			if (copy.isActive()) {
+				copy.cancelCopy();
+			}
+			for (Future<Chunk> future : pending) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * @return the offset just after the first line feed at or after pos, or size when there is none
+	 */
+	private static long nextLine(FileChannel channel, long pos, long size, ByteBuffer probe) throws IOException {
+		while (pos < size) {
+			probe.clear();
+			int n = channel.read(probe, pos);
+			if (n <= 0) {
+				break;
+			}
+			for (int i = 0; i < n; ++i) {
+				if (probe.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += n;
+		}
+		return size;
+	}
+
+	/**
+	 * Sends the accepted rows of a parsed chunk and logs its rejects with
+	 * their line in the file.
+	 *
+	 * @param written the lines before the chunk and the rows rejected so far, updated
+	 */
+	private static void write(Future<Chunk> future, String file, CopyIn copy, PrintWriter rejected, long[] written)
+			throws SQLException, IOException {
+		Chunk chunk;
+		try {
+			chunk = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing " + file);
+		} catch (ExecutionException e) {
+			throw new IOException("Cannot parse " + file + ": " + e.getCause().getMessage());
+		}
+		copy.writeToCopy(chunk.data.buf, 0, chunk.data.size);
+		for (int i = 0; i < chunk.rejectLines.size(); ++i) {
+			rejected.println(file + ":" + (written[0] + chunk.rejectLines.get(i)) + ": " + chunk.rejectReasons.get(i));
+		}
+		written[0] += chunk.lines;
+		written[1] += chunk.rejectLines.size();
+	}
+
+	/**
+	 * A table and the columns of its file, in file order.
+	 */
+	private static class Table {
+		private final String name;
+		private final String file;
+		private final Column[] columns;
+
+		Table(String name, String file, Column[] columns) {
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+		}
+
+		String copySql() {
+			StringBuilder sql = new StringBuilder("COPY ").append(name).append(" (");
+			for (int i = 0; i < columns.length; ++i) {
+				sql.append(i == 0 ? "" : ", ").append(columns[i].name);
+			}
+			return sql.append(") FROM STDIN WITH DELIMITER ','").toString();
+		}
+	}
+
+	/**
+	 * A column and the rule its values must follow. Values are read from
+	 * the bytes of the file and written to the COPY data; a String is only
+	 * made to describe a rejected value.
+	 */
+	private static class Column {
+		private static final int INTEGER = 0;
+		private static final int CHARS = 1;
+		private static final int DATE = 2;
+		private static final int TEXT = 3;
+
+		private final String name;
+		private final int kind;
+		// the domain of an integer column, or null
+		private final String domain;
+		private final int min;
+		private final int max;
+		// the length of a CHAR column
+		private final int length;
+
+		private Column(String name, int kind, String domain, int min, int max, int length) {
+			this.name = name;
+			this.kind = kind;
+			this.domain = domain;
+			this.min = min;
+			this.max = max;
+			this.length = length;
+		}
+
+		static Column integer(String name) {
+			return new Column(name, INTEGER, null, Integer.MIN_VALUE, Integer.MAX_VALUE, 0);
+		}
+
+		static Column domain(String name, String domain, int min, int max) {
+			return new Column(name, INTEGER, domain, min, max, 0);
+		}
+
+		static Column chars(String name, int length) {
+			return new Column(name, CHARS, null, 0, 0, length);
+		}
+
+		static Column date(String name) {
+			return new Column(name, DATE, null, 0, 0, 0);
+		}
+
+		static Column text(String name) {
+			return new Column(name, TEXT, null, 0, 0, 0);
+		}
+
+		/**
+		 * Checks the value in bytes from to to of the input and appends it
+		 * to the COPY data.
+		 *
+		 * @throws IllegalArgumentException with the reason when the value breaks the rule
+		 */
+		void check(ByteBuffer in, int from, int to, Bytes out) {
+			int s = from;
+			int e = to;
+			switch (kind) {
+				case INTEGER: {
+					while (s < e && in.get(s) == ' ') ++s;
+					while (e > s && in.get(e - 1) == ' ') --e;
+					boolean negative = s < e && in.get(s) == '-';
+					int i = s < e && (negative || in.get(s) == '+') ? s + 1 : s;
+					if (i == e || e - i > 10) {
+						throw reject(in, from, to, "is not an integer");
+					}
+					long number = 0;
+					for (; i < e; ++i) {
+						int digit = in.get(i) - '0';
+						if (digit < 0 || digit > 9) {
+							throw reject(in, from, to, "is not an integer");
+						}
+						number = number * 10 + digit;
+					}
+					number = negative ? -number : number;
+					if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+						throw reject(in, from, to, "is not an integer");
+					}
+					if (number < min || number > max) {
+						throw new IllegalArgumentException(name + " " + number + " is outside " + domain
+							+ " (" + min + (max == Integer.MAX_VALUE ? " or more" : " to " + max) + ")");
+					}
+					out.put(in, s, e);
+					return;
+				}
+				case CHARS: {
+					// counts characters, not the continuation bytes of UTF-8
+					int chars = 0;
+					for (int i = s; i < e; ++i) {
+						if ((in.get(i) & 0xC0) != 0x80) ++chars;
+					}
+					// CHAR(n) accepts longer values only when the excess is spaces
+					while (chars > length && in.get(e - 1) == ' ') {
+						--e;
+						--chars;
+					}
+					if (chars > length) {
+						throw reject(in, from, to, "is longer than " + length + " characters");
+					}
+					out.putEscaped(in, s, e);
+					return;
+				}
+				case DATE: {
+					while (s < e && in.get(s) == ' ') ++s;
+					while (e > s && in.get(e - 1) == ' ') --e;
+					// M/d/yyyy as in the data set, or yyyy-mm-dd
+					byte separator = 0;
+					for (int i = s; i < e && separator == 0; ++i) {
+						if (in.get(i) == '/' || in.get(i) == '-') separator = in.get(i);
+					}
+					int[] parts = new int[3];
+					int[] digits = new int[3];
+					int part = 0;
+					for (int i = s; i < e; ++i) {
+						byte b = in.get(i);
+						if (b == separator && part < 2) {
+							++part;
+						} else if (b >= '0' && b <= '9' && digits[part] < 4) {
+							parts[part] = parts[part] * 10 + (b - '0');
+							++digits[part];
+						} else {
+							throw reject(in, from, to, "is not a date");
+						}
+					}
+					boolean us = separator == '/';
+					int year = us ? parts[2] : parts[0];
+					int month = us ? parts[0] : parts[1];
+					int day = us ? parts[1] : parts[2];
+					if (part != 2 || digits[us ? 2 : 0] != 4 || digits[us ? 0 : 1] == 0 || digits[us ? 1 : 2] == 0
+							|| month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year))) {
+						throw reject(in, from, to, "is not a date");
+					}
+					out.putDigits(year, 4);
+					out.put((byte) '-');
+					out.putDigits(month, 2);
+					out.put((byte) '-');
+					out.putDigits(day, 2);
+					return;
+				}
+				default:
+					out.putEscaped(in, s, e);
+			}
+		}
+
+		private IllegalArgumentException reject(ByteBuffer in, int from, int to, String reason) {
+			return new IllegalArgumentException(name + " '" + decode(in, from, to) + "' " + reason);
+		}
+	}
+
+	private static String decode(ByteBuffer in, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for (int i = from; i < to; ++i) {
+			bytes[i - from] = in.get(i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A growable byte array holding the COPY data of a chunk.
+	 */
+	private static class Bytes {
+		private byte[] buf;
+		private int size;
+
+		Bytes(int capacity) {
+			buf = new byte[Math.max(capacity, 16)];
+		}
+
+		private void ensure(int extra) {
+			if (size + extra > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+			}
+		}
+
+		void put(byte b) {
+			ensure(1);
+			buf[size++] = b;
+		}
+
+		void put(ByteBuffer in, int from, int to) {
+			ensure(to - from);
+			for (int i = from; i < to; ++i) {
+				buf[size++] = in.get(i);
+			}
+		}
+
+		// backslash starts an escape sequence in the COPY text format
+		void putEscaped(ByteBuffer in, int from, int to) {
+			ensure(to - from);
+			for (int i = from; i < to; ++i) {
+				byte b = in.get(i);
+				if (b == '\\') {
+					put(b);
+				}
+				put(b);
+			}
+		}
+
+		void putDigits(int value, int width) {
+			ensure(width);
+			for (int i = width - 1; i >= 0; --i) {
+				buf[size + i] = (byte) ('0' + value % 10);
+				value /= 10;
+			}
+			size += width;
+		}
+	}
+
+	/**
+	 * A chunk of whole lines of one file, mapped and parsed on a loader
+	 * thread into the COPY data of its accepted rows and the lines and
+	 * reasons of its rejects. Lines are counted from 1 within the chunk.
+	 */
+	private static class Chunk implements Callable<Chunk> {
+		private final Table table;
+		private final FileChannel channel;
+		private final long position;
+		private final int length;
+		private Bytes data;
+		private int lines = 0;
+		private final List<Integer> rejectLines = new ArrayList<Integer>();
+		private final List<String> rejectReasons = new ArrayList<String>();
+
+		Chunk(Table table, FileChannel channel, long position, int length) {
+			this.table = table;
+			this.channel = channel;
+			this.position = position;
+			this.length = length;
+		}
+
+		public Chunk call() throws IOException {
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			Column[] columns = table.columns;
+			// the offsets of the fields of a line, and of the comma after the last one
+			int[] bounds = new int[columns.length + 1];
+			data = new Bytes(length + length / 8);
+			int pos = 0;
+			while (pos < length) {
+				int end = pos;
+				while (end < length && in.get(end) != '\n') ++end;
+				int next = end + 1;
+				if (end > pos && in.get(end - 1) == '\r') --end;
+				++lines;
+				if (end > pos) {
+					int mark = data.size;
+					try {
+						parse(in, pos, end, columns, bounds);
+						data.put((byte) '\n');
+					} catch (IllegalArgumentException e) {
+						data.size = mark;
+						rejectLines.add(lines);
+						rejectReasons.add(e.getMessage() + ": " + decode(in, pos, end));
+					}
+				}
+				pos = next;
+			}
+			return this;
+		}
+
+		private void parse(ByteBuffer in, int from, int to, Column[] columns, int[] bounds) {
+			int fields = 1;
+			bounds[0] = from;
+			for (int i = from; i < to; ++i) {
+				if (in.get(i) == ',') {
+					if (fields < bounds.length) {
+						bounds[fields] = i + 1;
+					}
+					++fields;
+				}
+			}
+			if (fields != columns.length) {
+				throw new IllegalArgumentException(fields + " fields instead of " + columns.length);
+			}
+			for (int c = 0; c < columns.length; ++c) {
+				if (c > 0) {
+					data.put((byte) ',');
+				}
+				columns[c].check(in, bounds[c], c + 1 < columns.length ? bounds[c + 1] - 1 : to, data);
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 3 && args.length != 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BulkLoader.class.getName () +
+		            " <dbname> <port> <user> [<data directory>]");
+			return;
+		}
+		try {
+			Class.forName("org.postgresql.Driver");
+		}catch(Exception e){
+			System.out.println("Where is your PostgreSQL JDBC Driver? " + "Include in your library path!");
+			e.printStackTrace();
+			return;
+		}
+		ConnectionPool pool = null;
+		boolean failed = false;
+		try {
+			pool = ConnectionPool.fromSystemProperties(BookingService.url(args[0], args[1]), args[2], "");
+			// creates Seat_Inventory and its trigger before the bookings arrive
+			new SchemaMigrator(pool).migrate();
+			File dir = new File(args.length == 4 ? args[3] : "../data");
+			File rejects = new File(System.getProperty("airbooking.loader.rejects", "rejects.txt"));
+			fromSystemProperties(pool).load(dir, rejects);
+		} catch (Exception e) {
+			System.err.println("Error - Load failed: " + e.getMessage());
+			failed = true;
+		} finally {
+			if (pool != null) {
+				pool.close();
+			}
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Lets another thread cancel the database work of a background task.
+ *
+ * The task's worker thread attaches a token while it runs. Every
+ * statement prepared on that thread is recorded with its pooled
+ * connection until the connection goes back to the pool. cancel() calls
+ * Statement.cancel on the recorded statements, which aborts a running
+ * query on the server. It also fails every later prepare with SQLSTATE
+ * QUERY_CANCELED, so a cancelled task stops at its next statement.
+ *
+ * Statements are recorded and forgotten under the token's lock, and
+ * cancel() holds the lock, so a connection is never cancelled once it
+ * is back in the pool and in use by someone else. Threads without a
+ * token, such as the background maintenance threads, are not affected.
+ */
+
+public class CancelToken {
+	// SQLSTATE of a query aborted on request, as PostgreSQL reports it
+	public static final String QUERY_CANCELED = "57014";
+
+	private static final ThreadLocal<CancelToken> CURRENT = new ThreadLocal<CancelToken>();
+
+	private final HashMap<PooledConnection, Statement> running = new HashMap<PooledConnection, Statement>();
+	private boolean cancelled = false;
+
+	/**
+	 * @return the token attached to the calling thread, or null
+	 */
+	public static CancelToken current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Attaches this token to the calling thread, replacing any other.
+	 */
+	public void attach() {
+		CURRENT.set(this);
+	}
+
+	/**
+	 * Detaches any token from the calling thread.
+	 */
+	public static void detach() {
+		CURRENT.remove();
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Cancels the statements running for this token and refuses new ones.
+	 */
+	public synchronized void cancel() {
+		if (cancelled) {
+			return;
+		}
+		cancelled = true;
+		List<Statement> statements = new ArrayList<Statement>(running.values());
+		for (Statement stmt : statements) {
+			try {
+				stmt.cancel();
+			} catch (SQLException e) {
+				// ignored, the statement may have finished meanwhile
+			}
+		}
+	}
+
+	/**
+	 * Records a statement prepared on a pooled connection by the calling
+	 * thread.
+	 *
+	 * @throws java.sql.SQLException when the token of the thread is cancelled
+	 */
+	static void prepared(PooledConnection conn, Statement stmt) throws SQLException {
+		CancelToken token = CURRENT.get();
+		if (token == null) {
+			return;
+		}
+		synchronized (token) {
+			if (token.cancelled) {
+				throw new SQLException("Query cancelled", QUERY_CANCELED);
+			}
+			token.running.put(conn, stmt);
+		}
+	}
+
+	/**
+	 * Forgets the statements of a connection returned to the pool by the
+	 * calling thread.
+	 */
+	static void released(PooledConnection conn) {
+		CancelToken token = CURRENT.get();
+		if (token == null) {
+			return;
+		}
+		synchronized (token) {
+			token.running.remove(conn);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+import java.awt.Color;
+import java.util.List;
+
+import javax.swing.ComboBoxEditor;
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.JComboBox;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * An editable combo box for entering a city, completed from a CityIndex.
+ *
+ * The list offers the first cities starting with the typed text, and is
+ * narrowed on every keystroke without a database round trip. Typing a
+ * city in any case, or a prefix shared by a single city, selects that
+ * city once confirmed with Enter or by leaving the box. Anything else
+ * turns the text red and leaves the selection unchanged, so the selected
+ * item is always a city of the index.
+ *
+ * Like every Swing component, it must only be used on the event dispatch
+ * thread.
+ */
+
+public class CityComboBox extends JComboBox<String> {
+	private static final long serialVersionUID = 1L;
+
+	private final int limit;
+	private final JTextField field;
+	private final Color foreground;
+	private CityIndex cities = null;
+	// set while the box changes the text itself
+	private boolean adjusting = false;
+
+	/**
+	 * @param limit the number of cities offered in the list
+	 */
+	public CityComboBox(int limit) {
+		this.limit = limit;
+		setEditable(true);
+		field = (JTextField) getEditor().getEditorComponent();
+		foreground = field.getForeground();
+		field.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				typed();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				typed();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+	}
+
+	/**
+	 * Creates a box offering airbooking.gui.completions cities, 20 by
+	 * default.
+	 *
+	 * @return the box
+	 */
+	public static CityComboBox fromSystemProperties() {
+		return new CityComboBox(Integer.getInteger("airbooking.gui.completions", 20));
+	}
+
+	/**
+	 * Replaces the cities accepted by the box and selects the first one.
+	 *
+	 * @param cities the cities accepted
+	 */
+	public void setCities(CityIndex cities) {
+		this.cities = cities;
+		removeAllItems();
+		for (String city : cities.complete("", limit)) {
+			addItem(city);
+		}
+		field.setForeground(foreground);
+	}
+
+	@Override
+	public void setSelectedItem(Object item) {
+		if (item != null && cities != null) {
+			String city = cities.find(item.toString());
+			if (city == null) {
+				List<String> matches = cities.complete(item.toString(), 2);
+				if (matches.size() != 1) {
+					field.setForeground(Color.RED);
+					return;
+				}
+				city = matches.get(0);
+			}
+			item = city;
+			field.setForeground(foreground);
+		}
+		super.setSelectedItem(item);
+	}
+
+	@Override
+	public void configureEditor(ComboBoxEditor editor, Object item) {
+		// showing the selected item is not typing
+		adjusting = true;
+		try {
+			super.configureEditor(editor, item);
+		} finally {
+			adjusting = false;
+		}
+	}
+
+	private void typed() {
+		if (adjusting || cities == null) {
+			return;
+		}
+		// the document cannot be changed from its own listener
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				narrow();
+			}
+		});
+	}
+
+	// offers the cities starting with the typed text, keeping the text and the selection
+	private void narrow() {
+		String text = field.getText();
+		List<String> matches = cities.complete(text, limit);
+		DefaultComboBoxModel<String> model = new DefaultComboBoxModel<String>();
+		for (String city : matches) {
+			model.addElement(city);
+		}
+		model.setSelectedItem(getSelectedItem());
+		adjusting = true;
+		try {
+			hidePopup();
+			setModel(model);
+			if (!field.getText().equals(text)) {
+				field.setText(text);
+			}
+		} finally {
+			adjusting = false;
+		}
+		field.setForeground(matches.isEmpty() && text.length() > 0 ? Color.RED : foreground);
+		if (!matches.isEmpty() && field.hasFocus()) {
+			showPopup();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A prefix index over city names, for autocompletion and validation of
+ * typed cities without a database round trip.
+ *
+ * Names are trimmed, since the CHAR(16) city columns come back padded,
+ * and matched without regard to case. They are kept in a sorted array
+ * of lower-cased keys, so the cities starting with a prefix form one
+ * contiguous range found by binary search. An index is immutable and
+ * can be shared between threads.
+ */
+
+public class CityIndex {
+	private final String[] keys;
+	private final String[] names;
+
+	/**
+	 * @param cities the city names, in any order
+	 */
+	public CityIndex(Collection<String> cities) {
+		final String[] trimmed = new String[cities.size()];
+		final String[] lower = new String[cities.size()];
+		Integer[] order = new Integer[cities.size()];
+		int i = 0;
+		for (String city : cities) {
+			trimmed[i] = city.trim();
+			lower[i] = key(city);
+			order[i] = i;
+			i++;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = lower[a].compareTo(lower[b]);
+				return c != 0 ? c : trimmed[a].compareTo(trimmed[b]);
+			}
+		});
+		keys = new String[order.length];
+		names = new String[order.length];
+		for (i = 0; i < order.length; ++i) {
+			keys[i] = lower[order[i]];
+			names[i] = trimmed[order[i]];
+		}
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @param name a city name in any case, possibly padded
+	 * @return the indexed name of that city, or null when it is not indexed
+	 */
+	public String find(String name) {
+		if (name == null) {
+			return null;
+		}
+		String key = key(name);
+		int i = lowerBound(key);
+		return i < keys.length && keys[i].equals(key) ? names[i] : null;
+	}
+
+	/**
+	 * @param prefix the start of a city name in any case
+	 * @param limit the number of cities wanted
+	 * @return at most limit cities starting with prefix, in alphabetical order
+	 */
+	public List<String> complete(String prefix, int limit) {
+		List<String> cities = new ArrayList<String>();
+		String key = prefix == null ? "" : key(prefix);
+		for (int i = lowerBound(key); i < keys.length && cities.size() < limit && keys[i].startsWith(key); ++i) {
+			cities.add(names[i]);
+		}
+		return cities;
+	}
+
+	// index of the first key not smaller than key
+	private int lowerBound(String key) {
+		int lo = 0;
+		int hi = keys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[mid].compareTo(key) < 0) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static String key(String name) {
+		return name.trim().toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,290 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * A query result stored column by column. Integer, floating point and
+ * DATE columns are kept in primitive arrays (DATE as days since the
+ * epoch), and every other column is dictionary encoded, so a row costs
+ * no per-value objects and repeated strings such as city names are held
+ * once. Column types are taken from the ResultSetMetaData of the query.
+ *
+ * The result is filled by handing it to executeQueryAndStream as the row
+ * callback. Rows and columns are both indexed from 0. A query that
+ * returns no rows also reports no columns.
+ */
+
+public class ColumnarResult implements RowCallback {
+	// storage classes of a column
+	public static final int INT = 0;
+	public static final int LONG = 1;
+	public static final int DOUBLE = 2;
+	public static final int DATE = 3;
+	public static final int STRING = 4;
+
+	private Column[] columns = new Column[0];
+	private int rowCount = 0;
+	private int capacity = 0;
+
+	/**
+	 * Appends the current row of the result set. The columns are set up
+	 * from the metadata on the first row.
+	 *
+	 * @param rs the result set positioned on the current row
+	 * @return always true, every row is kept
+	 * @throws java.sql.SQLException when a column cannot be read
+	 */
+	public boolean row(ResultSet rs) throws SQLException {
+		if (rowCount == 0) {
+			init(rs.getMetaData());
+		}
+		if (rowCount == capacity) {
+			capacity = Math.max(16, capacity * 2);
+			for (Column column : columns) {
+				column.grow(capacity);
+			}
+		}
+		for (int i = 0; i < columns.length; ++i) {
+			columns[i].read(rs, i + 1, rowCount);
+		}
+		rowCount++;
+		return true;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	public String getColumnName(int col) {
+		return columns[col].name;
+	}
+
+	/**
+	 * @param col the column index
+	 * @return one of INT, LONG, DOUBLE, DATE or STRING
+	 */
+	public int getColumnType(int col) {
+		return columns[col].type;
+	}
+
+	/**
+	 * @param name the column label, compared case-insensitively
+	 * @return the column index, or -1 when there is no such column
+	 */
+	public int findColumn(String name) {
+		for (int i = 0; i < columns.length; ++i) {
+			if (columns[i].name.equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean isNull(int row, int col) {
+		checkRow(row);
+		return columns[col].nulls.get(row);
+	}
+
+	/**
+	 * @return the value of a numeric column as an int, 0 for NULL
+	 */
+	public int getInt(int row, int col) {
+		checkRow(row);
+		Column column = columns[col];
+		switch (column.type) {
+			case INT: return column.ints[row];
+			case LONG: return (int) column.longs[row];
+			case DOUBLE: return (int) column.doubles[row];
+			default: throw new IllegalArgumentException("Column " + column.name + " is not numeric");
+		}
+	}
+
+	/**
+	 * @return the value of a numeric column as a long, 0 for NULL
+	 */
+	public long getLong(int row, int col) {
+		checkRow(row);
+		Column column = columns[col];
+		switch (column.type) {
+			case INT: return column.ints[row];
+			case LONG: return column.longs[row];
+			case DOUBLE: return (long) column.doubles[row];
+			default: throw new IllegalArgumentException("Column " + column.name + " is not numeric");
+		}
+	}
+
+	/**
+	 * @return the value of a numeric column as a double, 0 for NULL
+	 */
+	public double getDouble(int row, int col) {
+		checkRow(row);
+		Column column = columns[col];
+		switch (column.type) {
+			case INT: return column.ints[row];
+			case LONG: return column.longs[row];
+			case DOUBLE: return column.doubles[row];
+			default: throw new IllegalArgumentException("Column " + column.name + " is not numeric");
+		}
+	}
+
+	/**
+	 * @return the value of a DATE column as days since 1970-01-01
+	 */
+	public int getEpochDay(int row, int col) {
+		checkRow(row);
+		Column column = columns[col];
+		if (column.type != DATE) {
+			throw new IllegalArgumentException("Column " + column.name + " is not a date");
+		}
+		return column.ints[row];
+	}
+
+	/**
+	 * Formats any column as text. Dates use the ISO yyyy-mm-dd form the
+	 * database prints.
+	 *
+	 * @return the value as a String, or null for NULL
+	 */
+	public String getString(int row, int col) {
+		checkRow(row);
+		Column column = columns[col];
+		if (column.nulls.get(row)) {
+			return null;
+		}
+		switch (column.type) {
+			case INT: return String.valueOf(column.ints[row]);
+			case LONG: return String.valueOf(column.longs[row]);
+			case DOUBLE: return String.valueOf(column.doubles[row]);
+			case DATE: return LocalDate.ofEpochDay(column.ints[row]).toString();
+			default: return column.dictionary.get(column.ints[row]);
+		}
+	}
+
+	/**
+	 * @return the number of distinct values of a STRING column
+	 */
+	public int getDistinctCount(int col) {
+		Column column = columns[col];
+		if (column.type != STRING) {
+			throw new IllegalArgumentException("Column " + column.name + " is not dictionary encoded");
+		}
+		return column.dictionary.size();
+	}
+
+	private void init(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		columns = new Column[numCol];
+		for (int i = 0; i < numCol; ++i) {
+			columns[i] = new Column(rsmd.getColumnLabel(i + 1), storageType(rsmd.getColumnType(i + 1)));
+		}
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= rowCount) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+		}
+	}
+
+	private static int storageType(int sqlType) {
+		switch (sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+				return INT;
+			case Types.BIGINT:
+				return LONG;
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				return DOUBLE;
+			case Types.DATE:
+				return DATE;
+			default:
+				return STRING;
+		}
+	}
+
+	/**
+	 * The values of one column. INT, DATE and STRING share the int array;
+	 * for STRING it holds the dictionary codes.
+	 */
+	private static class Column {
+		final String name;
+		final int type;
+		final BitSet nulls = new BitSet();
+		int[] ints;
+		long[] longs;
+		double[] doubles;
+		ArrayList<String> dictionary;
+		HashMap<String, Integer> codes;
+
+		Column(String name, int type) {
+			this.name = name;
+			this.type = type;
+			if (type == STRING) {
+				dictionary = new ArrayList<String>();
+				codes = new HashMap<String, Integer>();
+			}
+		}
+
+		void grow(int capacity) {
+			switch (type) {
+				case LONG:
+					longs = longs == null ? new long[capacity] : Arrays.copyOf(longs, capacity);
+					break;
+				case DOUBLE:
+					doubles = doubles == null ? new double[capacity] : Arrays.copyOf(doubles, capacity);
+					break;
+				default:
+					ints = ints == null ? new int[capacity] : Arrays.copyOf(ints, capacity);
+			}
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			switch (type) {
+				case INT:
+					ints[row] = rs.getInt(index);
+					break;
+				case LONG:
+					longs[row] = rs.getLong(index);
+					break;
+				case DOUBLE:
+					doubles[row] = rs.getDouble(index);
+					break;
+				case DATE:
+					Date date = rs.getDate(index);
+					ints[row] = date == null ? 0 : (int) date.toLocalDate().toEpochDay();
+					break;
+				default:
+					String value = rs.getString(index);
+					if (value == null) {
+						ints[row] = -1;
+						break;
+					}
+					Integer code = codes.get(value);
+					if (code == null) {
+						code = dictionary.size();
+						dictionary.add(value);
+						codes.put(value, code);
+					}
+					ints[row] = code;
+			}
+			if (rs.wasNull()) {
+				nulls.set(row);
+			}
+		}
+	}
+}
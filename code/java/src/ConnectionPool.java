@@ -0,0 +1,308 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.
+ * Connections are borrowed for the duration of a single operation and
+ * returned afterwards, so independent operations can run in parallel
+ * without each paying for a connect.
+ *
+ */
+
+public class ConnectionPool {
+	// connection parameters
+	private final String url;
+	private final String user;
+	private final String passwd;
+
+	// pool configuration
+	private final int minSize;
+	private final int maxSize;
+	private final long idleTimeoutMillis;
+	private final long borrowTimeoutMillis;
+	private final int validationTimeoutSeconds;
+
+	// idle connections, most recently returned first
+	private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+	private final ScheduledExecutorService evictor;
+	private int total = 0;
+	private boolean closed = false;
+
+	// metrics
+	private long created = 0;
+	private long destroyed = 0;
+	private long borrowed = 0;
+	private long evicted = 0;
+	private long validationFailures = 0;
+	private long borrowTimeouts = 0;
+	private long waitNanos = 0;
+
+	/**
+	 * Creates the pool and opens minSize connections eagerly.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @param minSize connections kept open even when idle
+	 * @param maxSize upper bound on open connections
+	 * @param idleTimeoutMillis idle time after which a connection above minSize is closed
+	 * @param borrowTimeoutMillis how long borrow() waits for a free connection
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+			long idleTimeoutMillis, long borrowTimeoutMillis) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+		}
+		this.url = url;
+		this.user = user;
+		this.passwd = passwd;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.validationTimeoutSeconds = 2;
+
+		synchronized (this) {
+			for (int i = 0; i < minSize; ++i) {
+				idle.addFirst(open());
+			}
+		}
+
+		// evicts connections that sat idle for too long
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "connection-pool-evictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a pool whose sizes and timeouts are read from the system
+	 * properties airbooking.pool.min, airbooking.pool.max,
+	 * airbooking.pool.idleTimeoutMs and airbooking.pool.borrowTimeoutMs.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @return the configured pool
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public static ConnectionPool fromSystemProperties(String url, String user, String passwd) throws SQLException {
+		int min = Integer.getInteger("airbooking.pool.min", 1);
+		int max = Integer.getInteger("airbooking.pool.max", 8);
+		long idleTimeout = Long.getLong("airbooking.pool.idleTimeoutMs", 60000L);
+		long borrowTimeout = Long.getLong("airbooking.pool.borrowTimeoutMs", 30000L);
+		return new ConnectionPool(url, user, passwd, min, max, idleTimeout, borrowTimeout);
+	}
+
+	/**
+	 * Borrows a validated connection, opening a new one if the pool is below
+	 * maxSize, otherwise waiting until one is returned.
+	 *
+	 * @return a connection that must be handed back with release()
+	 * @throws java.sql.SQLException when no connection is available in time
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+		while (true) {
+			PooledConnection conn = null;
+			boolean mayOpen = false;
+			synchronized (this) {
+				while (true) {
+					if (closed) {
+						throw new SQLException("Connection pool is closed");
+					}
+					if (!idle.isEmpty()) {
+						conn = idle.pollFirst();
+						break;
+					}
+					if (total < maxSize) {
+						// reserve the slot, connect outside the lock
+						total++;
+						mayOpen = true;
+						break;
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						borrowTimeouts++;
+						throw new SQLException("Timed out waiting for a pooled connection (max " + maxSize + ")");
+					}
+					try {
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a pooled connection");
+					}
+				}
+			}
+			if (mayOpen) {
+				try {
+					conn = connect();
+				} catch (SQLException e) {
+					synchronized (this) {
+						total--;
+						notifyAll();
+					}
+					throw e;
+				}
+			}
+			else if (!validate(conn)) {
+				continue;
+			}
+			synchronized (this) {
+				borrowed++;
+				waitNanos += System.nanoTime() - start;
+			}
+			return conn;
+		}
+	}
+
+	/**
+	 * Returns a borrowed connection to the pool.
+	 *
+	 * @param conn the connection obtained from borrow()
+	 */
+	public void release(PooledConnection conn) {
+		if (conn == null) {
+			return;
+		}
+		// the connection can no longer be cancelled by the task that used it
+		CancelToken.released(conn);
+		boolean discard = false;
+		try {
+			if (conn.getConnection().isClosed()) {
+				discard = true;
+			}
+			else if (!conn.getConnection().getAutoCommit()) {
+				// never hand out a connection with an open transaction
+				conn.getConnection().rollback();
+				conn.getConnection().setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			discard = true;
+		}
+		synchronized (this) {
+			if (discard || closed) {
+				total--;
+				destroyed++;
+			}
+			else {
+				conn.touch();
+				idle.addFirst(conn);
+			}
+			notifyAll();
+		}
+		if (discard || closed) {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Closes all idle connections and refuses further borrows. Connections
+	 * still in use are closed when they are released.
+	 */
+	public void close() {
+		evictor.shutdownNow();
+		synchronized (this) {
+			closed = true;
+			while (!idle.isEmpty()) {
+				idle.pollFirst().close();
+				total--;
+				destroyed++;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return a one-line summary of the pool metrics
+	 */
+	public synchronized String getMetrics() {
+		long avgWaitMicros = borrowed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanos / borrowed);
+		return String.format("pool: open=%d idle=%d active=%d min=%d max=%d created=%d destroyed=%d evicted=%d borrowed=%d avgWait=%dus timeouts=%d validationFailures=%d",
+			total, idle.size(), total - idle.size(), minSize, maxSize, created, destroyed, evicted, borrowed,
+			avgWaitMicros, borrowTimeouts, validationFailures);
+	}
+
+	public synchronized int getOpenCount() { return total; }
+
+	public synchronized int getIdleCount() { return idle.size(); }
+
+	public synchronized long getBorrowCount() { return borrowed; }
+
+	// caller must hold the lock; used while filling the pool
+	private PooledConnection open() throws SQLException {
+		PooledConnection conn = new PooledConnection(DriverManager.getConnection(url, user, passwd));
+		total++;
+		created++;
+		return conn;
+	}
+
+	private PooledConnection connect() throws SQLException {
+		Connection c = DriverManager.getConnection(url, user, passwd);
+		synchronized (this) {
+			created++;
+		}
+		return new PooledConnection(c);
+	}
+
+	private boolean validate(PooledConnection conn) {
+		boolean valid;
+		try {
+			valid = conn.getConnection().isValid(validationTimeoutSeconds);
+		} catch (SQLException e) {
+			valid = false;
+		}
+		if (!valid) {
+			conn.close();
+			synchronized (this) {
+				total--;
+				destroyed++;
+				validationFailures++;
+				notifyAll();
+			}
+		}
+		return valid;
+	}
+
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		Deque<PooledConnection> expired = new ArrayDeque<PooledConnection>();
+		synchronized (this) {
+			// oldest connections sit at the tail of the deque
+			Iterator<PooledConnection> it = idle.descendingIterator();
+			while (it.hasNext() && total > minSize) {
+				PooledConnection conn = it.next();
+				if (now - conn.getLastUsed() < idleTimeoutMillis) {
+					break;
+				}
+				it.remove();
+				total--;
+				destroyed++;
+				evicted++;
+				expired.add(conn);
+			}
+		}
+		for (PooledConnection conn : expired) {
+			conn.close();
+		}
+	}
+}
@@ -0,0 +1,282 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds itineraries of up to maxLegs flights between two cities, shortest
+ * total duration first, over the in-memory RouteGraph.
+ *
+ * The search is an A* over partial itineraries. Before it starts, a
+ * backward pass over the graph computes for every city and every number
+ * of remaining legs the shortest duration to the destination. That bound
+ * is exact for unconstrained paths, so itineraries reach the destination
+ * in order of total duration and the search stops after the k-th one.
+ * The same table prunes every flight to a city from which the
+ * destination cannot be reached in the legs left. Itineraries never visit
+ * a city twice.
+ *
+ * Every search has a time budget. When it runs out, the itineraries found
+ * so far are returned, still in order, and the result is marked
+ * incomplete.
+ */
+
+public class ConnectionSearch {
+	private static final int UNREACHABLE = Integer.MAX_VALUE;
+	// pops between two checks of the clock
+	private static final int CLOCK_INTERVAL = 256;
+
+	private final RouteGraph _routes;
+	private final int maxLegs;
+	private final int limit;
+	private final long budgetMillis;
+
+	/**
+	 * @param routes the route graph to search
+	 * @param maxLegs the largest number of flights in an itinerary
+	 * @param limit the number of itineraries returned
+	 * @param budgetMillis the time a search may take
+	 */
+	public ConnectionSearch(RouteGraph routes, int maxLegs, int limit, long budgetMillis) {
+		if (maxLegs <= 0 || limit <= 0 || budgetMillis <= 0) {
+			throw new IllegalArgumentException("Search limits must be positive");
+		}
+		this._routes = routes;
+		this.maxLegs = maxLegs;
+		this.limit = limit;
+		this.budgetMillis = budgetMillis;
+	}
+
+	/**
+	 * Creates a search limited by the airbooking.connections.maxLegs,
+	 * airbooking.connections.limit and airbooking.connections.budgetMs
+	 * system properties.
+	 *
+	 * @param routes the route graph to search
+	 * @return the search
+	 */
+	public static ConnectionSearch fromSystemProperties(RouteGraph routes) {
+		return new ConnectionSearch(routes,
+			Integer.getInteger("airbooking.connections.maxLegs", 3),
+			Integer.getInteger("airbooking.connections.limit", 10),
+			Long.getLong("airbooking.connections.budgetMs", 100L));
+	}
+
+	public int getMaxLegs() {
+		return maxLegs;
+	}
+
+	/**
+	 * @param origin the departure city
+	 * @param destination the arrival city
+	 * @return the shortest itineraries, shortest first
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public Result search(String origin, String destination) throws SQLException {
+		long deadline = System.nanoTime() + budgetMillis * 1000000L;
+		RouteGraph.Snapshot graph = _routes.snapshot();
+		List<Itinerary> found = new ArrayList<Itinerary>();
+		int from = graph.cityId(origin);
+		int to = graph.cityId(destination);
+		if (from < 0 || to < 0 || from == to) {
+			return new Result(found, true);
+		}
+
+		int[][] bound = lowerBounds(graph, to);
+		if (bound[maxLegs][from] == UNREACHABLE) {
+			return new Result(found, true);
+		}
+
+		PriorityQueue<Label> queue = new PriorityQueue<Label>();
+		queue.add(new Label(null, from, -1, 0, bound[maxLegs][from]));
+		int pops = 0;
+		while (!queue.isEmpty()) {
+			if (++pops % CLOCK_INTERVAL == 0 && System.nanoTime() > deadline) {
+				return new Result(found, false);
+			}
+			Label label = queue.poll();
+			if (label.city == to) {
+				found.add(label.toItinerary(graph));
+				if (found.size() == limit) {
+					break;
+				}
+				continue;
+			}
+			if (label.legs == maxLegs) {
+				continue;
+			}
+			int[] remaining = bound[maxLegs - label.legs - 1];
+			for (int e = graph.edgeStart[label.city]; e < graph.edgeStart[label.city + 1]; ++e) {
+				int next = graph.edgeDest[e];
+				// the destination cannot be reached from next in the legs left
+				if (remaining[next] == UNREACHABLE || label.visits(next)) {
+					continue;
+				}
+				for (int f = graph.flightStart[e]; f < graph.flightStart[e + 1]; ++f) {
+					int duration = label.duration + graph.flights[f].getDuration();
+					queue.add(new Label(label, next, f, duration, duration + remaining[next]));
+				}
+			}
+		}
+		return new Result(found, true);
+	}
+
+	// bound[l][c] is the shortest duration from c to the destination in at most l flights
+	private int[][] lowerBounds(RouteGraph.Snapshot graph, int to) {
+		int cities = graph.cityNames.length;
+		int[][] bound = new int[maxLegs + 1][];
+		bound[0] = new int[cities];
+		Arrays.fill(bound[0], UNREACHABLE);
+		bound[0][to] = 0;
+		for (int l = 1; l <= maxLegs; ++l) {
+			int[] previous = bound[l - 1];
+			int[] current = previous.clone();
+			boolean changed = false;
+			for (int city = 0; city < cities; ++city) {
+				for (int e = graph.edgeStart[city]; e < graph.edgeStart[city + 1]; ++e) {
+					int rest = previous[graph.edgeDest[e]];
+					if (rest != UNREACHABLE && graph.edgeMinDuration[e] + rest < current[city]) {
+						current[city] = graph.edgeMinDuration[e] + rest;
+						changed = true;
+					}
+				}
+			}
+			bound[l] = current;
+			if (!changed) {
+				// more legs do not shorten anything
+				for (int rest = l + 1; rest <= maxLegs; ++rest) {
+					bound[rest] = current;
+				}
+				break;
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * A partial itinerary: the last flight taken and the itinerary before it.
+	 */
+	private static class Label implements Comparable<Label> {
+		final Label parent;
+		final int city;
+		final int flight;
+		final int legs;
+		final int duration;
+		// duration plus the bound of the rest of the trip
+		final int estimate;
+
+		Label(Label parent, int city, int flight, int duration, int estimate) {
+			this.parent = parent;
+			this.city = city;
+			this.flight = flight;
+			this.legs = parent == null ? 0 : parent.legs + 1;
+			this.duration = duration;
+			this.estimate = estimate;
+		}
+
+		boolean visits(int other) {
+			for (Label l = this; l != null; l = l.parent) {
+				if (l.city == other) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		Itinerary toItinerary(RouteGraph.Snapshot graph) {
+			List<RouteGraph.Flight> flights = new ArrayList<RouteGraph.Flight>(legs);
+			for (Label l = this; l.parent != null; l = l.parent) {
+				flights.add(graph.flights[l.flight]);
+			}
+			Collections.reverse(flights);
+			return new Itinerary(flights, duration);
+		}
+
+		public int compareTo(Label other) {
+			if (estimate != other.estimate) {
+				return estimate < other.estimate ? -1 : 1;
+			}
+			// fewer legs first among equally long itineraries
+			return legs - other.legs;
+		}
+	}
+
+	/**
+	 * A sequence of flights from the origin to the destination.
+	 */
+	public static class Itinerary {
+		private final List<RouteGraph.Flight> flights;
+		private final int duration;
+
+		Itinerary(List<RouteGraph.Flight> flights, int duration) {
+			this.flights = Collections.unmodifiableList(flights);
+			this.duration = duration;
+		}
+
+		public List<RouteGraph.Flight> getFlights() {
+			return flights;
+		}
+
+		public int getLegCount() {
+			return flights.size();
+		}
+
+		public int getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return the flight numbers joined by " -> "
+		 */
+		public String getFlightNums() {
+			StringBuilder sb = new StringBuilder();
+			for (RouteGraph.Flight flight : flights) {
+				if (sb.length() > 0) {
+					sb.append(" -> ");
+				}
+				sb.append(flight.getFlightNum().trim());
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * @return the cities of the itinerary joined by " -> "
+		 */
+		public String getCities() {
+			StringBuilder sb = new StringBuilder(flights.get(0).getOrigin().trim());
+			for (RouteGraph.Flight flight : flights) {
+				sb.append(" -> ").append(flight.getDestination().trim());
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * The itineraries of one search.
+	 */
+	public static class Result {
+		private final List<Itinerary> itineraries;
+		private final boolean complete;
+
+		Result(List<Itinerary> itineraries, boolean complete) {
+			this.itineraries = itineraries;
+			this.complete = complete;
+		}
+
+		/**
+		 * @return the itineraries found, shortest first
+		 */
+		public List<Itinerary> getItineraries() {
+			return itineraries;
+		}
+
+		/**
+		 * @return false when the time budget ran out before the search ended
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+	}
+}
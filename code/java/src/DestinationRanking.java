@@ -0,0 +1,168 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the number of flights per destination in memory, ordered from
+ * the most to the least served destination, so the k most popular
+ * destinations are read in O(k) without a GROUP BY over Flight.
+ *
+ * The counts are loaded from Flight on first use. None of the front ends
+ * writes Flight, so the counts are only replaced by a periodic resync,
+ * which picks up flights loaded or changed by anyone else.
+ */
+
+public class DestinationRanking {
+	private static final Comparator<Entry> MOST_FLIGHTS_FIRST = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			if (a.count != b.count) {
+				return a.count > b.count ? -1 : 1;
+			}
+			return a.destination.compareTo(b.destination);
+		}
+	};
+
+	private final ConnectionPool _pool;
+	private TreeSet<Entry> ranking = new TreeSet<Entry>(MOST_FLIGHTS_FIRST);
+	private boolean loaded = false;
+	private ScheduledExecutorService resyncer = null;
+
+	public DestinationRanking(ConnectionPool pool) {
+		this._pool = pool;
+	}
+
+	/**
+	 * @param k the number of destinations wanted
+	 * @return at most k destinations, most flights first
+	 * @throws java.sql.SQLException when the counts cannot be loaded
+	 */
+	public List<Entry> top(int k) throws SQLException {
+		return page(null, k);
+	}
+
+	/**
+	 * Reads the ranking one page at a time. The page starts right after
+	 * the given entry in ranking order, so pages stay consistent when
+	 * counts change or a resync replaces the entries in between.
+	 *
+	 * @param after the last entry of the previous page, null for the first page
+	 * @param limit the number of destinations wanted
+	 * @return at most limit destinations following after, most flights first
+	 * @throws java.sql.SQLException when the counts cannot be loaded
+	 */
+	public synchronized List<Entry> page(Entry after, int limit) throws SQLException {
+		if (!loaded) {
+			resync();
+		}
+		List<Entry> page = new ArrayList<Entry>(Math.min(Math.max(limit, 0), ranking.size()));
+		Iterator<Entry> it = (after == null ? ranking : ranking.tailSet(after, false)).iterator();
+		while (page.size() < limit && it.hasNext()) {
+			page.add(it.next());
+		}
+		return page;
+	}
+
+	/**
+	 * @return the number of distinct destinations
+	 * @throws java.sql.SQLException when the counts cannot be loaded
+	 */
+	public synchronized int size() throws SQLException {
+		if (!loaded) {
+			resync();
+		}
+		return ranking.size();
+	}
+
+	/**
+	 * Replaces the counts with a fresh GROUP BY over Flight.
+	 *
+	 * @throws java.sql.SQLException when the counts cannot be read
+	 */
+	public void resync() throws SQLException {
+		TreeSet<Entry> freshRanking = new TreeSet<Entry>(MOST_FLIGHTS_FIRST);
+		PooledConnection conn = this._pool.borrow();
+		try {
+			PreparedStatement stmt = conn.prepare("SELECT destination, count(*) FROM Flight GROUP BY destination;");
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				Entry entry = new Entry(rs.getString(1), rs.getInt(2));
+				freshRanking.add(entry);
+			}
+			rs.close();
+		} finally {
+			this._pool.release(conn);
+		}
+		synchronized (this) {
+			ranking = freshRanking;
+			loaded = true;
+		}
+	}
+
+	/**
+	 * Calls resync() every periodMillis on a daemon thread.
+	 *
+	 * @param periodMillis the time between two resyncs, 0 or less to disable
+	 */
+	public synchronized void startResync(long periodMillis) {
+		if (periodMillis <= 0 || resyncer != null) {
+			return;
+		}
+		resyncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "destination-ranking-resync");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		resyncer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					resync();
+				} catch (SQLException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic resync.
+	 */
+	public synchronized void close() {
+		if (resyncer != null) {
+			resyncer.shutdownNow();
+			resyncer = null;
+		}
+	}
+
+	/**
+	 * One destination and its number of flights. Entries are immutable;
+	 * a resync replaces them all.
+	 */
+	public static class Entry {
+		private final String destination;
+		private final int count;
+
+		Entry(String destination, int count) {
+			this.destination = destination;
+			this.count = count;
+		}
+
+		public String getDestination() {
+			return destination;
+		}
+
+		public int getCount() {
+			return count;
+		}
+	}
+}
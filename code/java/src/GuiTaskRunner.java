@@ -0,0 +1,210 @@
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs the database work of the GUI on a pool of worker threads, so the
+ * event dispatch thread never waits for PostgreSQL.
+ *
+ * A task's call() runs on a worker with a CancelToken attached, and its
+ * outcome is handed to succeeded() or failed() on the event dispatch
+ * thread. While tasks run, the status label shows what is in progress;
+ * when the last one ends it shows the runtime of that task, which
+ * succeeded() may replace.
+ *
+ * Tasks are identified by their description. Submitting a task cancels
+ * the running task with the same description, whose outcome is then
+ * dropped (only finished() is still called), so a screen that reloads
+ * on every selection only ever shows the latest result. cancelAll()
+ * cancels everything, e.g. on Esc or when leaving a screen.
+ *
+ * submit() and cancelAll() must be called on the event dispatch thread.
+ */
+
+public class GuiTaskRunner {
+	private final ExecutorService workers;
+	private final JLabel status;
+	// running tasks by description, only touched on the event dispatch thread
+	private final HashMap<String, Handle> running = new HashMap<String, Handle>();
+
+	/**
+	 * @param status the label showing the progress of the tasks
+	 * @param threads the number of worker threads
+	 */
+	public GuiTaskRunner(JLabel status, int threads) {
+		this.status = status;
+		final AtomicInteger count = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "gui-worker-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Creates a runner with airbooking.gui.workers threads, 2 by default.
+	 *
+	 * @param status the label showing the progress of the tasks
+	 * @return the runner
+	 */
+	public static GuiTaskRunner fromSystemProperties(JLabel status) {
+		return new GuiTaskRunner(status, Integer.getInteger("airbooking.gui.workers", 2));
+	}
+
+	/**
+	 * Starts a task, cancelling the running task with the same description.
+	 *
+	 * @param description what the task does, shown while it runs
+	 * @param task the task
+	 * @return a handle to cancel the task
+	 */
+	public <T> Handle submit(final String description, final Task<T> task) {
+		Handle previous = running.get(description);
+		if (previous != null) {
+			previous.cancel();
+		}
+		final Handle handle = new Handle(description);
+		running.put(description, handle);
+		showProgress();
+		workers.execute(new Runnable() {
+			public void run() {
+				long startTime = System.currentTimeMillis();
+				T result = null;
+				Exception error = null;
+				handle.token.attach();
+				try {
+					result = task.call();
+				} catch (Exception e) {
+					error = e;
+				} finally {
+					CancelToken.detach();
+				}
+				final long runtime = System.currentTimeMillis() - startTime;
+				final T value = result;
+				final Exception failure = error;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						finish(handle, task, value, failure, runtime);
+					}
+				});
+			}
+		});
+		return handle;
+	}
+
+	/**
+	 * Cancels every running task.
+	 */
+	public void cancelAll() {
+		for (Handle handle : running.values()) {
+			handle.cancel();
+		}
+	}
+
+	/**
+	 * Cancels every running task and stops the workers.
+	 */
+	public void close() {
+		cancelAll();
+		workers.shutdownNow();
+	}
+
+	private <T> void finish(Handle handle, Task<T> task, T result, Exception error, long runtime) {
+		if (running.get(handle.description) == handle) {
+			running.remove(handle.description);
+		}
+		if (handle.token.isCancelled()) {
+			if (running.isEmpty()) {
+				status.setText("Cancelled");
+			}
+			else {
+				showProgress();
+			}
+			task.finished();
+			return;
+		}
+		if (running.isEmpty()) {
+			status.setText("Runtime: " + runtime + " ms");
+		}
+		else {
+			showProgress();
+		}
+		if (error == null) {
+			task.succeeded(result);
+		}
+		else {
+			task.failed(error);
+		}
+		task.finished();
+	}
+
+	private void showProgress() {
+		String text = "";
+		for (String description : running.keySet()) {
+			text += (text.length() == 0 ? "" : ", ") + description;
+		}
+		status.setText(text + "... (Esc to cancel)");
+	}
+
+	/**
+	 * Work done on a worker thread, with its outcome applied on the event
+	 * dispatch thread. Fields of the task written by call() can be read by
+	 * succeeded() and failed().
+	 */
+	public abstract static class Task<T> {
+		/**
+		 * Runs on a worker thread; must not touch Swing components.
+		 */
+		public abstract T call() throws Exception;
+
+		/**
+		 * Runs on the event dispatch thread with the result of call().
+		 */
+		public void succeeded(T result) {
+		}
+
+		/**
+		 * Runs on the event dispatch thread when call() threw.
+		 */
+		public void failed(Exception e) {
+			System.err.println (e.getMessage());
+		}
+
+		/**
+		 * Runs on the event dispatch thread after the task ended, also when
+		 * it was cancelled.
+		 */
+		public void finished() {
+		}
+	}
+
+	/**
+	 * A submitted task.
+	 */
+	public static class Handle {
+		private final String description;
+		private final CancelToken token = new CancelToken();
+
+		Handle(String description) {
+			this.description = description;
+		}
+
+		/**
+		 * Cancels the database work of the task and drops its outcome.
+		 */
+		public void cancel() {
+			token.cancel();
+		}
+
+		public boolean isCancelled() {
+			return token.isCancelled();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Hands out the lowest unused integer key of a table, reusing gaps left
+ * by deleted rows. The used keys are read once into a bitmap; a second,
+ * 64 times smaller bitmap marks the words that are completely used, so
+ * the lowest free key is found by skipping full blocks of 4096 keys at a
+ * time instead of walking every row.
+ *
+ * The allocator is shared by all threads of one client. Other processes
+ * may still take the same key between allocate() and the INSERT, so the
+ * INSERT must be guarded by the primary key (see BookingService.addPassenger), and a
+ * key that turns out to be taken is simply kept marked as used.
+ */
+
+public class IdAllocator {
+	private final ConnectionPool _pool;
+	private final String loadQuery;
+
+	// bit i of words[i >> 6] is set when key i is used
+	private long[] words = new long[0];
+	// bit w of full[w >> 6] is set when words[w] has no free bit
+	private long[] full = new long[0];
+	// no word below this index has a free bit
+	private int firstOpenWord = 0;
+	private int used = 0;
+	private boolean loaded = false;
+
+	/**
+	 * @param pool the pool used to load the existing keys
+	 * @param table the table whose keys are allocated
+	 * @param column the non-negative integer key column
+	 */
+	public IdAllocator(ConnectionPool pool, String table, String column) {
+		this._pool = pool;
+		this.loadQuery = "SELECT " + column + " FROM " + table + ";";
+	}
+
+	/**
+	 * Reserves the lowest key that is neither in the table nor handed out
+	 * already. The existing keys are loaded on the first call.
+	 *
+	 * @return the reserved key
+	 * @throws java.sql.SQLException when the existing keys cannot be loaded
+	 */
+	public synchronized int allocate() throws SQLException {
+		if (!loaded) {
+			load();
+		}
+		int id = lowestFree();
+		set(id);
+		return id;
+	}
+
+	/**
+	 * Returns a key whose INSERT did not happen, so it can be handed out again.
+	 *
+	 * @param id a key obtained from allocate()
+	 */
+	public synchronized void release(int id) {
+		int w = id >> 6;
+		if (w >= words.length || (words[w] & (1L << id)) == 0) {
+			return;
+		}
+		words[w] &= ~(1L << id);
+		full[w >> 6] &= ~(1L << w);
+		used--;
+		if (w < firstOpenWord) {
+			firstOpenWord = w;
+		}
+	}
+
+	/**
+	 * Records a key that was inserted without going through allocate().
+	 *
+	 * @param id the key now in use
+	 */
+	public synchronized void markUsed(int id) {
+		if (loaded && id >= 0) {
+			set(id);
+		}
+	}
+
+	/**
+	 * Forgets the bitmap, so the keys are read again on the next allocate().
+	 * Needed after rows are deleted outside this client.
+	 */
+	public synchronized void reload() {
+		words = new long[0];
+		full = new long[0];
+		firstOpenWord = 0;
+		used = 0;
+		loaded = false;
+	}
+
+	/**
+	 * @return the number of keys known to be in use
+	 */
+	public synchronized int getUsedCount() {
+		return used;
+	}
+
+	// caller must hold the lock
+	private void load() throws SQLException {
+		PooledConnection conn = this._pool.borrow();
+		try {
+			// reads the keys through a cursor instead of all at once
+			conn.getConnection().setAutoCommit(false);
+			PreparedStatement stmt = conn.prepare(loadQuery);
+			stmt.setFetchSize(Integer.getInteger("airbooking.fetchSize", 500));
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				int id = rs.getInt(1);
+				if (id >= 0) {
+					set(id);
+				}
+			}
+			rs.close();
+			conn.getConnection().commit();
+			loaded = true;
+		} finally {
+			this._pool.release(conn);
+		}
+	}
+
+	private int lowestFree() {
+		for (int s = firstOpenWord >> 6; s < full.length; ++s) {
+			if (full[s] == -1L) {
+				continue;
+			}
+			int w = (s << 6) + Long.numberOfTrailingZeros(~full[s]);
+			if (w >= words.length) {
+				break;
+			}
+			firstOpenWord = w;
+			return (w << 6) + Long.numberOfTrailingZeros(~words[w]);
+		}
+		// every loaded key is used, continue right after them
+		firstOpenWord = words.length;
+		return words.length << 6;
+	}
+
+	private void set(int id) {
+		int w = id >> 6;
+		if (w >= words.length) {
+			grow(w + 1);
+		}
+		if ((words[w] & (1L << id)) != 0) {
+			return;
+		}
+		words[w] |= 1L << id;
+		used++;
+		if (words[w] == -1L) {
+			full[w >> 6] |= 1L << w;
+		}
+	}
+
+	private void grow(int minWords) {
+		int size = Math.max(minWords, Math.max(16, words.length * 2));
+		words = Arrays.copyOf(words, size);
+		full = Arrays.copyOf(full, (size + 63) >> 6);
+	}
+}
@@ -0,0 +1,224 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Bloom filter over the values of one key column, such as
+ * Passenger.passNum, so a lookup of a value that does not exist is
+ * answered without a round trip to the database.
+ *
+ * The filter is loaded from the table by load() and sized for twice the
+ * rows found, or airbooking.filters.expected keys when that is set.
+ * Values inserted by this client are reported through add(); a periodic
+ * resync rebuilds the filter, which picks up rows inserted by anyone
+ * else and resizes it for a grown table. Until then, a value inserted by
+ * another client is reported as absent, so a negative answer may only
+ * be trusted where a constraint on the column backs it up, such as the
+ * uniqueness check before an insert. Until the first load every value is
+ * reported as possibly present, so callers fall back to the database.
+ */
+
+public class KeyFilter {
+	private static final long MIN_EXPECTED = 1024;
+
+	private final ConnectionPool _pool;
+	private final String table;
+	private final String column;
+	private final long expected;
+	private final double fpp;
+	private volatile BloomFilter filter = null;
+	// the filter a load is filling, which adds go to as well
+	private volatile BloomFilter building = null;
+	private ScheduledExecutorService resyncer = null;
+
+	private final AtomicLong absent = new AtomicLong();
+	private final AtomicLong present = new AtomicLong();
+	private final AtomicLong falsePositives = new AtomicLong();
+
+	/**
+	 * @param pool the pool the values are read through
+	 * @param table the table holding the values
+	 * @param column the key column, compared without trailing spaces
+	 * @param expected the number of keys the filter is sized for, 0 for twice the rows at load time
+	 * @param fpp the wanted false-positive probability
+	 */
+	public KeyFilter(ConnectionPool pool, String table, String column, long expected, double fpp) {
+		this._pool = pool;
+		this.table = table;
+		this.column = column;
+		this.expected = expected;
+		this.fpp = fpp;
+	}
+
+	/**
+	 * Creates a filter configured by the airbooking.filters.* properties:
+	 * expected (0, twice the rows at load time) and fpp (0.01).
+	 */
+	public static KeyFilter fromSystemProperties(ConnectionPool pool, String table, String column) {
+		return new KeyFilter(pool, table, column, Long.getLong("airbooking.filters.expected", 0L),
+			Double.parseDouble(System.getProperty("airbooking.filters.fpp", "0.01")));
+	}
+
+	/**
+	 * @param key the value looked up
+	 * @return false when no row has the value, true when one may have it
+	 */
+	public boolean mightContain(String key) {
+		BloomFilter current = filter;
+		if (current == null) {
+			return true;
+		}
+		if (current.mightContain(trim(key))) {
+			present.incrementAndGet();
+			return true;
+		}
+		absent.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Adds a value inserted by this client.
+	 */
+	public void add(String key) {
+		String trimmed = trim(key);
+		BloomFilter current = filter;
+		if (current != null) {
+			current.add(trimmed);
+		}
+		BloomFilter next = building;
+		if (next != null) {
+			next.add(trimmed);
+		}
+	}
+
+	/**
+	 * Counts a value that mightContain reported as present but that no
+	 * row has, to report the false-positive rate seen.
+	 */
+	public void falsePositive() {
+		falsePositives.incrementAndGet();
+	}
+
+	/**
+	 * Rebuilds the filter from the table. Values added while it runs go
+	 * to the old and the new filter, so none is lost.
+	 *
+	 * @throws java.sql.SQLException when the values cannot be read
+	 */
+	public synchronized void load() throws SQLException {
+		PooledConnection conn = this._pool.borrow();
+		try {
+			PreparedStatement count = conn.prepare("SELECT count(*) FROM " + table + ";");
+			ResultSet rs = count.executeQuery();
+			long rows = rs.next() ? rs.getLong(1) : 0;
+			rs.close();
+			BloomFilter fresh = new BloomFilter(expected > 0 ? expected : Math.max(2 * rows, MIN_EXPECTED), fpp);
+			building = fresh;
+
+			// the driver only uses a cursor inside a transaction
+			conn.getConnection().setAutoCommit(false);
+			PreparedStatement stmt = conn.prepare("SELECT " + column + " FROM " + table + ";");
+			stmt.setFetchSize(10000);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				fresh.add(trim(rs.getString(1)));
+			}
+			rs.close();
+			conn.getConnection().commit();
+			filter = fresh;
+		} finally {
+			building = null;
+			// the pool restores autocommit before the connection is reused
+			this._pool.release(conn);
+		}
+	}
+
+	/**
+	 * Calls load() every periodMillis on a daemon thread.
+	 *
+	 * @param periodMillis the time between two loads, 0 or less to disable
+	 */
+	public synchronized void startResync(long periodMillis) {
+		if (periodMillis <= 0 || resyncer != null) {
+			return;
+		}
+		resyncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "key-filter-resync");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		resyncer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					load();
+				} catch (SQLException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic resync.
+	 */
+	public void close() {
+		ScheduledExecutorService stopping;
+		synchronized (this) {
+			stopping = resyncer;
+			resyncer = null;
+		}
+		if (stopping != null) {
+			stopping.shutdownNow();
+		}
+	}
+
+	// CHAR values come back padded and compare without trailing spaces
+	private static String trim(String key) {
+		int end = key.length();
+		while (end > 0 && key.charAt(end - 1) == ' ') {
+			--end;
+		}
+		return key.substring(0, end);
+	}
+
+	/**
+	 * @return true once the filter was loaded
+	 */
+	public boolean isLoaded() {
+		return filter != null;
+	}
+
+	/**
+	 * @return the current filter, or null before the first load
+	 */
+	public BloomFilter getFilter() {
+		return filter;
+	}
+
+	public long getAbsent() { return absent.get(); }
+
+	public long getFalsePositives() { return falsePositives.get(); }
+
+	/**
+	 * @return a one-line summary of the filter size and counters
+	 */
+	public String getMetrics() {
+		BloomFilter current = filter;
+		String name = table + "." + column + " filter: ";
+		if (current == null) {
+			return name + "not loaded";
+		}
+		long p = present.get();
+		long fp = falsePositives.get();
+		return String.format("%sexpected=%d memory=%dKB hashes=%d fpp=%.2f%% estimatedFpp=%.3f%% absent=%d present=%d falsePositives=%d",
+			name, current.getExpected(), current.getMemoryBytes() / 1024, current.getHashCount(), current.getTargetFpp() * 100,
+			current.getEstimatedFpp() * 100, absent.get(), p, fp);
+	}
+}
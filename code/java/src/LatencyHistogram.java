@@ -0,0 +1,147 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A latency histogram with bounded relative error, after HdrHistogram.
+ *
+ * Values are recorded in microseconds. Values below 128 get a bucket
+ * each; above that, every power of two is split into 64 buckets, so a
+ * reported value is at most 1/64 above the recorded one whatever its
+ * magnitude. The bucket array has a fixed size, recording takes no lock
+ * and allocates nothing, and any number of threads can record at a time.
+ */
+
+public class LatencyHistogram {
+	private static final int LINEAR = 128;
+	private static final int SUB_BUCKETS = 64;
+	private static final int BUCKETS = LINEAR + 56 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final DoubleAdder squares = new DoubleAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param micros the latency in microseconds, negative values count as 0
+	 */
+	public void record(long micros) {
+		long value = Math.max(0, micros);
+		counts.incrementAndGet(bucket(value));
+		total.incrementAndGet();
+		sum.addAndGet(value);
+		squares.add((double) value * value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+		}
+	}
+
+	public long getCount() {
+		return total.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long count = total.get();
+		return count == 0 ? 0 : (double) sum.get() / count;
+	}
+
+	public double getStdDeviation() {
+		long count = total.get();
+		if (count == 0) {
+			return 0;
+		}
+		double mean = getMean();
+		return Math.sqrt(Math.max(0, squares.sum() / count - mean * mean));
+	}
+
+	/**
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the highest value of the bucket holding that percentile, in microseconds
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = total.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highest(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Prints the percentile distribution in the .hgrm format of
+	 * HdrHistogram, so the HdrHistogram plotter can chart it. Values are
+	 * printed in milliseconds.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void printDistribution(PrintStream out) {
+		long count = total.get();
+		out.printf("%12s %14s %10s %14s\n\n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+		if (count > 0) {
+			// five steps for every halving of the distance to 100%
+			for (int half = 0; ; ++half) {
+				double base = 100 * (1 - Math.pow(0.5, half));
+				double step = 100 * Math.pow(0.5, half + 1) / 5;
+				boolean last = false;
+				for (int tick = 0; tick < 5 && !last; ++tick) {
+					double percentile = base + tick * step;
+					long value = getValueAtPercentile(percentile);
+					last = value >= max.get();
+					printLine(out, value, last ? 100 : percentile, count);
+				}
+				if (last) {
+					break;
+				}
+			}
+		}
+		out.printf("#[Mean    = %12.3f, StdDeviation   = %12.3f]\n", getMean() / 1000, getStdDeviation() / 1000);
+		out.printf("#[Max     = %12.3f, Total count    = %12d]\n", max.get() / 1000.0, count);
+		out.printf("#[Buckets = %12d, SubBuckets     = %12d]\n", BUCKETS, SUB_BUCKETS);
+	}
+
+	private void printLine(PrintStream out, long value, double percentile, long count) {
+		long below = 0;
+		for (int i = 0; i < BUCKETS && lowest(i) <= value; ++i) {
+			below += counts.get(i);
+		}
+		String inverse = percentile >= 100 ? "" : String.format("%14.2f", 1 / (1 - percentile / 100));
+		out.printf("%12.3f %14.12f %10d %s\n", value / 1000.0, percentile / 100, below, inverse);
+	}
+
+	private static int bucket(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+		return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+	}
+
+	private static long lowest(int bucket) {
+		if (bucket < LINEAR) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+		return (long) ((bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+	}
+
+	private static long highest(int bucket) {
+		if (bucket < LINEAR) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+		return lowest(bucket) + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,420 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates many travel agents using one BookingService at a time.
+ *
+ * Each client runs on its own virtual thread when the JVM has them
+ * (Java 21 and later), otherwise on a platform thread, and picks its
+ * operations at random from a weighted mix of adding passengers, booking,
+ * reviewing and the listings. In a closed loop a client starts its next
+ * operation when the previous one returned, after an optional think
+ * time. In an open loop the clients together start operations at a fixed
+ * rate whether or not the earlier ones returned, and a latency is counted
+ * from the time the operation was due, so a stalled database shows up in
+ * the percentiles instead of slowing the arrivals down.
+ *
+ * Latencies are recorded per operation in a LatencyHistogram, and errors
+ * are counted per operation, separating unique violations such as a
+ * second booking of the same passenger on the same departure, and sold
+ * out departures. Like BookingBenchmark, it only creates passengers with
+ * its own passport numbers and departures, and deletes those passengers
+ * by pID at the end.
+ */
+
+public class LoadDriver {
+	// passport numbers of the agents' passengers are this and eight digits
+	private static final String PREFIX = "LD";
+	// the agents book departures from this date on
+	private static final LocalDate FIRST_DEPARTURE = LocalDate.of(2091, 1, 1);
+	// SQLState of a unique constraint violation
+	private static final String UNIQUE_VIOLATION = "23505";
+	// the entries of the mix, a list is one of the five listings
+	private static final String[] MIX = { "add", "book", "review", "list" };
+	private static final String[] OPERATIONS = { "add", "book", "review", "flights", "destinations", "routes", "duration", "seats" };
+
+	private final BookingService esql;
+	private final int clients;
+	private final boolean open;
+	private final double rate;
+	private final long thinkMillis;
+	private final long warmupMillis;
+	private final long durationMillis;
+	private final int departureDays;
+	private final long seed;
+	// the cumulative weights of the mix entries
+	private final int[] weights = new int[MIX.length];
+
+	private final Map<String, Stats> stats = new LinkedHashMap<String, Stats>();
+	// the data set and the rows the agents created, guarded by this
+	private final List<String[]> routes = new ArrayList<String[]>();
+	private final List<String[]> departures = new ArrayList<String[]>();
+	private final List<String> flightNums = new ArrayList<String>();
+	private final List<Integer> passengers = new ArrayList<Integer>();
+	private final List<Object[]> bookings = new ArrayList<Object[]>();
+	private final AtomicLong passNums = new AtomicLong();
+
+	/**
+	 * @param esql the operations to run
+	 * @param clients the number of simulated agents
+	 * @param mix the weights of add, book, review and list, as in "add=10,book=40,review=10,list=40"
+	 * @param rate the operations started per second by all clients together, 0 for a closed loop
+	 * @param thinkMillis the pause of a client between two operations in a closed loop
+	 * @param warmupMillis the time run before latencies are recorded
+	 * @param durationMillis the time latencies are recorded
+	 * @param departureDays the number of departures booked on; fewer days give more duplicate bookings
+	 * @param seed the seed of the random choices
+	 */
+	public LoadDriver(BookingService esql, int clients, String mix, double rate, long thinkMillis,
+			long warmupMillis, long durationMillis, int departureDays, long seed) {
+		this.esql = esql;
+		this.clients = clients;
+		this.open = rate > 0;
+		this.rate = rate;
+		this.thinkMillis = thinkMillis;
+		this.warmupMillis = warmupMillis;
+		this.durationMillis = durationMillis;
+		this.departureDays = departureDays;
+		this.seed = seed;
+		Map<String, Integer> parsed = new LinkedHashMap<String, Integer>();
+		for (String entry : mix.split(",")) {
+			String[] pair = entry.trim().split("=");
+			if (pair.length != 2) {
+				throw new IllegalArgumentException("Invalid mix entry: " + entry);
+			}
+			parsed.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+		}
+		int total = 0;
+		for (int i = 0; i < MIX.length; ++i) {
+			Integer weight = parsed.remove(MIX[i]);
+			total += weight == null ? 0 : weight;
+			weights[i] = total;
+		}
+		for (String op : OPERATIONS) {
+			stats.put(op, new Stats());
+		}
+		if (!parsed.isEmpty()) {
+			throw new IllegalArgumentException("Unknown operations in mix: " + parsed.keySet());
+		}
+		if (total == 0) {
+			throw new IllegalArgumentException("The mix selects no operation: " + mix);
+		}
+	}
+
+	/**
+	 * Creates a driver configured by the airbooking.load.* properties:
+	 * clients (50), mix ("add=10,book=40,review=10,list=40"), rate (0, a
+	 * closed loop), thinkMs (0), warmupMs (10000), durationMs (60000),
+	 * departures (7) and seed (42).
+	 *
+	 * @param esql the operations to run
+	 * @return the driver
+	 */
+	public static LoadDriver fromSystemProperties(BookingService esql) {
+		return new LoadDriver(esql,
+			Integer.getInteger("airbooking.load.clients", 50),
+			System.getProperty("airbooking.load.mix", "add=10,book=40,review=10,list=40"),
+			Double.parseDouble(System.getProperty("airbooking.load.rate", "0")),
+			Long.getLong("airbooking.load.thinkMs", 0L),
+			Long.getLong("airbooking.load.warmupMs", 10000L),
+			Long.getLong("airbooking.load.durationMs", 60000L),
+			Integer.getInteger("airbooking.load.departures", 7),
+			Long.getLong("airbooking.load.seed", 42L));
+	}
+
+	/**
+	 * Runs the clients for the warmup and the measured time, then deletes
+	 * the rows they created.
+	 *
+	 * @return the statistics per operation, by operation name
+	 * @throws Exception when the data set cannot be read
+	 */
+	public Map<String, Stats> run() throws Exception {
+		loadDataSet();
+		// continues after the passport numbers a crashed run may have left behind
+		passNums.set(BookingBenchmark.lastPassNum(esql, PREFIX));
+		ExecutorService executor = null;
+		try {
+			// every agent starts with a passenger to book for
+			for (int c = 0; c < clients; ++c) {
+				call("add", null);
+			}
+			final long start = System.nanoTime();
+			final long measured = start + warmupMillis * 1000000L;
+			final long end = measured + durationMillis * 1000000L;
+			executor = newClientExecutor(clients);
+			for (int c = 0; c < clients; ++c) {
+				final int client = c;
+				executor.execute(new Runnable() {
+					public void run() {
+						runClient(client, start, measured, end);
+					}
+				});
+			}
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			List<Integer> created;
+			synchronized (this) {
+				created = new ArrayList<Integer>(passengers);
+			}
+			BookingBenchmark.deleteRows(esql, created, FIRST_DEPARTURE);
+		}
+		return stats;
+	}
+
+	private void loadDataSet() throws SQLException {
+		RouteGraph graph = esql.getRouteGraph();
+		for (String origin : graph.getOrigins()) {
+			for (String destination : graph.getDestinations(origin)) {
+				routes.add(new String[] { origin, destination });
+			}
+		}
+		for (String flightNum : esql.findBookedFlightNums()) {
+			for (String departure : esql.findBookedDepartures(flightNum)) {
+				departures.add(new String[] { flightNum, departure });
+			}
+		}
+		flightNums.addAll(esql.findFlightNums());
+		if (routes.isEmpty() || departures.isEmpty()) {
+			throw new IllegalStateException("The database holds no data set, load it with scripts/createtb.sh");
+		}
+	}
+
+	private void runClient(int client, long start, long measured, long end) {
+		Random random = new Random(seed * 31 + client);
+		// in an open loop the clients take turns, each at rate / clients
+		long interval = open ? (long) (1e9 * clients / rate) : 0;
+		long due = open ? start + (long) (1e9 * client / rate) : System.nanoTime();
+		while (due < end && !Thread.currentThread().isInterrupted()) {
+			if (open) {
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					sleep(wait / 1000000L, (int) (wait % 1000000L));
+				}
+			}
+			else {
+				due = System.nanoTime();
+			}
+			int pick = random.nextInt(weights[weights.length - 1]);
+			int entry = 0;
+			while (pick >= weights[entry]) {
+				entry++;
+			}
+			String name = entry < 3 ? MIX[entry] : OPERATIONS[3 + random.nextInt(5)];
+			String error = null;
+			try {
+				call(name, random);
+			} catch (SQLException e) {
+				error = e.getSQLState();
+				if (error == null) {
+					error = "";
+				}
+			} catch (RuntimeException e) {
+				error = "";
+			}
+			long now = System.nanoTime();
+			if (due >= measured) {
+				stats.get(name).record((now - due) / 1000, error);
+			}
+			if (open) {
+				due += interval;
+			}
+			else if (thinkMillis > 0) {
+				sleep(thinkMillis, 0);
+			}
+		}
+	}
+
+	private void call(String name, Random random) throws SQLException {
+		if (name.equals("add")) {
+			String passNum = String.format("%s%08d", PREFIX, passNums.incrementAndGet());
+			if (!esql.passNumInUse(passNum)) {
+				int pID = esql.addPassenger(passNum, "Load Agent", "1990-01-01", "Loadland");
+				synchronized (this) {
+					passengers.add(pID);
+				}
+			}
+		}
+		else if (name.equals("book")) {
+			int pID;
+			synchronized (this) {
+				pID = passengers.get(random.nextInt(passengers.size()));
+			}
+			String flightNum = flightNums.get(random.nextInt(flightNums.size()));
+			String departure = FIRST_DEPARTURE.plusDays(random.nextInt(departureDays)).toString();
+			if (esql.bookFlight(departure, flightNum, pID) != null) {
+				synchronized (this) {
+					bookings.add(new Object[] { pID, flightNum });
+				}
+			}
+		}
+		else if (name.equals("review")) {
+			Object[] booking;
+			synchronized (this) {
+				booking = bookings.isEmpty() ? null : bookings.get(random.nextInt(bookings.size()));
+			}
+			if (booking != null && esql.canReview((Integer) booking[0], (String) booking[1])) {
+				esql.addReview((Integer) booking[0], (String) booking[1], random.nextInt(6), "Load test");
+			}
+		}
+		else if (name.equals("flights")) {
+			String[] route = routes.get(random.nextInt(routes.size()));
+			esql.findFlights(route[0], route[1]);
+			esql.findItineraries(route[0], route[1]);
+		}
+		else if (name.equals("destinations")) {
+			esql.topDestinations(10);
+		}
+		else if (name.equals("routes")) {
+			esql.topRatedRoutes(10);
+		}
+		else if (name.equals("duration")) {
+			String[] route = routes.get(random.nextInt(routes.size()));
+			esql.findLongestFlights(route[0], route[1], 10);
+		}
+		else {
+			String[] departure = departures.get(random.nextInt(departures.size()));
+			esql.seatsAvailable(departure[0], departure[1]);
+		}
+	}
+
+	private static void sleep(long millis, int nanos) {
+		try {
+			Thread.sleep(millis, nanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// one virtual thread per client on Java 21 and later, one platform thread each before
+	private static ExecutorService newClientExecutor(int clients) {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(clients);
+		}
+	}
+
+	/**
+	 * Prints one row per operation, and writes the latency distribution of
+	 * every operation to &lt;dir&gt;/&lt;operation&gt;.hgrm when dir is not null.
+	 *
+	 * @param out the stream to print the summary to
+	 * @param dir the directory of the .hgrm files, or null
+	 * @throws java.io.IOException when a file cannot be written
+	 */
+	public void report(PrintStream out, File dir) throws IOException {
+		double seconds = durationMillis / 1000.0;
+		out.printf("%s loop, %d clients%s, %.0f s measured\n", open ? "Open" : "Closed", clients,
+			open ? String.format(", %.1f ops/s offered", rate) : "", seconds);
+		out.printf("%-13s %9s %9s %9s %9s %9s %9s %9s %8s %8s %8s\n", "Operation", "count", "ops/s",
+			"mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "unique", "soldout");
+		for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+			Stats s = entry.getValue();
+			LatencyHistogram h = s.getLatencies();
+			if (h.getCount() == 0) {
+				continue;
+			}
+			out.printf("%-13s %9d %9.1f %9.3f %9.3f %9.3f %9.3f %9.3f %8d %8d %8d\n", entry.getKey(), h.getCount(),
+				h.getCount() / seconds, h.getMean() / 1000, h.getValueAtPercentile(50) / 1000.0,
+				h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0,
+				s.getErrors(), s.getUniqueViolations(), s.getSoldOut());
+			if (dir != null) {
+				PrintStream file = new PrintStream(new File(dir, entry.getKey() + ".hgrm"));
+				try {
+					h.printDistribution(file);
+				} finally {
+					file.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The latencies and errors of one operation. Failed calls are counted
+	 * in the latencies too.
+	 */
+	public static class Stats {
+		private final LatencyHistogram latencies = new LatencyHistogram();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong unique = new AtomicLong();
+		private final AtomicLong soldOut = new AtomicLong();
+
+		void record(long micros, String sqlState) {
+			latencies.record(micros);
+			if (sqlState == null) {
+				return;
+			}
+			errors.incrementAndGet();
+			if (UNIQUE_VIOLATION.equals(sqlState)) {
+				unique.incrementAndGet();
+			}
+			else if (SeatInventory.SOLD_OUT.equals(sqlState)) {
+				soldOut.incrementAndGet();
+			}
+		}
+
+		public LatencyHistogram getLatencies() { return latencies; }
+
+		/**
+		 * @return the failed calls, unique violations and sold out departures included
+		 */
+		public long getErrors() { return errors.get(); }
+
+		public long getUniqueViolations() { return unique.get(); }
+
+		public long getSoldOut() { return soldOut.get(); }
+	}
+
+	/**
+	 * Runs the driver.
+	 *
+	 * @param args the database name, port and user
+	 */
+	public static void main(String[] args) {
+		if (args.length != 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + LoadDriver.class.getName () +
+		            " <dbname> <port> <user>");
+			return;
+		}
+		try {
+			Class.forName("org.postgresql.Driver");
+		}catch(Exception e){
+			System.out.println("Where is your PostgreSQL JDBC Driver? " + "Include in your library path!");
+			e.printStackTrace();
+			return;
+		}
+		BookingService esql = BookingService.connect(args[0], args[1], args[2], "");
+		try {
+			LoadDriver driver = fromSystemProperties(esql);
+			driver.run();
+			String dir = System.getProperty("airbooking.load.hgrmDir");
+			driver.report(System.out, dir == null ? null : new File(dir));
+			System.out.println(esql.getPoolMetrics());
+		} catch (Exception e) {
+			System.err.println (e.getMessage ());
+		} finally {
+			esql.close();
+		}
+	}
+}
@@ -0,0 +1,277 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of one BookingService: a latency timer per operation, and
+ * counters of the SQL round trips, fetched rows and failed statements of
+ * the queries the operations issue.
+ *
+ * Recording takes no lock, so every operation can record on any thread.
+ * The metrics are read as a console summary, or in the Prometheus text
+ * format, which the HTTP server serves on /metrics and which can be
+ * written to a file periodically for a node exporter to pick up.
+ */
+
+public class Metrics {
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+	private final ConcurrentHashMap<String, AtomicLong> sqlErrors = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private final AtomicLong statements = new AtomicLong();
+	private final AtomicLong roundTrips = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private ScheduledExecutorService dumper = null;
+
+	/**
+	 * A value read when the metrics are reported, such as a pool size.
+	 */
+	public interface Gauge {
+		double value();
+	}
+
+	/**
+	 * Records one call of an operation.
+	 *
+	 * @param operation the operation name
+	 * @param startNanos System.nanoTime() when the call started
+	 */
+	public void record(String operation, long startNanos) {
+		timer(operation).latencies.record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	/**
+	 * Counts a call of an operation that threw.
+	 *
+	 * @param operation the operation name
+	 */
+	public void failed(String operation) {
+		timer(operation).errors.incrementAndGet();
+	}
+
+	/**
+	 * Counts one statement sent to the database.
+	 *
+	 * @param trips the round trips it took, fetches and commit included
+	 * @param fetched the rows read from its result
+	 */
+	public void executed(int trips, long fetched) {
+		statements.incrementAndGet();
+		roundTrips.addAndGet(trips);
+		rows.addAndGet(fetched);
+	}
+
+	/**
+	 * Counts a statement that failed, by SQLState.
+	 *
+	 * @param e the error
+	 */
+	public void failed(SQLException e) {
+		String state = e.getSQLState() == null ? "unknown" : e.getSQLState();
+		AtomicLong count = sqlErrors.get(state);
+		if (count == null) {
+			sqlErrors.putIfAbsent(state, new AtomicLong());
+			count = sqlErrors.get(state);
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Reports a gauge with the other metrics.
+	 *
+	 * @param name the Prometheus metric name
+	 * @param gauge reads the current value
+	 */
+	public void gauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	private Timer timer(String operation) {
+		Timer timer = timers.get(operation);
+		if (timer == null) {
+			timers.putIfAbsent(operation, new Timer());
+			timer = timers.get(operation);
+		}
+		return timer;
+	}
+
+	/**
+	 * @return the timers by operation name, in alphabetical order
+	 */
+	public Map<String, Timer> getTimers() {
+		return new TreeMap<String, Timer>(timers);
+	}
+
+	public long getStatements() { return statements.get(); }
+
+	public long getRoundTrips() { return roundTrips.get(); }
+
+	public long getRows() { return rows.get(); }
+
+	/**
+	 * @return the failed statements by SQLState, in order
+	 */
+	public Map<String, Long> getSqlErrors() {
+		Map<String, Long> errors = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : sqlErrors.entrySet()) {
+			errors.put(entry.getKey(), entry.getValue().get());
+		}
+		return errors;
+	}
+
+	/**
+	 * @return one line per operation called so far, then the SQL counters
+	 */
+	public String getSummary() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("%-22s %8s %8s %9s %9s %9s %9s %9s\n", "Operation", "calls", "errors",
+			"mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for (Map.Entry<String, Timer> entry : getTimers().entrySet()) {
+			LatencyHistogram h = entry.getValue().latencies;
+			out.append(String.format("%-22s %8d %8d %9.3f %9.3f %9.3f %9.3f %9.3f\n", entry.getKey(), h.getCount(),
+				entry.getValue().getErrors(), h.getMean() / 1000, h.getValueAtPercentile(50) / 1000.0,
+				h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0));
+		}
+		out.append(String.format("sql: statements=%d roundTrips=%d rows=%d errors=%s\n",
+			statements.get(), roundTrips.get(), rows.get(), getSqlErrors()));
+		return out.toString();
+	}
+
+	/**
+	 * @return the metrics in the Prometheus text exposition format
+	 */
+	public String toPrometheus() {
+		StringBuilder out = new StringBuilder();
+		Map<String, Timer> sorted = getTimers();
+		out.append("# HELP airbooking_operation_seconds Latency of the booking operations.\n");
+		out.append("# TYPE airbooking_operation_seconds summary\n");
+		for (Map.Entry<String, Timer> entry : sorted.entrySet()) {
+			LatencyHistogram h = entry.getValue().latencies;
+			String label = "operation=\"" + entry.getKey() + "\"";
+			for (double q : QUANTILES) {
+				out.append(String.format("airbooking_operation_seconds{%s,quantile=\"%s\"} %.6f\n", label, q,
+					h.getValueAtPercentile(q * 100) / 1e6));
+			}
+			out.append(String.format("airbooking_operation_seconds_sum{%s} %.6f\n", label, h.getMean() * h.getCount() / 1e6));
+			out.append(String.format("airbooking_operation_seconds_count{%s} %d\n", label, h.getCount()));
+		}
+		out.append("# HELP airbooking_operation_errors_total Booking operations that failed.\n");
+		out.append("# TYPE airbooking_operation_errors_total counter\n");
+		for (Map.Entry<String, Timer> entry : sorted.entrySet()) {
+			out.append(String.format("airbooking_operation_errors_total{operation=\"%s\"} %d\n", entry.getKey(), entry.getValue().getErrors()));
+		}
+		counter(out, "airbooking_sql_statements_total", "SQL statements sent.", statements.get());
+		counter(out, "airbooking_sql_round_trips_total", "Round trips to the database, fetches and commits included.", roundTrips.get());
+		counter(out, "airbooking_sql_rows_fetched_total", "Rows read from query results.", rows.get());
+		out.append("# HELP airbooking_sql_errors_total SQL statements that failed, by SQLState.\n");
+		out.append("# TYPE airbooking_sql_errors_total counter\n");
+		for (Map.Entry<String, Long> entry : getSqlErrors().entrySet()) {
+			out.append(String.format("airbooking_sql_errors_total{sqlstate=\"%s\"} %d\n", entry.getKey(), entry.getValue()));
+		}
+		for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()) {
+			out.append("# TYPE ").append(entry.getKey()).append(" gauge\n");
+			out.append(String.format("%s %s\n", entry.getKey(), format(entry.getValue().value())));
+		}
+		return out.toString();
+	}
+
+	private static void counter(StringBuilder out, String name, String help, long value) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" counter\n");
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static String format(double value) {
+		return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+	}
+
+	/**
+	 * Writes the Prometheus text to a file every periodMillis, replacing
+	 * the previous dump through a temporary file so readers never see a
+	 * partial one. A period of 0 or less disables the dump.
+	 *
+	 * @param file the file to write
+	 * @param periodMillis the time between two dumps
+	 */
+	public synchronized void startDump(final File file, long periodMillis) {
+		if (periodMillis <= 0 || dumper != null) {
+			return;
+		}
+		dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics-dump");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		dumper.scheduleAtFixedRate(new Runnable() {
+			// reports a failing file once, not on every period, until a dump succeeds again
+			private boolean failing = false;
+
+			public void run() {
+				try {
+					dump(file);
+					failing = false;
+				} catch (IOException e) {
+					if (!failing) {
+						System.err.println("Cannot write metrics to " + file + ": " + e.getMessage());
+						failing = true;
+					}
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the Prometheus text to a file once.
+	 *
+	 * @param file the file to write
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public void dump(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+		try {
+			out.write(toPrometheus());
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			throw new IOException("Cannot replace " + file);
+		}
+	}
+
+	/**
+	 * Stops the periodic dump.
+	 */
+	public synchronized void close() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+	}
+
+	/**
+	 * The latencies and the error count of one operation.
+	 */
+	public static class Timer {
+		private final LatencyHistogram latencies = new LatencyHistogram();
+		private final AtomicLong errors = new AtomicLong();
+
+		public LatencyHistogram getLatencies() { return latencies; }
+
+		public long getErrors() { return errors.get(); }
+	}
+}
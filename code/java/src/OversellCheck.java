@@ -0,0 +1,162 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that concurrent clients cannot oversell a departure. Many
+ * threads book the same flight and departure at once, with more
+ * passengers than the flight has seats, and the check passes when
+ * exactly seats bookings succeed, every other one is refused with
+ * SQLSTATE SeatInventory.SOLD_OUT, and countOversold() finds no
+ * oversold departure afterwards.
+ *
+ * It uses the flight with the fewest seats unless one is given, creates
+ * passengers with passport numbers of OS and eight digits, books them on
+ * a departure in 2092, and deletes those passengers by pID at the end.
+ */
+
+public class OversellCheck {
+	// passport numbers of the check's passengers are this and eight digits
+	private static final String PREFIX = "OS";
+	// the departure booked, far from any real one
+	private static final LocalDate DEPARTURE = LocalDate.of(2092, 1, 1);
+
+	private final BookingService esql;
+	private final int threads;
+	// passengers per seat, more than 1 to run past capacity
+	private final int overbooking;
+
+	/**
+	 * @param esql the operations to run
+	 * @param threads the threads booking at once
+	 * @param overbooking the passengers per seat of the flight, at least 2
+	 */
+	public OversellCheck(BookingService esql, int threads, int overbooking) {
+		if (threads <= 0 || overbooking < 2) {
+			throw new IllegalArgumentException("threads must be positive and overbooking at least 2");
+		}
+		this.esql = esql;
+		this.threads = threads;
+		this.overbooking = overbooking;
+	}
+
+	/**
+	 * Creates a check configured by the airbooking.oversell.* properties:
+	 * threads (32) and overbooking (2).
+	 */
+	public static OversellCheck fromSystemProperties(BookingService esql) {
+		return new OversellCheck(esql, Integer.getInteger("airbooking.oversell.threads", 32),
+			Integer.getInteger("airbooking.oversell.overbooking", 2));
+	}
+
+	/**
+	 * @param flightNum the flight to book, null for the one with the fewest seats
+	 * @return true when the check passed
+	 * @throws Exception when the data cannot be set up or removed
+	 */
+	public boolean run(String flightNum) throws Exception {
+		if (flightNum == null) {
+			List<String> smallest = esql.queryColumn("SELECT flightNum FROM Flight ORDER BY seats, flightNum LIMIT 1;");
+			if (smallest.isEmpty()) {
+				throw new IllegalStateException("No flight to book; load the data set first");
+			}
+			flightNum = smallest.get(0);
+		}
+		final String departure = DEPARTURE.toString();
+		BookingService.SeatAvailability before = esql.seatsAvailable(flightNum, departure);
+		if (before == null) {
+			throw new IllegalArgumentException("Unknown flight " + flightNum);
+		}
+		final int seats = before.getSeats();
+		final String flight = flightNum;
+		// continues after the passport numbers a crashed run may have left behind
+		long passNum = BookingBenchmark.lastPassNum(esql, PREFIX);
+		List<Integer> created = new ArrayList<Integer>();
+		try {
+			final int[] passengers = new int[seats * overbooking];
+			for (int i = 0; i < passengers.length; ++i) {
+				passengers[i] = esql.addPassenger(String.format("%s%08d", PREFIX, ++passNum), "Oversell Check", "1990-01-01", "Checkland");
+				created.add(passengers[i]);
+			}
+			System.out.printf("Booking %s on %s: %d seats, %d passengers, %d threads\n",
+				flight.trim(), departure, seats, passengers.length, threads);
+
+			final AtomicInteger next = new AtomicInteger();
+			final AtomicInteger booked = new AtomicInteger();
+			final AtomicInteger soldOut = new AtomicInteger();
+			final AtomicInteger errors = new AtomicInteger();
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; ++t) {
+				workers[t] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						int i;
+						while ((i = next.getAndIncrement()) < passengers.length) {
+							try {
+								// null when the trigger refused the booking with SOLD_OUT
+								if (esql.bookFlight(departure, flight, passengers[i]) != null) {
+									booked.incrementAndGet();
+								} else {
+									soldOut.incrementAndGet();
+								}
+							} catch (Exception e) {
+								errors.incrementAndGet();
+								System.err.println(e.getMessage());
+							}
+						}
+					}
+				}, "oversell-" + t);
+				workers[t].start();
+			}
+			start.countDown();
+			for (Thread worker : workers) {
+				worker.join();
+			}
+
+			int counted = esql.getSeatInventory().getBookedSeats(flight, departure);
+			int oversold = esql.getSeatInventory().countOversold();
+			System.out.printf("booked=%d soldOut=%d errors=%d inventory=%d oversoldDepartures=%d\n",
+				booked.get(), soldOut.get(), errors.get(), counted, oversold);
+			boolean passed = booked.get() == seats && soldOut.get() == passengers.length - seats
+				&& errors.get() == 0 && counted == seats && oversold == 0;
+			System.out.println(passed ? "PASSED" : "FAILED: expected " + seats + " bookings and "
+				+ (passengers.length - seats) + " refused with SQLSTATE " + SeatInventory.SOLD_OUT);
+			return passed;
+		} finally {
+			BookingBenchmark.deleteRows(esql, created, DEPARTURE);
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 3 && args.length != 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + OversellCheck.class.getName () +
+		            " <dbname> <port> <user> [<flightNum>]");
+			return;
+		}
+		try {
+			Class.forName("org.postgresql.Driver");
+		}catch(Exception e){
+			System.out.println("Where is your PostgreSQL JDBC Driver? " + "Include in your library path!");
+			e.printStackTrace();
+			return;
+		}
+		BookingService esql = BookingService.connect(args[0], args[1], args[2], "");
+		boolean passed = false;
+		try {
+			passed = fromSystemProperties(esql).run(args.length == 4 ? args[3] : null);
+		} catch (Exception e) {
+			System.err.println (e.getMessage ());
+		} finally {
+			esql.close();
+		}
+		System.exit(passed ? 0 : 1);
+	}
+}
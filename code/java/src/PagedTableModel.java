@@ -0,0 +1,229 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A table model that reads its rows one page at a time, as the table
+ * shows them, instead of copying a whole result up front.
+ *
+ * Pages are read with keyset pagination: the source is asked for the
+ * rows that follow the last row of the previous page, never for an
+ * offset. The model remembers that last row for every page read so far,
+ * so any page can be read again, but keeps only the rows of the
+ * cachedPages most recently shown pages. Rows of evicted pages show as
+ * blank until they are read again.
+ *
+ * The table grows as it is scrolled. While more rows may follow, one
+ * extra row shows "Loading...", and showing any row of the last page
+ * read already starts reading the next one. Pages are read by
+ * GuiTaskRunner tasks, so the model must only be used on the event
+ * dispatch thread.
+ */
+
+public class PagedTableModel<R> extends AbstractTableModel {
+	private static final long serialVersionUID = 1L;
+
+	private final String[] header;
+	private final Source<R> source;
+	private final GuiTaskRunner tasks;
+	private final int pageSize;
+	private final int cachedPages;
+
+	// the rows of the pages shown most recently, least recently shown first
+	private final LinkedHashMap<Integer, List<R>> pages;
+	// lastRows.get(p) is the last row of page p, the key of page p + 1
+	private final List<R> lastRows = new ArrayList<R>();
+	private final HashSet<Integer> loading = new HashSet<Integer>();
+	private int maxRows = 0;
+	private int rowCount = 0;
+	private boolean exhausted = true;
+	// tells the pages of an earlier reset() apart
+	private int generation = 0;
+
+	/**
+	 * @param header the column names
+	 * @param source reads the pages
+	 * @param tasks runs the reads in the background
+	 * @param pageSize the number of rows read at a time
+	 * @param cachedPages the number of pages kept in memory
+	 */
+	public PagedTableModel(String[] header, Source<R> source, GuiTaskRunner tasks, int pageSize, final int cachedPages) {
+		if (pageSize <= 0 || cachedPages <= 0) {
+			throw new IllegalArgumentException("Page size and cached pages must be positive");
+		}
+		this.header = header;
+		this.source = source;
+		this.tasks = tasks;
+		this.pageSize = pageSize;
+		this.cachedPages = cachedPages;
+		this.pages = new LinkedHashMap<Integer, List<R>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, List<R>> eldest) {
+				return size() > cachedPages;
+			}
+		};
+	}
+
+	/**
+	 * Creates a model reading airbooking.gui.pageSize rows at a time, 100
+	 * by default, and keeping airbooking.gui.cachedPages pages, 10 by
+	 * default.
+	 *
+	 * @param header the column names
+	 * @param source reads the pages
+	 * @param tasks runs the reads in the background
+	 * @return the model
+	 */
+	public static <R> PagedTableModel<R> fromSystemProperties(String[] header, Source<R> source, GuiTaskRunner tasks) {
+		return new PagedTableModel<R>(header, source, tasks,
+			Integer.getInteger("airbooking.gui.pageSize", 100),
+			Integer.getInteger("airbooking.gui.cachedPages", 10));
+	}
+
+	/**
+	 * Drops every row and starts over from the first page.
+	 *
+	 * @param maxRows the largest number of rows shown
+	 */
+	public void reset(int maxRows) {
+		generation++;
+		pages.clear();
+		lastRows.clear();
+		loading.clear();
+		this.maxRows = Math.max(maxRows, 0);
+		rowCount = 0;
+		exhausted = this.maxRows == 0;
+		fireTableDataChanged();
+	}
+
+	@Override
+	public int getRowCount() {
+		return exhausted ? rowCount : rowCount + 1;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return header.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return header[column];
+	}
+
+	@Override
+	public Object getValueAt(int row, int column) {
+		int p = row / pageSize;
+		// prefetches the next page as soon as the last one is shown
+		if (!exhausted && p + 1 >= lastRows.size()) {
+			load(lastRows.size());
+		}
+		if (row >= rowCount) {
+			return column == 0 ? "Loading..." : "";
+		}
+		List<R> page = pages.get(p);
+		if (page == null) {
+			load(p);
+			return "";
+		}
+		return source.value(page.get(row - p * pageSize), column);
+	}
+
+	private void load(final int p) {
+		if (loading.contains(p) || p > lastRows.size()) {
+			return;
+		}
+		final int from = p * pageSize;
+		final int limit = Math.min(pageSize, maxRows - from);
+		if (limit <= 0) {
+			return;
+		}
+		final R after = p == 0 ? null : lastRows.get(p - 1);
+		final int gen = generation;
+		loading.add(p);
+		tasks.submit("Loading rows " + (from + 1) + "-" + (from + limit), new GuiTaskRunner.Task<List<R>>() {
+			@Override
+			public List<R> call() throws Exception {
+				return source.page(after, limit);
+			}
+
+			@Override
+			public void succeeded(List<R> rows) {
+				if (gen == generation) {
+					loaded(p, rows, limit);
+				}
+			}
+
+			@Override
+			public void failed(Exception e) {
+				super.failed(e);
+				if (gen == generation && p == lastRows.size()) {
+					// stops growing instead of retrying on every repaint
+					int before = getRowCount();
+					exhausted = true;
+					fireTableRowsDeleted(rowCount, before - 1);
+				}
+			}
+
+			@Override
+			public void finished() {
+				if (gen == generation) {
+					loading.remove(p);
+				}
+			}
+		});
+	}
+
+	private void loaded(int p, List<R> rows, int limit) {
+		pages.put(p, rows);
+		int from = p * pageSize;
+		if (p < lastRows.size()) {
+			// a page read again after it was evicted
+			if (!rows.isEmpty()) {
+				fireTableRowsUpdated(from, Math.min(from + rows.size(), rowCount) - 1);
+			}
+			return;
+		}
+		int before = getRowCount();
+		if (!rows.isEmpty()) {
+			lastRows.add(rows.get(rows.size() - 1));
+			rowCount += rows.size();
+		}
+		if (rows.size() < limit || rowCount >= maxRows) {
+			exhausted = true;
+		}
+		int after = getRowCount();
+		if (after > before) {
+			fireTableRowsInserted(before, after - 1);
+		}
+		else if (after < before) {
+			fireTableRowsDeleted(after, before - 1);
+		}
+		if (from < Math.min(before, after)) {
+			fireTableRowsUpdated(from, Math.min(before, after) - 1);
+		}
+	}
+
+	/**
+	 * Reads the pages of a PagedTableModel and the values of their rows.
+	 */
+	public abstract static class Source<R> {
+		/**
+		 * Runs on a worker thread; must not touch Swing components.
+		 *
+		 * @param after the last row of the previous page, null for the first page
+		 * @param limit the number of rows wanted
+		 * @return at most limit rows following after
+		 */
+		public abstract List<R> page(R after, int limit) throws Exception;
+
+		/**
+		 * @return the value shown in the given column of a row
+		 */
+		public abstract Object value(R row, int column);
+	}
+}
@@ -0,0 +1,165 @@
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-through cache of passengers keyed by passport number, so the
+ * repeated lookups of one customer's interaction, and of agents working
+ * through a queue of customers, are answered from memory.
+ *
+ * The cache holds at most capacity passengers, evicting the least
+ * recently used, and reloads an entry once it is older than the TTL, so
+ * changes made by other processes show up after at most one TTL.
+ * Passport numbers that are not found are not cached: a passenger added
+ * elsewhere is seen on the next lookup. Inserts through this process
+ * invalidate their passport number explicitly.
+ *
+ * All methods can be called from any thread. Loads run outside the lock,
+ * so a slow query does not hold up hits on other passport numbers.
+ */
+
+public class PassengerCache {
+	/**
+	 * Reads a passenger from the database on a miss.
+	 */
+	public interface Loader {
+		/**
+		 * @return the passenger, or null when no passenger has that passport number
+		 */
+		BookingService.Passenger load(String passNum) throws SQLException;
+	}
+
+	private final Loader loader;
+	private final long ttlNanos;
+	private final LinkedHashMap<String, Cached> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	// bumped by every invalidation, so a load that raced one is not cached
+	private long generation = 0;
+
+	/**
+	 * @param loader reads a passenger on a miss
+	 * @param capacity the number of passengers kept
+	 * @param ttlMillis the time a passenger is served before it is read again
+	 */
+	public PassengerCache(Loader loader, final int capacity, long ttlMillis) {
+		if (capacity <= 0 || ttlMillis <= 0) {
+			throw new IllegalArgumentException("capacity and ttlMillis must be positive");
+		}
+		this.loader = loader;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+				if (size() <= capacity) {
+					return false;
+				}
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Creates a cache configured by the airbooking.passengerCache.*
+	 * properties: size (10000) and ttlMs (300000).
+	 */
+	public static PassengerCache fromSystemProperties(Loader loader) {
+		return new PassengerCache(loader,
+			Integer.getInteger("airbooking.passengerCache.size", 10000),
+			Long.getLong("airbooking.passengerCache.ttlMs", 300000L));
+	}
+
+	/**
+	 * @param passNum the passport number
+	 * @return the passenger, from memory when cached and fresh, or null when no passenger has that passport number
+	 * @throws java.sql.SQLException when the passenger cannot be loaded
+	 */
+	public BookingService.Passenger get(String passNum) throws SQLException {
+		String key = key(passNum);
+		long seen;
+		synchronized (this) {
+			Cached entry = entries.get(key);
+			if (entry != null) {
+				if (System.nanoTime() - entry.loadedAt < ttlNanos) {
+					hits.incrementAndGet();
+					return entry.passenger;
+				}
+				entries.remove(key);
+				expirations.incrementAndGet();
+			}
+			seen = generation;
+		}
+		misses.incrementAndGet();
+		BookingService.Passenger passenger = loader.load(passNum);
+		if (passenger != null) {
+			synchronized (this) {
+				if (generation == seen) {
+					entries.put(key, new Cached(passenger, System.nanoTime()));
+				}
+			}
+		}
+		return passenger;
+	}
+
+	/**
+	 * Forgets a passport number, e.g. after a passenger was inserted
+	 * under it.
+	 *
+	 * @param passNum the passport number
+	 */
+	public synchronized void invalidate(String passNum) {
+		++generation;
+		entries.remove(key(passNum));
+	}
+
+	/**
+	 * Forgets every passenger, e.g. after rows were deleted in bulk.
+	 */
+	public synchronized void clear() {
+		++generation;
+		entries.clear();
+	}
+
+	// CHAR comparison ignores trailing spaces, so the key does too
+	private static String key(String passNum) {
+		int end = passNum.length();
+		while (end > 0 && passNum.charAt(end - 1) == ' ') {
+			--end;
+		}
+		return passNum.substring(0, end);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long getHits() { return hits.get(); }
+
+	public long getMisses() { return misses.get(); }
+
+	/**
+	 * @return a one-line summary of the cache counters
+	 */
+	public String getMetrics() {
+		long h = hits.get();
+		long m = misses.get();
+		double ratio = (h + m) == 0 ? 0.0 : (100.0 * h) / (h + m);
+		return String.format("passenger cache: size=%d hits=%d misses=%d evictions=%d expirations=%d hitRatio=%.1f%%",
+			size(), h, m, evictions.get(), expirations.get(), ratio);
+	}
+
+	private static class Cached {
+		private final BookingService.Passenger passenger;
+		private final long loadedAt;
+
+		Cached(BookingService.Passenger passenger, long loadedAt) {
+			this.passenger = passenger;
+			this.loadedAt = loadedAt;
+		}
+	}
+}
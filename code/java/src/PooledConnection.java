@@ -0,0 +1,66 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A physical connection owned by a ConnectionPool, together with the
+ * bookkeeping the pool needs to evict it.
+ *
+ */
+
+public class PooledConnection {
+	//reference to physical database connection
+	private final Connection _connection;
+	private final PreparedStatementCache statementCache;
+	private volatile long lastUsed;
+
+	public PooledConnection(Connection connection) {
+		this._connection = connection;
+		this.statementCache = new PreparedStatementCache(connection, Integer.getInteger("airbooking.statementCache.size", 64));
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	public Connection getConnection() {
+		return this._connection;
+	}
+
+	/**
+	 * Returns the cached PreparedStatement for the SQL template on this
+	 * connection.
+	 *
+	 * @param sql the SQL template with ? placeholders
+	 * @return the prepared statement, with parameters cleared
+	 * @throws java.sql.SQLException when the statement cannot be prepared, or
+	 *         the task of the calling thread was cancelled
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this.statementCache.prepare(sql);
+		// lets a background task cancel the statement
+		CancelToken.prepared(this, stmt);
+		return stmt;
+	}
+
+	public PreparedStatementCache getStatementCache() {
+		return this.statementCache;
+	}
+
+	public long getLastUsed() {
+		return this.lastUsed;
+	}
+
+	void touch() {
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Method to close the physical connection, ignoring errors.
+	 */
+	void close() {
+		this.statementCache.clear();
+		try {
+			this._connection.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+}
@@ -0,0 +1,114 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least-recently-used cache of PreparedStatements for one physical
+ * connection, keyed by SQL template. Reusing the same statement lets the
+ * PostgreSQL driver keep a server-side prepared plan instead of parsing
+ * and planning the query again on every call.
+ *
+ * A cache belongs to a single PooledConnection and is only touched by the
+ * thread that currently borrows it, so it needs no locking of its own.
+ */
+
+public class PreparedStatementCache {
+	// hit/miss counters shared by the caches of every pooled connection
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+
+	private final Connection _connection;
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	/**
+	 * @param connection the physical connection the statements are prepared on
+	 * @param capacity the number of statements kept open
+	 */
+	public PreparedStatementCache(Connection connection, final int capacity) {
+		this._connection = connection;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= capacity) {
+					return false;
+				}
+				closeQuietly(eldest.getValue());
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached statement for the template, preparing it on a miss.
+	 * The statement stays owned by the cache; callers close only the
+	 * ResultSets they obtain from it.
+	 *
+	 * @param sql the SQL template with ? placeholders
+	 * @return the prepared statement, with parameters cleared
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if (stmt != null && !stmt.isClosed()) {
+			hits.incrementAndGet();
+			stmt.clearParameters();
+			return stmt;
+		}
+		misses.incrementAndGet();
+		stmt = this._connection.prepareStatement(sql);
+		statements.put(sql, stmt);
+		return stmt;
+	}
+
+	/**
+	 * Drops a statement that failed in a way that may have left it unusable.
+	 *
+	 * @param sql the SQL template to forget
+	 */
+	public void invalidate(String sql) {
+		PreparedStatement stmt = statements.remove(sql);
+		if (stmt != null) {
+			closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Closes every cached statement.
+	 */
+	public void clear() {
+		for (PreparedStatement stmt : statements.values()) {
+			closeQuietly(stmt);
+		}
+		statements.clear();
+	}
+
+	public int size() {
+		return statements.size();
+	}
+
+	public static long getHits() { return hits.get(); }
+
+	public static long getMisses() { return misses.get(); }
+
+	/**
+	 * @return a one-line summary of the cache counters across all connections
+	 */
+	public static String getMetrics() {
+		long h = hits.get();
+		long m = misses.get();
+		double ratio = (h + m) == 0 ? 0.0 : (100.0 * h) / (h + m);
+		return String.format("statement cache: hits=%d misses=%d evictions=%d hitRatio=%.1f%%", h, m, evictions.get(), ratio);
+	}
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+}
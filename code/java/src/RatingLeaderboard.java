@@ -0,0 +1,273 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a running score sum and rating count per flight, ordered by
+ * average score, so the k highest rated routes are read in O(k) instead
+ * of averaging Ratings over a three-way join on every request.
+ *
+ * The aggregates are rebuilt from Ratings when the client starts (and on
+ * first use if that failed). Ratings inserted by this client are added
+ * through ratingAdded; a periodic resync rebuilds them to pick up ratings
+ * written by other clients.
+ */
+
+public class RatingLeaderboard {
+	private static final Comparator<Entry> HIGHEST_AVERAGE_FIRST = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			// compares sumA/countA with sumB/countB without rounding
+			long lhs = a.sum * b.count;
+			long rhs = b.sum * a.count;
+			if (lhs != rhs) {
+				return lhs > rhs ? -1 : 1;
+			}
+			return a.flightNum.compareTo(b.flightNum);
+		}
+	};
+
+	private static final String ROUTE_COLUMNS = "SELECT A.name, F.flightNum, F.origin, F.destination, F.plane";
+
+	private final ConnectionPool _pool;
+	private HashMap<String, Entry> routes = new HashMap<String, Entry>();
+	private TreeSet<Entry> leaderboard = new TreeSet<Entry>(HIGHEST_AVERAGE_FIRST);
+	private boolean loaded = false;
+	// bumped by every rebuild, so a rating added across one is not counted twice
+	private long generation = 0;
+	private ScheduledExecutorService resyncer = null;
+
+	public RatingLeaderboard(ConnectionPool pool) {
+		this._pool = pool;
+	}
+
+	/**
+	 * @param k the number of routes wanted
+	 * @return at most k rated routes, highest average score first
+	 * @throws java.sql.SQLException when the aggregates cannot be rebuilt
+	 */
+	public List<Entry> top(int k) throws SQLException {
+		return page(null, k);
+	}
+
+	/**
+	 * Reads the leaderboard one page at a time. The page starts right
+	 * after the given entry in leaderboard order, so pages stay consistent
+	 * when ratings are added in between.
+	 *
+	 * @param after the last entry of the previous page, null for the first page
+	 * @param limit the number of routes wanted
+	 * @return at most limit rated routes following after, highest average score first
+	 * @throws java.sql.SQLException when the aggregates cannot be rebuilt
+	 */
+	public synchronized List<Entry> page(Entry after, int limit) throws SQLException {
+		if (!loaded) {
+			rebuild();
+		}
+		List<Entry> page = new ArrayList<Entry>(Math.min(Math.max(limit, 0), leaderboard.size()));
+		Iterator<Entry> it = (after == null ? leaderboard : leaderboard.tailSet(after, false)).iterator();
+		while (page.size() < limit && it.hasNext()) {
+			page.add(it.next());
+		}
+		return page;
+	}
+
+	/**
+	 * @return the number of rebuilds so far, to pass to ratingAdded
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Adds a rating inserted into Ratings to the aggregate of its flight.
+	 * The rating is dropped when a rebuild ran since seen, since that
+	 * rebuild may have read it from Ratings already; if it did not, the
+	 * next resync counts it.
+	 *
+	 * @param flightNum the rated flight
+	 * @param score the score of the rating
+	 * @param seen the generation read before the rating was inserted
+	 * @throws java.sql.SQLException when the route of a first rating cannot be read
+	 */
+	public void ratingAdded(String flightNum, int score, long seen) throws SQLException {
+		// CHAR(8) values come back padded, keys are trimmed
+		String key = flightNum.trim();
+		synchronized (this) {
+			if (!loaded || generation != seen) {
+				// the next rebuild includes the rating, or the last one did
+				return;
+			}
+			if (routes.containsKey(key)) {
+				add(key, null, score);
+				return;
+			}
+		}
+		// the first rating of a flight: read its route without holding the lock
+		Entry route = loadRoute(flightNum, score);
+		if (route == null) {
+			return;
+		}
+		synchronized (this) {
+			if (generation == seen) {
+				add(key, route, score);
+			}
+		}
+	}
+
+	/**
+	 * Recomputes every aggregate from Ratings.
+	 *
+	 * @throws java.sql.SQLException when the ratings cannot be read
+	 */
+	public void rebuild() throws SQLException {
+		HashMap<String, Entry> freshRoutes = new HashMap<String, Entry>();
+		TreeSet<Entry> freshLeaderboard = new TreeSet<Entry>(HIGHEST_AVERAGE_FIRST);
+		PooledConnection conn = this._pool.borrow();
+		try {
+			PreparedStatement stmt = conn.prepare(ROUTE_COLUMNS + ", R.total, R.ratings "
+				+ "FROM Flight F, Airline A, "
+				+ "(SELECT flightNum, sum(score) AS total, count(*) AS ratings FROM Ratings GROUP BY flightNum) AS R "
+				+ "WHERE F.flightNum = R.flightNum AND A.airId = F.airId;");
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				Entry entry = new Entry(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+					rs.getString(5), rs.getLong(6), rs.getLong(7));
+				freshRoutes.put(entry.flightNum.trim(), entry);
+				freshLeaderboard.add(entry);
+			}
+			rs.close();
+		} finally {
+			this._pool.release(conn);
+		}
+		synchronized (this) {
+			++generation;
+			routes = freshRoutes;
+			leaderboard = freshLeaderboard;
+			loaded = true;
+		}
+	}
+
+	/**
+	 * Calls rebuild() every periodMillis on a daemon thread.
+	 *
+	 * @param periodMillis the time between two rebuilds, 0 or less to disable
+	 */
+	public synchronized void startResync(long periodMillis) {
+		if (periodMillis <= 0 || resyncer != null) {
+			return;
+		}
+		resyncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "rating-leaderboard-resync");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		resyncer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					rebuild();
+				} catch (SQLException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic resync.
+	 */
+	public synchronized void close() {
+		if (resyncer != null) {
+			resyncer.shutdownNow();
+			resyncer = null;
+		}
+	}
+
+	// caller must hold the lock; route is the entry read for a first rating, used
+	// only when no other rating of the flight added one while the lock was free
+	private void add(String key, Entry route, int score) {
+		Entry old = routes.get(key);
+		Entry entry;
+		if (old == null) {
+			entry = route;
+		}
+		else {
+			leaderboard.remove(old);
+			entry = new Entry(old, old.sum + score, old.count + 1);
+		}
+		routes.put(key, entry);
+		leaderboard.add(entry);
+	}
+
+	private Entry loadRoute(String flightNum, int score) throws SQLException {
+		PooledConnection conn = this._pool.borrow();
+		try {
+			PreparedStatement stmt = conn.prepare(ROUTE_COLUMNS + " FROM Flight F, Airline A WHERE A.airId = F.airId AND F.flightNum = ?;");
+			stmt.setString(1, flightNum);
+			ResultSet rs = stmt.executeQuery();
+			Entry entry = null;
+			if (rs.next()) {
+				entry = new Entry(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), score, 1);
+			}
+			rs.close();
+			return entry;
+		} finally {
+			this._pool.release(conn);
+		}
+	}
+
+	/**
+	 * One rated route and its score aggregate. Entries are immutable; a new
+	 * rating replaces the entry.
+	 */
+	public static class Entry {
+		private final String airline;
+		private final String flightNum;
+		private final String origin;
+		private final String destination;
+		private final String plane;
+		private final long sum;
+		private final long count;
+
+		Entry(String airline, String flightNum, String origin, String destination, String plane, long sum, long count) {
+			this.airline = airline;
+			this.flightNum = flightNum;
+			this.origin = origin;
+			this.destination = destination;
+			this.plane = plane;
+			this.sum = sum;
+			this.count = count;
+		}
+
+		Entry(Entry route, long sum, long count) {
+			this(route.airline, route.flightNum, route.origin, route.destination, route.plane, sum, count);
+		}
+
+		public String getAirline() { return airline; }
+
+		public String getFlightNum() { return flightNum; }
+
+		public String getOrigin() { return origin; }
+
+		public String getDestination() { return destination; }
+
+		public String getPlane() { return plane; }
+
+		public long getRatingCount() { return count; }
+
+		public double getAverage() {
+			return (double) sum / count;
+		}
+	}
+}
@@ -0,0 +1,375 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory index of the routes in Flight, so origin and destination
+ * lists and route checks are answered without a database round trip.
+ *
+ * Cities are dictionary encoded as ids in alphabetical order. Each origin
+ * points to a range of destination ids, and each origin/destination edge
+ * to a range of flights, all in flat arrays. The arrays form an immutable
+ * snapshot that readers use without locking; loading the graph builds a
+ * new snapshot and swaps it in. None of the front ends writes Flight, so
+ * a periodic resync is what picks up flights loaded by anyone else.
+ *
+ * City names are matched after trimming, since the CHAR columns of
+ * Flight come back padded. Flight records keep the values as read.
+ */
+
+public class RouteGraph {
+	private final ConnectionPool _pool;
+	private volatile Snapshot current = null;
+	private ScheduledExecutorService resyncer = null;
+
+	public RouteGraph(ConnectionPool pool) {
+		this._pool = pool;
+	}
+
+	/**
+	 * @return every city that has an outgoing flight, in alphabetical order
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public List<String> getOrigins() throws SQLException {
+		Snapshot graph = snapshot();
+		List<String> origins = new ArrayList<String>();
+		for (int city = 0; city < graph.cityNames.length; ++city) {
+			if (graph.edgeStart[city + 1] > graph.edgeStart[city]) {
+				origins.add(graph.cityNames[city]);
+			}
+		}
+		return origins;
+	}
+
+	/**
+	 * @param origin the origin city
+	 * @return the cities reached directly from origin, in alphabetical order
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public List<String> getDestinations(String origin) throws SQLException {
+		Snapshot graph = snapshot();
+		List<String> destinations = new ArrayList<String>();
+		int city = graph.cityId(origin);
+		if (city < 0) {
+			return destinations;
+		}
+		for (int e = graph.edgeStart[city]; e < graph.edgeStart[city + 1]; ++e) {
+			destinations.add(graph.cityNames[graph.edgeDest[e]]);
+		}
+		return destinations;
+	}
+
+	/**
+	 * @return a prefix index over every city with a flight leaving or arriving
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public CityIndex getCityIndex() throws SQLException {
+		return snapshot().cityIndex;
+	}
+
+	/**
+	 * @return a prefix index over every city that has an outgoing flight
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public CityIndex getOriginIndex() throws SQLException {
+		return snapshot().originIndex;
+	}
+
+	/**
+	 * @param origin the origin city
+	 * @return a prefix index over the cities reached directly from origin
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public CityIndex getDestinationIndex(String origin) throws SQLException {
+		return new CityIndex(getDestinations(origin));
+	}
+
+	/**
+	 * @return true when at least one flight leaves from origin
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public boolean hasOrigin(String origin) throws SQLException {
+		Snapshot graph = snapshot();
+		int city = graph.cityId(origin);
+		return city >= 0 && graph.edgeStart[city + 1] > graph.edgeStart[city];
+	}
+
+	/**
+	 * @return true when at least one flight leaves from or arrives at city
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public boolean hasCity(String city) throws SQLException {
+		return snapshot().cityId(city) >= 0;
+	}
+
+	/**
+	 * @return true when at least one flight goes from origin to destination
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public boolean hasRoute(String origin, String destination) throws SQLException {
+		Snapshot graph = snapshot();
+		return graph.edge(graph.cityId(origin), graph.cityId(destination)) >= 0;
+	}
+
+	/**
+	 * @return the direct flights from origin to destination, by flight number
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public List<Flight> getFlights(String origin, String destination) throws SQLException {
+		Snapshot graph = snapshot();
+		int e = graph.edge(graph.cityId(origin), graph.cityId(destination));
+		if (e < 0) {
+			return new ArrayList<Flight>();
+		}
+		return new ArrayList<Flight>(Arrays.asList(graph.flights).subList(graph.flightStart[e], graph.flightStart[e + 1]));
+	}
+
+	/**
+	 * @return at most k direct flights from origin to destination, longest first
+	 * @throws java.sql.SQLException when the graph cannot be loaded
+	 */
+	public List<Flight> getLongestFlights(String origin, String destination, int k) throws SQLException {
+		List<Flight> flights = getFlights(origin, destination);
+		Collections.sort(flights, new Comparator<Flight>() {
+			public int compare(Flight a, Flight b) {
+				return b.duration - a.duration;
+			}
+		});
+		return flights.subList(0, Math.max(0, Math.min(k, flights.size())));
+	}
+
+	/**
+	 * Rebuilds the graph from Flight.
+	 *
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public void load() throws SQLException {
+		List<Flight> flights = new ArrayList<Flight>();
+		PooledConnection conn = this._pool.borrow();
+		try {
+			PreparedStatement stmt = conn.prepare("SELECT F.airId, A.name, F.flightNum, F.origin, F.destination, F.plane, F.seats, F.duration "
+				+ "FROM Flight F LEFT JOIN Airline A ON A.airId = F.airId;");
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				flights.add(new Flight(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4),
+					rs.getString(5), rs.getString(6), rs.getInt(7), rs.getInt(8)));
+			}
+			rs.close();
+		} finally {
+			this._pool.release(conn);
+		}
+		Snapshot graph = new Snapshot(flights);
+		synchronized (this) {
+			current = graph;
+		}
+	}
+
+	/**
+	 * Calls load() every periodMillis on a daemon thread, to pick up flights
+	 * written by other clients.
+	 *
+	 * @param periodMillis the time between two loads, 0 or less to disable
+	 */
+	public synchronized void startResync(long periodMillis) {
+		if (periodMillis <= 0 || resyncer != null) {
+			return;
+		}
+		resyncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "route-graph-resync");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		resyncer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					load();
+				} catch (SQLException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic resync.
+	 */
+	public synchronized void close() {
+		if (resyncer != null) {
+			resyncer.shutdownNow();
+			resyncer = null;
+		}
+	}
+
+	// the current snapshot, loaded on first use
+	Snapshot snapshot() throws SQLException {
+		Snapshot graph = current;
+		if (graph == null) {
+			load();
+			graph = current;
+		}
+		return graph;
+	}
+
+	/**
+	 * One row of Flight, with the name of its airline.
+	 */
+	public static class Flight {
+		private final int airId;
+		private final String airline;
+		private final String flightNum;
+		private final String origin;
+		private final String destination;
+		private final String plane;
+		private final int seats;
+		private final int duration;
+
+		public Flight(int airId, String airline, String flightNum, String origin, String destination,
+				String plane, int seats, int duration) {
+			this.airId = airId;
+			this.airline = airline;
+			this.flightNum = flightNum;
+			this.origin = origin;
+			this.destination = destination;
+			this.plane = plane;
+			this.seats = seats;
+			this.duration = duration;
+		}
+
+		public int getAirId() { return airId; }
+
+		public String getAirline() { return airline; }
+
+		public String getFlightNum() { return flightNum; }
+
+		public String getOrigin() { return origin; }
+
+		public String getDestination() { return destination; }
+
+		public String getPlane() { return plane; }
+
+		public int getSeats() { return seats; }
+
+		public int getDuration() { return duration; }
+	}
+
+	/**
+	 * The flat arrays of one version of the graph. The edges of city c are
+	 * edgeDest[edgeStart[c] .. edgeStart[c + 1]), sorted by destination id;
+	 * the flights of edge e are flights[flightStart[e] .. flightStart[e + 1]),
+	 * the shortest of them lasting edgeMinDuration[e].
+	 */
+	static class Snapshot {
+		final String[] cityNames;
+		final HashMap<String, Integer> cityIds = new HashMap<String, Integer>();
+		final int[] edgeStart;
+		final int[] edgeDest;
+		final int[] flightStart;
+		final int[] edgeMinDuration;
+		final Flight[] flights;
+		final CityIndex cityIndex;
+		final CityIndex originIndex;
+
+		Snapshot(List<Flight> flightList) {
+			TreeSet<String> names = new TreeSet<String>();
+			for (Flight flight : flightList) {
+				names.add(flight.origin.trim());
+				names.add(flight.destination.trim());
+			}
+			cityNames = names.toArray(new String[names.size()]);
+			for (int i = 0; i < cityNames.length; ++i) {
+				cityIds.put(cityNames[i], i);
+			}
+
+			// orders flights by origin, destination and flight number
+			flights = flightList.toArray(new Flight[flightList.size()]);
+			final int[] from = new int[flights.length];
+			final int[] to = new int[flights.length];
+			Integer[] order = new Integer[flights.length];
+			for (int i = 0; i < flights.length; ++i) {
+				from[i] = cityIds.get(flights[i].origin.trim());
+				to[i] = cityIds.get(flights[i].destination.trim());
+				order[i] = i;
+			}
+			final Flight[] unsorted = flights.clone();
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					if (from[a] != from[b]) {
+						return from[a] - from[b];
+					}
+					if (to[a] != to[b]) {
+						return to[a] - to[b];
+					}
+					return unsorted[a].flightNum.compareTo(unsorted[b].flightNum);
+				}
+			});
+
+			edgeStart = new int[cityNames.length + 1];
+			int[] dest = new int[flights.length];
+			int[] firstFlight = new int[flights.length + 1];
+			int edges = 0;
+			for (int i = 0; i < order.length; ++i) {
+				int f = order[i];
+				flights[i] = unsorted[f];
+				if (i == 0 || from[f] != from[order[i - 1]] || to[f] != to[order[i - 1]]) {
+					dest[edges] = to[f];
+					firstFlight[edges] = i;
+					edges++;
+					edgeStart[from[f] + 1]++;
+				}
+			}
+			for (int c = 0; c < cityNames.length; ++c) {
+				edgeStart[c + 1] += edgeStart[c];
+			}
+			firstFlight[edges] = flights.length;
+			edgeDest = Arrays.copyOf(dest, edges);
+			flightStart = Arrays.copyOf(firstFlight, edges + 1);
+			edgeMinDuration = new int[edges];
+			for (int e = 0; e < edges; ++e) {
+				int min = Integer.MAX_VALUE;
+				for (int i = flightStart[e]; i < flightStart[e + 1]; ++i) {
+					min = Math.min(min, flights[i].duration);
+				}
+				edgeMinDuration[e] = min;
+			}
+
+			cityIndex = new CityIndex(Arrays.asList(cityNames));
+			List<String> origins = new ArrayList<String>();
+			for (int c = 0; c < cityNames.length; ++c) {
+				if (edgeStart[c + 1] > edgeStart[c]) {
+					origins.add(cityNames[c]);
+				}
+			}
+			originIndex = new CityIndex(origins);
+		}
+
+		int cityId(String name) {
+			if (name == null) {
+				return -1;
+			}
+			Integer id = cityIds.get(name.trim());
+			return id == null ? -1 : id;
+		}
+
+		// index of the edge from origin to destination, or -1
+		int edge(int origin, int destination) {
+			if (origin < 0 || destination < 0) {
+				return -1;
+			}
+			int e = Arrays.binarySearch(edgeDest, edgeStart[origin], edgeStart[origin + 1], destination);
+			return e >= 0 ? e : -1;
+		}
+	}
+}
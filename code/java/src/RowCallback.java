@@ -0,0 +1,20 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a streamed query one at a time, so a listing can
+ * be printed or aggregated without holding the whole result in memory.
+ *
+ */
+
+public interface RowCallback {
+	/**
+	 * Called once per row. The ResultSet is positioned on the current row
+	 * and must not be advanced or closed by the callback.
+	 *
+	 * @param rs the result set positioned on the current row
+	 * @return true to keep reading, false to stop the query early
+	 * @throws java.sql.SQLException when a column cannot be read
+	 */
+	boolean row(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,199 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date once, when the application
+ * connects, so the interactive operations never issue DDL themselves.
+ * Each migration has a version number and is recorded in the
+ * schema_version table after it is applied; migrations already recorded
+ * are skipped.
+ *
+ * All pending migrations run in one transaction under an advisory lock,
+ * so several clients starting at the same time apply them exactly once.
+ * New migrations are appended to the list below with the next version
+ * number; applied ones must never be edited.
+ */
+
+public class SchemaMigrator {
+	// arbitrary key for pg_advisory_xact_lock, shared by every client
+	private static final long LOCK_KEY = 1662017L;
+
+	private static final List<Migration> MIGRATIONS = new ArrayList<Migration>();
+
+	static {
+		// The primary keys and UNIQUE constraints of create.sql already index
+		// Passenger(pID), Passenger(passNum), Booking(bookRef), Ratings(rID)
+		// and Airline(airId), so only the lookups they miss are added here.
+		add(1, "indexes for the menu lookups",
+			// leftovers of sessions that died between CREATE INDEX and DROP INDEX
+			"DROP INDEX IF EXISTS passNum_select",
+			"DROP INDEX IF EXISTS pID_select",
+			"DROP INDEX IF EXISTS origin_select",
+			"DROP INDEX IF EXISTS destination_select",
+			"DROP INDEX IF EXISTS bookRef_select",
+			"DROP INDEX IF EXISTS flightNum_select",
+			"DROP INDEX IF EXISTS pID_flightNum_select",
+			"DROP INDEX IF EXISTS rID_select",
+			"DROP INDEX IF EXISTS name_select",
+			"DROP INDEX IF EXISTS airId_select",
+			// origin lists and origin/destination searches (options 2, 5, 8)
+			"CREATE INDEX IF NOT EXISTS flight_origin_destination_idx ON Flight USING BTREE (origin, destination)",
+			// destination counts (option 6)
+			"CREATE INDEX IF NOT EXISTS flight_destination_idx ON Flight USING BTREE (destination)",
+			// booked seats per flight and day (option 9)
+			"CREATE INDEX IF NOT EXISTS booking_flightnum_departure_idx ON Booking USING BTREE (flightNum, departure)",
+			// a passenger's bookings (option 3)
+			"CREATE INDEX IF NOT EXISTS booking_pid_flightnum_idx ON Booking USING BTREE (pID, flightNum)",
+			// ratings per flight (options 3, 7)
+			"CREATE INDEX IF NOT EXISTS ratings_flightnum_idx ON Ratings USING BTREE (flightNum)",
+			// airline lookups by name (option 4)
+			"CREATE INDEX IF NOT EXISTS airline_name_idx ON Airline USING BTREE (name)");
+		add(2, "booking reference counter blocks",
+			// one value per block of BookRefGenerator.BLOCK_SIZE references
+			"CREATE SEQUENCE IF NOT EXISTS bookref_block_seq MINVALUE 0 START WITH 0");
+		add(3, "seat inventory per flight and departure",
+			"CREATE TABLE IF NOT EXISTS Seat_Inventory ("
+				+ "flightNum CHAR(8) NOT NULL REFERENCES Flight(flightNum), "
+				+ "departure DATE NOT NULL, "
+				+ "booked INTEGER NOT NULL DEFAULT 0 CHECK (booked >= 0), "
+				+ "PRIMARY KEY (flightNum, departure))",
+			// counts one seat per booking, see SeatInventory
+			"CREATE OR REPLACE FUNCTION seat_inventory_sync() RETURNS trigger AS $$\n"
+				+ "BEGIN\n"
+				+ "	IF TG_OP IN ('DELETE', 'UPDATE') THEN\n"
+				+ "		UPDATE Seat_Inventory SET booked = booked - 1\n"
+				+ "		WHERE flightNum = OLD.flightNum AND departure = OLD.departure;\n"
+				+ "	END IF;\n"
+				+ "	IF TG_OP IN ('INSERT', 'UPDATE') THEN\n"
+				+ "		INSERT INTO Seat_Inventory (flightNum, departure, booked)\n"
+				+ "		VALUES (NEW.flightNum, NEW.departure, 1)\n"
+				+ "		ON CONFLICT (flightNum, departure) DO UPDATE SET booked = Seat_Inventory.booked + 1;\n"
+				+ "	END IF;\n"
+				+ "	RETURN NULL;\n"
+				+ "END;\n"
+				+ "$$ LANGUAGE plpgsql",
+			"DROP TRIGGER IF EXISTS booking_seat_inventory ON Booking",
+			"CREATE TRIGGER booking_seat_inventory AFTER INSERT OR DELETE OR UPDATE OF flightNum, departure ON Booking "
+				+ "FOR EACH ROW EXECUTE PROCEDURE seat_inventory_sync()",
+			"INSERT INTO Seat_Inventory (flightNum, departure, booked) "
+				+ "SELECT flightNum, departure, count(*) FROM Booking GROUP BY flightNum, departure "
+				+ "ON CONFLICT (flightNum, departure) DO UPDATE SET booked = EXCLUDED.booked");
+		add(4, "refuse bookings beyond Flight.seats",
+			// the conditional UPDATE locks only the inventory row of this
+			// departure, so bookings of other flights proceed in parallel
+			"CREATE OR REPLACE FUNCTION seat_inventory_sync() RETURNS trigger AS $$\n"
+				+ "BEGIN\n"
+				+ "	IF TG_OP IN ('DELETE', 'UPDATE') THEN\n"
+				+ "		UPDATE Seat_Inventory SET booked = booked - 1\n"
+				+ "		WHERE flightNum = OLD.flightNum AND departure = OLD.departure;\n"
+				+ "	END IF;\n"
+				+ "	IF TG_OP IN ('INSERT', 'UPDATE') THEN\n"
+				+ "		INSERT INTO Seat_Inventory (flightNum, departure, booked)\n"
+				+ "		VALUES (NEW.flightNum, NEW.departure, 0)\n"
+				+ "		ON CONFLICT (flightNum, departure) DO NOTHING;\n"
+				+ "		UPDATE Seat_Inventory S SET booked = S.booked + 1\n"
+				+ "		FROM Flight F\n"
+				+ "		WHERE S.flightNum = NEW.flightNum AND S.departure = NEW.departure\n"
+				+ "		AND F.flightNum = S.flightNum AND S.booked < F.seats;\n"
+				+ "		IF NOT FOUND THEN\n"
+				+ "			RAISE EXCEPTION 'Flight % is sold out on %', NEW.flightNum, NEW.departure\n"
+				+ "			USING ERRCODE = '" + SeatInventory.SOLD_OUT + "';\n"
+				+ "		END IF;\n"
+				+ "	END IF;\n"
+				+ "	RETURN NULL;\n"
+				+ "END;\n"
+				+ "$$ LANGUAGE plpgsql");
+	}
+
+	private final ConnectionPool _pool;
+
+	public SchemaMigrator(ConnectionPool pool) {
+		this._pool = pool;
+	}
+
+	/**
+	 * Applies every migration newer than the recorded schema version.
+	 *
+	 * @return the number of migrations applied
+	 * @throws java.sql.SQLException when a migration fails; nothing is applied then
+	 */
+	public int migrate() throws SQLException {
+		PooledConnection pooled = this._pool.borrow();
+		Connection conn = pooled.getConnection();
+		try {
+			conn.setAutoCommit(false);
+			Statement stmt = conn.createStatement();
+			try {
+				stmt.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+				stmt.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+					+ "version INTEGER NOT NULL PRIMARY KEY, "
+					+ "description TEXT NOT NULL, "
+					+ "applied_at TIMESTAMP NOT NULL DEFAULT now())");
+
+				int current = 0;
+				ResultSet rs = stmt.executeQuery("SELECT COALESCE(max(version), 0) FROM schema_version");
+				if (rs.next()) {
+					current = rs.getInt(1);
+				}
+				rs.close();
+
+				int applied = 0;
+				for (Migration migration : MIGRATIONS) {
+					if (migration.version <= current) {
+						continue;
+					}
+					for (String sql : migration.statements) {
+						stmt.execute(sql);
+					}
+					PreparedStatement record = conn.prepareStatement("INSERT INTO schema_version (version, description) VALUES (?, ?)");
+					try {
+						record.setInt(1, migration.version);
+						record.setString(2, migration.description);
+						record.executeUpdate();
+					} finally {
+						record.close();
+					}
+					applied++;
+				}
+				conn.commit();
+				return applied;
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			// rolls back whatever was not committed
+			this._pool.release(pooled);
+		}
+	}
+
+	/**
+	 * @return the version the schema is at after all migrations are applied
+	 */
+	public static int getLatestVersion() {
+		return MIGRATIONS.isEmpty() ? 0 : MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+	}
+
+	private static void add(int version, String description, String... statements) {
+		if (version != getLatestVersion() + 1) {
+			throw new IllegalStateException("Migration " + version + " is out of order");
+		}
+		MIGRATIONS.add(new Migration(version, description, statements));
+	}
+
+	private static class Migration {
+		final int version;
+		final String description;
+		final String[] statements;
+
+		Migration(int version, String description, String[] statements) {
+			this.version = version;
+			this.description = description;
+			this.statements = statements;
+		}
+	}
+}
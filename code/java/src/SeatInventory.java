@@ -0,0 +1,205 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and repairs the Seat_Inventory table, which holds the number of
+ * booked seats per flight and departure date. The table is kept current
+ * by the booking_seat_inventory trigger on every insert, delete or
+ * change of a booking (see SchemaMigrator), so reading the booked seats
+ * of a departure is a single primary key lookup however large Booking
+ * grows.
+ *
+ * The trigger also refuses a booking once booked reaches Flight.seats,
+ * failing the INSERT with SQLSTATE SOLD_OUT. The check and the increment
+ * are one conditional UPDATE of the inventory row, so concurrent clients
+ * can never oversell a departure and only bookings of the same departure
+ * wait for each other.
+ *
+ * reconcile() recounts the inventory from Booking and corrects rows
+ * that drifted, e.g. after the trigger was disabled for a bulk load. It
+ * can also run periodically on a daemon thread; one process, the HTTP
+ * server, is enough to do so for every client.
+ */
+
+public class SeatInventory {
+	// SQLSTATE raised by the trigger when a departure has no seat left
+	public static final String SOLD_OUT = "AB001";
+
+	private final ConnectionPool _pool;
+	private ScheduledExecutorService reconciler = null;
+
+	public SeatInventory(ConnectionPool pool) {
+		this._pool = pool;
+	}
+
+	/**
+	 * @param flightNum the flight number
+	 * @param departure the departure date as yyyy-mm-dd
+	 * @return the number of booked seats, 0 when nothing is booked
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public int getBookedSeats(String flightNum, String departure) throws SQLException {
+		PooledConnection conn = this._pool.borrow();
+		try {
+			PreparedStatement stmt = conn.prepare("SELECT booked FROM Seat_Inventory WHERE flightNum = ? AND departure = CAST(? AS DATE);");
+			stmt.setString(1, flightNum);
+			stmt.setString(2, departure);
+			ResultSet rs = stmt.executeQuery();
+			int booked = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			return booked;
+		} finally {
+			this._pool.release(conn);
+		}
+	}
+
+	/**
+	 * @return the number of departures with more bookings than seats, 0
+	 *         unless bookings were loaded around the capacity check
+	 * @throws java.sql.SQLException when the check fails
+	 */
+	public int countOversold() throws SQLException {
+		PooledConnection conn = this._pool.borrow();
+		try {
+			PreparedStatement stmt = conn.prepare(
+				"SELECT count(*) FROM (SELECT B.flightNum, B.departure FROM Booking B, Flight F " +
+				"WHERE B.flightNum = F.flightNum GROUP BY B.flightNum, B.departure, F.seats " +
+				"HAVING count(*) > F.seats) AS O;");
+			ResultSet rs = stmt.executeQuery();
+			int oversold = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			return oversold;
+		} finally {
+			this._pool.release(conn);
+		}
+	}
+
+	/**
+	 * Rebuilds the booked seat counts from Booking. Departures whose count
+	 * looks wrong are found without locking, then each is recounted and
+	 * corrected in its own transaction while holding its inventory row,
+	 * the lock the trigger takes too. Only bookings of that departure wait
+	 * for the correction, and the result is exact.
+	 *
+	 * @return the number of inventory rows that were corrected
+	 * @throws java.sql.SQLException when the rebuild fails; rows corrected before are kept
+	 */
+	public int reconcile() throws SQLException {
+		List<String[]> drifted = new ArrayList<String[]>();
+		PooledConnection pooled = this._pool.borrow();
+		try {
+			PreparedStatement stmt = pooled.prepare(
+				"SELECT flightNum, departure FROM " +
+				"(SELECT flightNum, departure, count(*) AS n FROM Booking GROUP BY flightNum, departure) B " +
+				"FULL JOIN Seat_Inventory S USING (flightNum, departure) " +
+				"WHERE COALESCE(B.n, 0) <> COALESCE(S.booked, 0);");
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				drifted.add(new String[] { rs.getString(1), rs.getString(2) });
+			}
+			rs.close();
+		} finally {
+			this._pool.release(pooled);
+		}
+		int corrected = 0;
+		for (String[] departure : drifted) {
+			if (recount(departure[0], departure[1])) {
+				++corrected;
+			}
+		}
+		return corrected;
+	}
+
+	/**
+	 * Recounts one departure under the lock of its inventory row. A booking
+	 * in flight waits in its trigger and adds itself after the correction.
+	 *
+	 * @return true when the row was corrected
+	 */
+	private boolean recount(String flightNum, String departure) throws SQLException {
+		PooledConnection pooled = this._pool.borrow();
+		Connection conn = pooled.getConnection();
+		try {
+			conn.setAutoCommit(false);
+			PreparedStatement stmt = pooled.prepare(
+				"INSERT INTO Seat_Inventory (flightNum, departure, booked) VALUES (?, CAST(? AS DATE), 0) " +
+				"ON CONFLICT (flightNum, departure) DO NOTHING;");
+			stmt.setString(1, flightNum);
+			stmt.setString(2, departure);
+			stmt.executeUpdate();
+			stmt = pooled.prepare("SELECT booked FROM Seat_Inventory WHERE flightNum = ? AND departure = CAST(? AS DATE) FOR UPDATE;");
+			stmt.setString(1, flightNum);
+			stmt.setString(2, departure);
+			ResultSet rs = stmt.executeQuery();
+			int booked = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			// a new statement sees every booking committed before the lock was granted
+			stmt = pooled.prepare("SELECT count(*) FROM Booking WHERE flightNum = ? AND departure = CAST(? AS DATE);");
+			stmt.setString(1, flightNum);
+			stmt.setString(2, departure);
+			rs = stmt.executeQuery();
+			int counted = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			if (counted != booked) {
+				stmt = pooled.prepare("UPDATE Seat_Inventory SET booked = ? WHERE flightNum = ? AND departure = CAST(? AS DATE);");
+				stmt.setInt(1, counted);
+				stmt.setString(2, flightNum);
+				stmt.setString(3, departure);
+				stmt.executeUpdate();
+			}
+			conn.commit();
+			return counted != booked;
+		} finally {
+			// rolls back whatever was not committed
+			this._pool.release(pooled);
+		}
+	}
+
+	/**
+	 * Runs reconcile() every periodMillis on a daemon thread.
+	 *
+	 * @param periodMillis the time between two runs, 0 or less to disable
+	 */
+	public synchronized void startReconciler(long periodMillis) {
+		if (periodMillis <= 0 || reconciler != null) {
+			return;
+		}
+		reconciler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "seat-inventory-reconciler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reconciler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					int corrected = reconcile();
+					if (corrected > 0) {
+						System.err.println("Seat inventory: corrected " + corrected + " rows");
+					}
+				} catch (SQLException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic reconciliation.
+	 */
+	public synchronized void close() {
+		if (reconciler != null) {
+			reconciler.shutdownNow();
+			reconciler = null;
+		}
+	}
+}
@@ -4,6 +4,9 @@ DROP TABLE IF EXISTS Passenger CASCADE;
 DROP TABLE IF EXISTS Flight CASCADE;
 DROP TABLE IF EXISTS Ratings CASCADE;
 DROP TABLE IF EXISTS Booking CASCADE;
+DROP TABLE IF EXISTS Seat_Inventory CASCADE;
+--Indexes are recreated by SchemaMigrator on next connect
+DROP TABLE IF EXISTS schema_version CASCADE;
 
 DROP DOMAIN IF EXISTS _YEAR CASCADE;
 DROP DOMAIN IF EXISTS _HOURS CASCADE;
@@ -80,6 +83,8 @@ GRANT ALL PRIVILEGES ON TABLE Flight TO username;
 GRANT ALL PRIVILEGES ON TABLE Ratings TO username;
 GRANT ALL PRIVILEGES ON TABLE Booking TO username;
 ------------------------------------------------------------------------------------
+--The COPY statements below need the server to read the files; otherwise load them
+--from the client with java/run_bulkload.sh
 
 COPY Airline (
 	airId,